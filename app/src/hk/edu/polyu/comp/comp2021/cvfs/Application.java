@@ -1,14 +1,29 @@
 package hk.edu.polyu.comp.comp2021.cvfs;
 
 import hk.edu.polyu.comp.comp2021.cvfs.model.CVFS;
+import hk.edu.polyu.comp.comp2021.cvfs.server.CVFSServer;
 import hk.edu.polyu.comp.comp2021.cvfs.view.ConsoleView;
 import hk.edu.polyu.comp.comp2021.cvfs.controller.CVFSController;
 
+import java.io.IOException;
 
 
 public class Application {
 
-    public static void main(String[] args) {
+    /**
+     * Run the console, or with <code>--server port diskSize</code> serve
+     * sessions over a local socket instead.
+     *
+     * @param args the command line arguments
+     * @throws IOException if the server cannot listen on the port
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 3 && args[0].equals("--server")) {
+            CVFSServer server = new CVFSServer(Integer.parseInt(args[1]), Long.parseLong(args[2]));
+            System.out.println("Serving on port " + server.start());
+            server.serve();
+            return;
+        }
         CVFS cvfs = new CVFS();
         ConsoleView view = new ConsoleView();
         CVFSController control = new CVFSController(cvfs, view);
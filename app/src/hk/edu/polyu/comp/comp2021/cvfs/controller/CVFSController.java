@@ -479,10 +479,14 @@ import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Directory;
 import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Node;
 import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Disk;
 import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DiskOption;
 import hk.edu.polyu.comp.comp2021.cvfs.model.terminal.HistoryLogger;
 
+import java.io.InputStream;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Scanner;
+import java.util.Set;
 
 /**
  * the control element of the CVFS
@@ -494,7 +498,19 @@ public class CVFSController {
     /**
      * To deal with the user input.
      */
-    private final Scanner scanner = new Scanner(System.in);
+    private final Scanner scanner;
+    /**
+     * True if quit should end the whole program rather than this controller.
+     */
+    private final boolean standalone;
+    /**
+     * False once the user has quit.
+     */
+    private boolean running = true;
+    /**
+     * The latencies of the commands run so far.
+     */
+    private final LatencyStats stats = new LatencyStats();
     private final static String numParamError = "Wrong number of parameter(s), please follow command template: \033[4m";
 
 
@@ -507,15 +523,47 @@ public class CVFSController {
     public CVFSController(CVFS cvfs, ConsoleView view) {
         this.cvfs = cvfs;
         this.view = view;
+        this.scanner = new Scanner(System.in);
+        this.standalone = true;
+    }
+
+    /**
+     * Initialize a CVFS Controller reading commands from a stream, e.g. a
+     * session of the server. Quitting only stops this controller.
+     *
+     * @param cvfs the CVFS model to be used.
+     * @param view the CVFS view to be used.
+     * @param input the stream to read commands from.
+     */
+    public CVFSController(CVFS cvfs, ConsoleView view, InputStream input) {
+        this.cvfs = cvfs;
+        this.view = view;
+        this.scanner = new Scanner(input, "UTF-8");
+        this.standalone = false;
     }
 
     /**
      * @return command input from the keyboard or the system
      */
     public String getCommand() {
+        System.out.flush();
         return scanner.nextLine();
     }
 
+    /**
+     * @return False once the user has quit.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return The latencies of the commands run so far.
+     */
+    public LatencyStats getStats() {
+        return stats;
+    }
+
 
     /**
      * @param type    type of command input
@@ -530,12 +578,18 @@ public class CVFSController {
 
         switch (type) {
             case newDisk:
-                if (elements.length != 2)
-                    throw new IllegalArgumentException(numParamError + "[newDisk diskSize]");
-                if (!elements[1].matches("^[1-9]\\d*$"))
+                if (elements.length < 2)
+                    throw new IllegalArgumentException(numParamError + "[newDisk diskSize [sorted] [columnar] [concurrent]]");
+                if (!elements[1].matches("^[1-9]\\d{0,17}$"))
                     throw new IllegalArgumentException("Invalid diskSize, must be a positive integer.");
-
-                cvfs.newDisk(Integer.parseInt(elements[1]));
+                Set<DiskOption> options = EnumSet.noneOf(DiskOption.class);
+                for (int i = 2; i < elements.length; i++) {
+                    DiskOption option = DiskOption.parse(elements[i]);
+                    if (option == null || !options.add(option))
+                        throw new IllegalArgumentException("Invalid disk option: " + elements[i]);
+                }
+
+                cvfs.newDisk(Long.parseLong(elements[1]), options);
                 return;
 
             case newDoc:
@@ -576,10 +630,13 @@ public class CVFSController {
             case list:
                 if (cvfs.getCwd() == null)
                     throw new IllegalStateException("Please first create a disk.");
-                if (elements.length != 1)
-                    throw new IllegalArgumentException(numParamError + "[list]");
+                if (elements.length > 2)
+                    throw new IllegalArgumentException(numParamError + "[list [prefix]]");
 
-                cvfs.getCwd().list();
+                if (elements.length == 2)
+                    cvfs.getCwd().list(elements[1]);
+                else
+                    cvfs.getCwd().list();
                 return;
 
             case rList:
@@ -645,6 +702,42 @@ public class CVFSController {
                 twd.delete(tname);
                 return;
 
+            case move:
+                if (cvfs.getCwd() == null)
+                    throw new IllegalStateException("Please first create a disk.");
+                if (elements.length != 3)
+                    throw new IllegalArgumentException(numParamError + "[move fileName targetPath]");
+
+                cvfs.move(elements[1], elements[2]);
+                return;
+
+            case copy:
+                if (cvfs.getCwd() == null)
+                    throw new IllegalStateException("Please first create a disk.");
+                if (elements.length != 3)
+                    throw new IllegalArgumentException(numParamError + "[copy fileName targetPath]");
+
+                cvfs.copy(elements[1], elements[2]);
+                return;
+
+            case importTree:
+                if (cvfs.getCwd() == null)
+                    throw new IllegalStateException("Please first create a disk.");
+                if (elements.length != 3)
+                    throw new IllegalArgumentException(numParamError + "[import hostPath cvfsPath]");
+
+                cvfs.importTree(elements[1], elements[2]);
+                return;
+
+            case export:
+                if (cvfs.getCwd() == null)
+                    throw new IllegalStateException("Please first create a disk.");
+                if (elements.length != 3)
+                    throw new IllegalArgumentException(numParamError + "[export cvfsPath hostPath]");
+
+                cvfs.export(elements[1], elements[2]);
+                return;
+
             case changeDir:
                 if (cvfs.getCwd() == null)
                     throw new IllegalStateException("Please first create a disk.");
@@ -697,6 +790,13 @@ public class CVFSController {
                 cvfs.printAllCriteria();
                 return;
 
+            case printStorage:
+                if (elements.length != 1)
+                    throw new IllegalArgumentException(numParamError + "[printStorage]");
+
+                cvfs.printStorage();
+                return;
+
 
             case undo:
                 if (elements.length != 1)
@@ -713,23 +813,64 @@ public class CVFSController {
                 return;
 
             case load:
-                if (elements.length != 2)
-                    throw new IllegalArgumentException(numParamError + "[load diskStoreName]");
+                if (elements.length != 2 && elements.length != 3)
+                    throw new IllegalArgumentException(numParamError + "[load diskStoreName [mapped]]");
+                if (elements.length == 3 && !elements[2].equals("mapped"))
+                    throw new IllegalArgumentException("Invalid load mode: " + elements[2]);
 
-                cvfs.load(elements[1]);
+                cvfs.load(elements[1], elements.length == 3);
                 return;
 
             case save:
+                if (cvfs.getCwd() == null)
+                    throw new IllegalStateException("Please first create a disk.");
+                if (elements.length != 2 && elements.length != 3)
+                    throw new IllegalArgumentException(numParamError + "[store diskStoreName [journal]]");
+                if (elements.length == 3 && !elements[2].equals("journal"))
+                    throw new IllegalArgumentException("Invalid save mode: " + elements[2]);
+
+                boolean journal = elements.length == 3;
+                cvfs.save(elements[1], journal);
+                HistoryLogger.getInstance().newLog(HistoryLogger.OpType.DD, elements[1], cvfs, journal);
+                return;
+            case snapshot:
                 if (cvfs.getCwd() == null)
                     throw new IllegalStateException("Please first create a disk.");
                 if (elements.length != 2)
-                    throw new IllegalArgumentException(numParamError + "[store diskStoreName]");
+                    throw new IllegalArgumentException(numParamError + "[snapshot snapshotName]");
 
-                cvfs.save(elements[1]);
-                HistoryLogger.getInstance().newLog(HistoryLogger.OpType.DD, elements[1], cvfs);
+                cvfs.snapshot(elements[1]);
                 return;
+
+            case listSnapshots:
+                if (cvfs.getCwd() == null)
+                    throw new IllegalStateException("Please first create a disk.");
+                if (elements.length != 1)
+                    throw new IllegalArgumentException(numParamError + "[listSnapshots]");
+
+                cvfs.listSnapshots();
+                return;
+
+            case checkout:
+                if (cvfs.getCwd() == null)
+                    throw new IllegalStateException("Please first create a disk.");
+                if (elements.length != 2)
+                    throw new IllegalArgumentException(numParamError + "[checkout snapshotName]");
+
+                cvfs.checkout(elements[1]);
+                return;
+
+            case printLatency:
+                if (elements.length != 1)
+                    throw new IllegalArgumentException(numParamError + "[printLatency]");
+
+                System.out.println("\033[32mLatency: \033[33m" + stats + "\033[0m");
+                return;
+
             case quit:
-                System.exit(0);
+                if (standalone)
+                    System.exit(0);
+                running = false;
         }
 
     }
@@ -754,11 +895,13 @@ public class CVFSController {
             command = getCommand();
             type = CommandParser.parseType(command);
         }
+        long start = System.nanoTime();
         try {
             processCommand(type, command);
         } catch (Exception e) {
             System.out.println("\033[91m" + "Error: " + e.getLocalizedMessage() + "\033[0m");
         }
+        stats.record(System.nanoTime() - start);
     }
 
     /**
@@ -773,8 +916,7 @@ public class CVFSController {
             if (obj instanceof Node) {
                 Node unit = (Node) obj;
                 Directory parent = (Directory) args[1];
-                parent.getCatalog().put(unit.getName(), unit);
-                parent.updateSizeBy(unit.getSize());
+                parent.attach(unit);
             } else {
                 Criterion cri = (Criterion) obj;
                 CVFS cvfs = (CVFS) args[1];
@@ -789,8 +931,7 @@ public class CVFSController {
             if (obj instanceof Node) {
                 Node unit = (Node) obj;
                 Directory parent = (Directory) args[1];
-                parent.getCatalog().remove(unit.getName());
-                parent.updateSizeBy(-unit.getSize());
+                parent.detach(unit);
             } else {
                 Criterion cri = (Criterion) obj;
                 CVFS cvfs = (CVFS) args[1];
@@ -803,11 +944,19 @@ public class CVFSController {
         private final Ops ren = args -> {
             Node unit = (Node) args[0];
             String newName = (String) args[1];
-            String oldName = (String) args[2];
-            unit.setName(newName);
             Directory parent = (Directory) unit.getParent();
-            parent.getCatalog().remove(oldName);
-            parent.getCatalog().put(newName, unit);
+            parent.relabel(unit, newName);
+        };
+        /**
+         * Move an object: args are the object, the directory and name to
+         * move it to, and the directory it is in now.
+         */
+        private final Ops mov = args -> {
+            Node unit = (Node) args[0];
+            Directory target = (Directory) args[1];
+            String name = (String) args[2];
+            Directory parent = (Directory) args[3];
+            parent.relocate(unit, target, name);
         };
         /**
          * Change directory.
@@ -840,7 +989,7 @@ public class CVFSController {
         private final Ops ld = args -> {
             String name = (String) args[0];
             CVFS cvfs = (CVFS) args[1];
-            cvfs.save(name);
+            cvfs.save(name, args.length > 2 && (Boolean) args[2]);
 
         };
         private final HistoryLogger logger = HistoryLogger.getInstance();
@@ -850,6 +999,7 @@ public class CVFSController {
             typeMap.put(HistoryLogger.OpType.ADD, add);
             typeMap.put(HistoryLogger.OpType.DEL, del);
             typeMap.put(HistoryLogger.OpType.REN, ren);
+            typeMap.put(HistoryLogger.OpType.MOV, mov);
             typeMap.put(HistoryLogger.OpType.CD, cd);
             typeMap.put(HistoryLogger.OpType.SD, sd);
             typeMap.put(HistoryLogger.OpType.DD, dd);
@@ -874,7 +1024,7 @@ public class CVFSController {
         public void undo() {
             HistoryLogger.Tracelog log;
             log = logger.getlog();
-            parse(log);
+            logger.apply(log, () -> parse(log));
         }
 
         /**
@@ -883,7 +1033,7 @@ public class CVFSController {
         public void redo() {
             HistoryLogger.Tracelog log;
             log = logger.getRlog();
-            parse(log);
+            logger.apply(log, () -> parse(log));
 
         }
 
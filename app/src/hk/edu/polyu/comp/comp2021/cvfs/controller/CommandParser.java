@@ -17,6 +17,10 @@ public class CommandParser {
         COMMAND_MAP.put("newDir", CommandType.newDir);
         COMMAND_MAP.put("delete", CommandType.delete);
         COMMAND_MAP.put("rename", CommandType.rename);
+        COMMAND_MAP.put("move", CommandType.move);
+        COMMAND_MAP.put("copy", CommandType.copy);
+        COMMAND_MAP.put("import", CommandType.importTree);
+        COMMAND_MAP.put("export", CommandType.export);
         COMMAND_MAP.put("changeDir", CommandType.changeDir);
         COMMAND_MAP.put("list", CommandType.list);
         COMMAND_MAP.put("rList", CommandType.rList);
@@ -31,6 +35,11 @@ public class CommandParser {
         COMMAND_MAP.put("quit", CommandType.quit);
         COMMAND_MAP.put("undo", CommandType.undo);
         COMMAND_MAP.put("redo", CommandType.redo);
+        COMMAND_MAP.put("printStorage", CommandType.printStorage);
+        COMMAND_MAP.put("printLatency", CommandType.printLatency);
+        COMMAND_MAP.put("snapshot", CommandType.snapshot);
+        COMMAND_MAP.put("listSnapshots", CommandType.listSnapshots);
+        COMMAND_MAP.put("checkout", CommandType.checkout);
     }
 
     /**
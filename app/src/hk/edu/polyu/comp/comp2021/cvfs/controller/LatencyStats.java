@@ -0,0 +1,89 @@
+package hk.edu.polyu.comp.comp2021.cvfs.controller;
+
+/**
+ * Latencies of the commands run by one controller, kept in a histogram of
+ * power-of-two microsecond buckets so that recording is constant time and
+ * percentiles can be estimated at any point.
+ */
+public class LatencyStats {
+
+    /**
+     * Bucket i counts commands that took less than 2^i microseconds.
+     */
+    private final long[] buckets = new long[40];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    /**
+     * Record the latency of one command.
+     *
+     * @param nanos The time the command took, in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        buckets[Math.min(bucket, buckets.length - 1)]++;
+    }
+
+    /**
+     * Add the latencies recorded by another one, e.g. a finished session.
+     *
+     * @param other The latencies to be added.
+     */
+    public void merge(LatencyStats other) {
+        long[] otherBuckets;
+        long otherCount, otherTotal, otherMax;
+        synchronized (other) {
+            otherBuckets = other.buckets.clone();
+            otherCount = other.count;
+            otherTotal = other.totalNanos;
+            otherMax = other.maxNanos;
+        }
+        synchronized (this) {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] += otherBuckets[i];
+            }
+            count += otherCount;
+            totalNanos += otherTotal;
+            maxNanos = Math.max(maxNanos, otherMax);
+        }
+    }
+
+    /**
+     * @return The number of commands recorded.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Estimate a percentile as the upper bound of the bucket it falls in.
+     *
+     * @param fraction The percentile as a fraction, e.g. 0.99.
+     * @return The estimated latency in microseconds.
+     */
+    public synchronized long percentile(double fraction) {
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (count == 0) {
+            return "no commands";
+        }
+        return String.format("%d commands, mean %d us, p50 < %d us, p99 < %d us, max %d us",
+                count, totalNanos / count / 1000, percentile(0.5), percentile(0.99), maxNanos / 1000);
+    }
+}
@@ -2,17 +2,29 @@ package hk.edu.polyu.comp.comp2021.cvfs.model;
 
 import java.io.*;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 // file system
+import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.ContentArena;
 import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Disk;
 import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Directory;
+import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.DiskImage;
+import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Exporter;
+import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Importer;
+import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Journal;
 import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Node;
+import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Snapshot;
 // criteria
 import hk.edu.polyu.comp.comp2021.cvfs.model.criteria.Criterion;
 import hk.edu.polyu.comp.comp2021.cvfs.model.criteria.BinaryCriterion;
 // command logger
 import hk.edu.polyu.comp.comp2021.cvfs.model.terminal.HistoryLogger;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DiskOption;
 
 
 /**
@@ -27,11 +39,11 @@ public class CVFS {
     /**
      * Stores the current disk in use.
      */
-    private Disk disk;
+    private volatile Disk disk;
     /**
      * Stores the reference to the current working directory.
      */
-    private Directory cwd;
+    private volatile Directory cwd;
 
     {
         criteria.put("IsDocument", Criterion.getIsDocument());
@@ -49,9 +61,19 @@ public class CVFS {
      *
      * @param diskSize The capacity of the disk.
      */
-    public void newDisk(int diskSize) {
+    public void newDisk(long diskSize) {
+        newDisk(diskSize, EnumSet.noneOf(DiskOption.class));
+    }
+
+    /**
+     * Create a new disk and return its reference.
+     *
+     * @param diskSize The capacity of the disk.
+     * @param options  The options of the disk.
+     */
+    public void newDisk(long diskSize, Set<DiskOption> options) {
         Disk tmp = disk;
-        disk = new Disk(diskSize);
+        disk = new Disk(diskSize, options);
         HistoryLogger.getInstance().newLog(HistoryLogger.OpType.SD, tmp, disk, this);
         cwd = disk;
         System.out.println("\033[32mNew disk created, size: \033[33m" + diskSize + "\033[0m");
@@ -90,8 +112,19 @@ public class CVFS {
      *
      * @param name The name of the file.
      */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
     public void save(String name) {
+        save(name, false);
+    }
+
+    /**
+     * Stores the current disk in local storage, and with a journal, goes on
+     * storing every later change to it as it is made.
+     *
+     * @param name The name of the file.
+     * @param journal true to start a journal next to the image.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public void save(String name, boolean journal) {
         try {
             if (!Node.isValidName(name))
                 throw new IllegalArgumentException("Invalid name.");
@@ -104,17 +137,27 @@ public class CVFS {
                 throw new FileAlreadyExistsException("File Already Exists.");
             //noinspection ResultOfMethodCallIgnored
             file.createNewFile();
-            FileOutputStream buffer = new FileOutputStream(path);
-            ObjectOutputStream out = new ObjectOutputStream(buffer);
-            out.writeObject(disk);
-            out.close();
-            buffer.close();
+            // the journal starts first, and the image is written at a cut
+            // of it, so no change made meanwhile is missed or replayed twice
+            if (journal)
+                Journal.create(disk, journalPath(name), Paths.get(path));
+            try (FileOutputStream out = new FileOutputStream(path)) {
+                DiskImage.write(disk, out);
+            }
             System.out.println("Current disk stored in " + path);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * @param name The name of a stored disk.
+     * @return The journal file of the disk.
+     */
+    private static Path journalPath(String name) {
+        return Paths.get(System.getProperty("user.dir") + "\\disks\\" + name + ".journal");
+    }
+
     /**
      * Delete a local copy of the disk.
      *
@@ -124,6 +167,10 @@ public class CVFS {
     public void delDisk(String name) {
         File file = new File(System.getProperty("user.dir") + "\\disks\\" + name + ".cvfs");
         file.delete();
+        Path journal = journalPath(name);
+        if (disk != null && disk.journal() != null && disk.journal().getPath().equals(journal.toAbsolutePath().normalize()))
+            Journal.detach(disk);
+        journal.toFile().delete();
     }
 
     /**
@@ -132,17 +179,43 @@ public class CVFS {
      * @param name the name of the disk to be loaded.
      */
     public void load(String name) {
+        load(name, false);
+    }
+
+    /**
+     * Load a disk from local storage. A mapped load reads only the top of
+     * the disk; the rest is read from the mapped file as it is used, so a
+     * disk of any size opens at once.
+     *
+     * @param name the name of the disk to be loaded.
+     * @param mapped true to map the file and read it lazily.
+     */
+    public void load(String name, boolean mapped) {
         try {
             String path = System.getProperty("user.dir") + "\\disks\\" + name + ".cvfs";
             if (!new File(path).exists())
                 throw new FileNotFoundException("File Not Found.");
-            FileInputStream buffer = new FileInputStream(path);
-            ObjectInputStream in = new ObjectInputStream(buffer);
-            Disk tmp = (Disk) in.readObject();
+            Disk tmp;
+            boolean image;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(path))) {
+                image = DiskImage.isImage(in);
+                // disks saved before the image format are serialized objects
+                tmp = image ? null : (Disk) new ObjectInputStream(in).readObject();
+            }
+            long start = System.nanoTime();
+            if (image)
+                tmp = DiskImage.open(Paths.get(path), mapped);
+            Path journal = journalPath(name);
+            if (tmp != null && journal.toFile().exists()) {
+                long opened = System.nanoTime();
+                int records = Journal.open(tmp, journal, Paths.get(path)).getReplayed();
+                long replayed = System.nanoTime();
+                System.out.println("Replayed " + records + " journal records.");
+                System.out.printf("Recovered in %d ms: image %d ms, journal %d ms.%n",
+                        (replayed - start) / 1000000, (opened - start) / 1000000, (replayed - opened) / 1000000);
+            }
             HistoryLogger.getInstance().newLog(HistoryLogger.OpType.SD, disk, tmp, this);
             setDisk(tmp);
-            in.close();
-            buffer.close();
         } catch (IOException e) {
             e.printStackTrace();
         } catch (ClassNotFoundException ignored) {
@@ -150,6 +223,43 @@ public class CVFS {
         System.out.println("Disk " + name + " Loaded.");
     }
 
+    /**
+     * Take a named snapshot of the current disk.
+     *
+     * @param name The name of the snapshot.
+     */
+    public void snapshot(String name) {
+        if (!Node.isValidName(name))
+            throw new IllegalArgumentException("Invalid snapshot name: " + name);
+        Snapshot snapshot = disk.snapshot(name);
+        System.out.println("\033[32mSnapshot " + name + " taken, size: \033[33m" + snapshot.getSize() + "\033[0m");
+    }
+
+    /**
+     * Print the snapshots of the current disk, oldest first.
+     */
+    public void listSnapshots() {
+        List<Snapshot> snapshots = disk.getSnapshots();
+        if (snapshots.isEmpty())
+            System.out.println("Warning: No snapshots of the current disk.");
+        for (Snapshot snapshot : snapshots)
+            System.out.println(" ├─ " + snapshot);
+    }
+
+    /**
+     * Switch to a new disk holding the files of a snapshot of the current
+     * disk. The current disk is kept for undo.
+     *
+     * @param name The name of the snapshot.
+     */
+    public void checkout(String name) {
+        Disk tmp = disk;
+        disk = tmp.checkout(name);
+        HistoryLogger.getInstance().newLog(HistoryLogger.OpType.SD, tmp, disk, this);
+        cwd = disk;
+        System.out.println("\033[32mChecked out snapshot \033[33m" + name + "\033[0m");
+    }
+
     /**
      * Return a criterion by name.
      *
@@ -230,6 +340,30 @@ public class CVFS {
         System.out.print("\033[0m");
     }
 
+    /**
+     * Print how document contents are stored: for the current disk, the
+     * logical bytes of its documents against what their copies take after
+     * sharing and compression; then the same for the whole content arena.
+     */
+    public void printStorage() {
+        ContentArena arena = ContentArena.getInstance();
+        if (disk != null) {
+            long[] usage = disk.measureContents();
+            System.out.println("\033[32mDisk: \033[33m" + usage[0] + " documents.\033[34m");
+            System.out.println("  ╟ logical bytes  " + usage[1]);
+            System.out.println("  ╟ physical bytes " + usage[2]);
+            System.out.println("  ╟ saved bytes    " + (usage[1] - usage[2]));
+        }
+        System.out.println("\033[32mStorage: \033[33m" + arena.getDocuments() + " documents.\033[34m");
+        System.out.println("  ╟ logical bytes  " + arena.getStoredBytes());
+        System.out.println("  ╟ physical bytes " + arena.getUsedBytes());
+        System.out.println("  ╟ dedup hits     " + arena.getSharedHits());
+        System.out.printf("  ╟ dedup ratio    %.2f%n", arena.getDedupRatio());
+        System.out.println("  ╟ compressed     " + arena.getCompressedBytes() + " bytes over "
+                + arena.getCompressionThreshold());
+        System.out.print("\033[0m");
+    }
+
     /**
      * Change the current working directory to the desired one.
      * Print a warning and return if the desired directory does not exist.
@@ -244,10 +378,7 @@ public class CVFS {
             setCwd(cwd.getParent());
             return;
         }
-        Object[] res = parsePath(name);
-        Directory tmpDir = (Directory) res[0];
-        String tname = (String) res[1];
-        Node newDir = tmpDir.getCatalog().get(tname);
+        Node newDir = disk.lookup(getCwd(), name);
         if (newDir == null)
             throw new IllegalArgumentException("Invalid path.");
         if (!(newDir instanceof Directory))
@@ -256,6 +387,96 @@ public class CVFS {
         setCwd((Directory) newDir);
     }
 
+    /**
+     * Move a file. If the target is an existing directory the file is moved
+     * into it under the same name, otherwise the target is read as the path
+     * of the file after the move.
+     *
+     * @param source The path of the file to be moved.
+     * @param target The directory to move it into, or its new path.
+     */
+    public void move(String source, String target) {
+        Object[] from = parsePath(source);
+        Object[] to = parseTarget(target, (String) from[1]);
+        ((Directory) from[0]).move((String) from[1], (Directory) to[0], (String) to[1]);
+    }
+
+    /**
+     * Copy a file. If the target is an existing directory the copy is put
+     * into it under the same name, otherwise the target is read as the path
+     * of the copy.
+     *
+     * @param source The path of the file to be copied.
+     * @param target The directory to copy it into, or the path of the copy.
+     */
+    public void copy(String source, String target) {
+        Object[] from = parsePath(source);
+        Object[] to = parseTarget(target, (String) from[1]);
+        ((Directory) from[0]).copy((String) from[1], (Directory) to[0], (String) to[1]);
+    }
+
+    /**
+     * Import a directory tree of the host. If the target is an existing
+     * directory the tree is put into it under the name of the host
+     * directory, otherwise the target is read as the path of the new
+     * directory.
+     *
+     * @param hostPath The directory of the host to be imported.
+     * @param target The directory to import it into, or its path.
+     */
+    public void importTree(String hostPath, String target) {
+        Path source = Paths.get(hostPath).toAbsolutePath().normalize();
+        Path hostName = source.getFileName();
+        Object[] to = parseTarget(target, hostName == null ? "" : hostName.toString());
+        long start = System.nanoTime();
+        Importer importer = new Importer(source, (Directory) to[0], (String) to[1]);
+        importer.run();
+        System.out.println("\033[32mImported \033[33m" + importer.getDocuments() + "\033[32m documents in \033[33m"
+                + importer.getDirectories() + "\033[32m directories (" + importer.getBytes() + " bytes) in \033[33m"
+                + (System.nanoTime() - start) / 1000000 + " ms\033[32m, \033[33m" + importer.getSkipped()
+                + "\033[32m skipped.\033[0m");
+    }
+
+    /**
+     * Write a directory out to the host: as a tar archive if the host path
+     * ends with <code>.tar</code>, otherwise as a new directory.
+     *
+     * @param path The directory to be exported.
+     * @param hostPath The archive or directory to be created on the host.
+     */
+    public void export(String path, String hostPath) {
+        Node dir = disk.lookup(getCwd(), path);
+        if (dir == null)
+            throw new IllegalArgumentException("Invalid path.");
+        if (!(dir instanceof Directory))
+            throw new IllegalArgumentException("This is not a directory.");
+        long start = System.nanoTime();
+        Exporter exporter = new Exporter((Directory) dir, Paths.get(hostPath));
+        exporter.run();
+        System.out.println("\033[32mExported \033[33m" + exporter.getDocuments() + "\033[32m documents in \033[33m"
+                + exporter.getDirectories() + "\033[32m directories (" + exporter.getBytes() + " bytes) in \033[33m"
+                + (System.nanoTime() - start) / 1000000 + " ms\033[32m.\033[0m");
+    }
+
+    /**
+     * Parse the target of a move, a copy or an import.
+     *
+     * @param target An existing directory, or the path of the file after.
+     * @param name The name of the file before.
+     * @return The directory the file goes into and its name there.
+     */
+    private Object[] parseTarget(String target, String name) {
+        if (!Node.isValidName(name))
+            throw new IllegalArgumentException("Invalid file name: " + name);
+        Node dest = disk.lookup(getCwd(), target);
+        if (dest instanceof Directory)
+            return new Object[]{dest, name};
+        Object[] to = parsePath(target);
+        if (!Node.isValidName((String) to[1]))
+            throw new IllegalArgumentException("Invalid new name: " + to[1]);
+        return to;
+    }
+
     /**
      * Parse the path and return the directory of the target file and the name of the target file.
      *
@@ -263,17 +484,17 @@ public class CVFS {
      * @return The parent of the target file and the name of the file..
      */
     public Object[] parsePath(String path) {
-        String[] paths = path.split(":");
+        int split = path.lastIndexOf(':');
         Directory cur = getCwd();
-        for (int i = 0; i < paths.length - 1; i++) {
-            String s = paths[i];
-            if (s.equals("$")) continue;
-            cur = (Directory) cur.getCatalog().get(s);
-            if (cur == null) throw new IllegalArgumentException("Invalid Path, please use $:<dir>:...:<file> format.");
+        if (split >= 0) {
+            Node dir = disk.lookup(getCwd(), path, split);
+            if (!(dir instanceof Directory))
+                throw new IllegalArgumentException("Invalid Path, please use $:<dir>:...:<file> format.");
+            cur = (Directory) dir;
         }
         Object[] result = new Object[2];
         result[0] = cur;
-        result[1] = paths[paths.length - 1];
+        result[1] = path.substring(split + 1);
         return result;
     }
 }
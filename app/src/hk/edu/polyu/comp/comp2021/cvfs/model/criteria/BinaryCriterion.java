@@ -3,7 +3,7 @@ package hk.edu.polyu.comp.comp2021.cvfs.model.criteria;
 import java.util.Objects;
 
 
-import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Node;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
 
 /**
  * This class implements binary criteria using a binary tree,
@@ -105,17 +105,19 @@ public class BinaryCriterion extends Criterion {
     /**
      * Check if one file fits multiple criteria.
      *
-     * @param unit The unit to be checked.
+     * @param nameCode The packed name of the file.
+     * @param size The size of the file.
+     * @param type The type of the file, null for a directory.
      * @return True if both conditions hold.
      * @throws RuntimeException if operator invalid
      */
     @Override
-    public boolean check(Node unit) throws RuntimeException {
+    public boolean check(long nameCode, long size, DocumentType type) throws RuntimeException {
         switch (operator) {
             case "&&":
-                return isNeg() ^ (cri1.check(unit) && cri2.check(unit));
+                return isNeg() ^ (cri1.check(nameCode, size, type) && cri2.check(nameCode, size, type));
             case "||":
-                return isNeg() ^ (cri1.check(unit) || cri2.check(unit));
+                return isNeg() ^ (cri1.check(nameCode, size, type) || cri2.check(nameCode, size, type));
             default:
                 throw new RuntimeException("BinCri operator invalid " + operator + ".");
         }
@@ -1,7 +1,9 @@
 package hk.edu.polyu.comp.comp2021.cvfs.model.criteria;
 
 import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Document;
+import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.NameCodec;
 import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Node;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
 import java.util.Objects;
 
 /**
@@ -159,7 +161,7 @@ public class Criterion implements Cloneable {
                 flagOp = op.matches("^(([><]=?)|([!=]=))$");
 
                 try {
-                    Integer.parseInt(val);
+                    Long.parseLong(val);
                     flagVal = true;
                 } catch (NumberFormatException e) {
                     flagVal = false;
@@ -252,8 +254,23 @@ public class Criterion implements Cloneable {
             throw new RuntimeException("Null unit checked by check() checker.");
         }
 
+        DocumentType type = unit instanceof Document ? ((Document) unit).getType() : null;
+        return check(unit.getNameCode(), unit.getSize(), type);
+    }
+
+    /**
+     * Check a file given only its attributes, so that files kept in a
+     * columnar store can be checked without building them.
+     *
+     * @param nameCode The name of the file packed by <code>NameCodec</code>.
+     * @param size The size of the file.
+     * @param type The type of the file, null for a directory.
+     * @return True if the condition holds.
+     * @throws RuntimeException if expression error
+     */
+    public boolean check(long nameCode, long size, DocumentType type) {
         if (isDocumentMark) {
-            return unit instanceof Document;
+            return type != null;
         }
 
         boolean result;
@@ -261,18 +278,17 @@ public class Criterion implements Cloneable {
             case "name":
                 // Remove quotes from val and check if name contains the value
                 String nameValue = val.substring(1, val.length() - 1);
-                result = unit.getName().contains(nameValue);
+                result = NameCodec.decode(nameCode).contains(nameValue);
                 break;
             case "type":
-                if (!(unit instanceof Document)) {
+                if (type == null) {
                     return false;
                 }
                 String typeValue = val.substring(1, val.length() - 1);
-                result = ((Document) unit).getType().toString().equals(typeValue);
+                result = type.toString().equals(typeValue);
                 break;
             case "size":
-                int size = unit.getSize();
-                int compareValue = Integer.parseInt(val);
+                long compareValue = Long.parseLong(val);
                 switch (op) {
                     case ">":
                         result = size > compareValue;
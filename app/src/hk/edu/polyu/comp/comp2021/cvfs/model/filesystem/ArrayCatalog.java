@@ -0,0 +1,122 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A catalog for small directories: packed names and files in two short
+ * arrays, kept sorted by name. Grows into a <code>HashCatalog</code>, or a
+ * <code>SortedCatalog</code> on an ordered disk, once it holds more than
+ * <code>MAX_SIZE</code> files.
+ */
+public class ArrayCatalog implements OrderedCatalog {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The largest number of files kept in array form.
+     */
+    static final int MAX_SIZE = 8;
+
+    private long[] keys = new long[2];
+    private Node[] values = new Node[2];
+    private int size;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Node get(long code) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == code) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void put(Node unit) {
+        long code = unit.getNameCode();
+        int i = lowerBound(code);
+        if (i < size && keys[i] == code) {
+            values[i] = unit;
+            return;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(values, i, values, i + 1, size - i);
+        keys[i] = code;
+        values[i] = unit;
+        size++;
+    }
+
+    @Override
+    public Node remove(long code) {
+        int i = lowerBound(code);
+        if (i == size || keys[i] != code) {
+            return null;
+        }
+        Node removed = values[i];
+        size--;
+        System.arraycopy(keys, i + 1, keys, i, size - i);
+        System.arraycopy(values, i + 1, values, i, size - i);
+        keys[size] = 0;
+        values[size] = null;
+        return removed;
+    }
+
+    @Override
+    public Catalog resized(boolean ordered) {
+        if (size <= MAX_SIZE) {
+            return this;
+        }
+        Catalog bigger = ordered ? new SortedCatalog() : new HashCatalog(size * 2);
+        for (int i = 0; i < size; i++) {
+            bigger.put(values[i]);
+        }
+        return bigger;
+    }
+
+    /**
+     * @return An iterator over the files, in name order.
+     */
+    @Override
+    public Iterator<Node> iterator() {
+        return seek(0);
+    }
+
+    @Override
+    public Iterator<Node> seek(long from) {
+        final int start = lowerBound(from);
+        return new Iterator<Node>() {
+            private int next = start;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Node next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return values[next++];
+            }
+        };
+    }
+
+    private int lowerBound(long code) {
+        int i = 0;
+        while (i < size && keys[i] < code) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,67 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.io.Serializable;
+
+/**
+ * The catalog of a directory, mapping packed names (see
+ * <code>NameCodec</code>) to files. Several implementations exist for
+ * directories of different sizes; a directory swaps between them through
+ * <code>resized</code> as files come and go.
+ */
+public interface Catalog extends Iterable<Node>, Serializable {
+
+    /**
+     * @return The number of files in the catalog.
+     */
+    int size();
+
+    /**
+     * @return True if the catalog holds no file.
+     */
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Find a file by its packed name.
+     *
+     * @param code The packed name.
+     * @return The file, or null if there is none.
+     */
+    Node get(long code);
+
+    /**
+     * Find a file by its name.
+     *
+     * @param name The name of the file.
+     * @return The file, or null if there is none or the name is invalid.
+     */
+    default Node get(String name) {
+        long code = NameCodec.tryEncode(name);
+        return code == 0 ? null : get(code);
+    }
+
+    /**
+     * Put a file into the catalog under its own name, replacing any file
+     * with the same name.
+     *
+     * @param unit The file to be put.
+     */
+    void put(Node unit);
+
+    /**
+     * Remove a file by its packed name.
+     *
+     * @param code The packed name.
+     * @return The removed file, or null if there was none.
+     */
+    Node remove(long code);
+
+    /**
+     * Pick the representation that suits the current number of files.
+     *
+     * @param ordered True if the directory must keep its files sorted.
+     * @return This catalog, or a copy of it in a better suited form.
+     */
+    Catalog resized(boolean ordered);
+}
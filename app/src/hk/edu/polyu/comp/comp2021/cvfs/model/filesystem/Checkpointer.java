@@ -0,0 +1,282 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes a fresh image of a journaled disk from time to time and cuts the
+ * records it holds out of the journal, so that neither the journal nor the
+ * time to replay it on load grows without bound. A checkpoint is due once
+ * the journal holds <code>cvfs.checkpointBytes</code> bytes of records, 64 MB
+ * by default, or <code>cvfs.checkpointInterval</code> seconds, 300 by
+ * default, have passed since the last one; it starts with the next change.
+ * <p>
+ * A checkpoint pins the current epoch of the disk and writes the disk as it
+ * was then, so the image is one consistent state however the disk changes
+ * meanwhile. A concurrent disk is written by a background thread. Any other
+ * disk is not safe to read from another thread, so its image is written a
+ * slice at a time whenever the disk is changed; syncing the image, moving it
+ * over the old one and compacting the journal still happen in the
+ * background. Either way, commands go on while a checkpoint is taken.
+ * <p>
+ * The image is in place before the journal is compacted. A crash between
+ * the two leaves a new image and the whole journal, and since the image
+ * records how many journal records it holds, loading it replays only the
+ * rest.
+ */
+public final class Checkpointer {
+
+    static final long INTERVAL = Long.getLong("cvfs.checkpointInterval", 300) * 1000;
+    static final long BYTES = Long.getLong("cvfs.checkpointBytes", 64L << 20);
+
+    /**
+     * The number of files written in one slice.
+     */
+    static final int SLICE = 4096;
+
+    private static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "cvfs-checkpointer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Disk disk;
+    private final Journal journal;
+    private final Path image;
+    private long interval = INTERVAL;
+    private long bytes = BYTES;
+
+    /**
+     * When the last checkpoint started, in milliseconds.
+     */
+    private long last = System.currentTimeMillis();
+
+    /**
+     * The checkpoint being taken, or null. Guarded by this checkpointer.
+     */
+    private Checkpoint current;
+
+    private volatile int taken;
+    private volatile long lastMillis;
+
+    /**
+     * One checkpoint: the epoch it pins, the first journal record it keeps
+     * and where that record is, and the image being written. The image
+     * holds exactly the records before that one, see
+     * <code>Journal.mark</code>.
+     */
+    private static final class Checkpoint {
+        long started;
+        int epoch;
+        boolean pinned;
+        long seq;
+        long position;
+        Path temp;
+        OutputStream out;
+        DiskImage.Writer writer;
+    }
+
+    Checkpointer(Disk disk, Journal journal, Path image) {
+        this.disk = disk;
+        this.journal = journal;
+        this.image = image;
+    }
+
+    /**
+     * Change when checkpoints are due, for this journal only.
+     *
+     * @param interval The most milliseconds between checkpoints.
+     * @param bytes The most bytes of records the journal holds.
+     */
+    public synchronized void setTriggers(long interval, long bytes) {
+        if (interval <= 0 || bytes <= 0)
+            throw new IllegalArgumentException("Checkpoint triggers must be positive.");
+        this.interval = interval;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Called on the thread changing the disk once the change is in the
+     * journal. Starts a checkpoint when one is due, or, on a disk that is
+     * not concurrent, writes the next slice of the one being taken.
+     */
+    synchronized void changed() {
+        if (current != null) {
+            if (!disk.isConcurrent() && current.writer != null) {
+                step(current);
+            }
+            return;
+        }
+        if (journal.records() < bytes && System.currentTimeMillis() - last < interval) {
+            return;
+        }
+        last = System.currentTimeMillis();
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.started = System.nanoTime();
+        checkpoint.temp = image.resolveSibling(image.getFileName() + ".tmp");
+        current = checkpoint;
+        if (disk.isConcurrent()) {
+            // the mark locks every directory, and this thread may hold some
+            BACKGROUND.execute(() -> {
+                try {
+                    start(checkpoint);
+                    checkpoint.writer.step(Long.MAX_VALUE);
+                } catch (IOException | RuntimeException e) {
+                    fail(checkpoint, e);
+                    return;
+                }
+                written(checkpoint);
+            });
+        } else {
+            try {
+                start(checkpoint);
+            } catch (IOException e) {
+                fail(checkpoint, e);
+                return;
+            }
+            step(checkpoint);
+        }
+    }
+
+    /**
+     * Pin the disk and cut the journal at the same point, and open the
+     * image.
+     */
+    private void start(Checkpoint checkpoint) throws IOException {
+        long[] mark = journal.mark(disk);
+        synchronized (checkpoint) {
+            checkpoint.epoch = (int) mark[0];
+            checkpoint.pinned = true;
+        }
+        checkpoint.seq = mark[1];
+        checkpoint.position = mark[2];
+        checkpoint.out = Files.newOutputStream(checkpoint.temp);
+        checkpoint.writer = new DiskImage.Writer(disk, checkpoint.epoch, checkpoint.seq, checkpoint.out);
+    }
+
+    /**
+     * Write a slice of the image of a disk that is not concurrent.
+     */
+    private void step(Checkpoint checkpoint) {
+        try {
+            if (!checkpoint.writer.step(SLICE)) {
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(checkpoint, e);
+            return;
+        }
+        written(checkpoint);
+    }
+
+    /**
+     * The whole image is written: give up the pin and finish in the
+     * background.
+     */
+    private void written(Checkpoint checkpoint) {
+        checkpoint.writer = null;
+        unpin(checkpoint);
+        BACKGROUND.execute(() -> finish(checkpoint));
+    }
+
+    /**
+     * Sync the image, move it over the old one and compact the journal.
+     */
+    private void finish(Checkpoint checkpoint) {
+        try {
+            checkpoint.out.close();
+            try (FileChannel file = FileChannel.open(checkpoint.temp, StandardOpenOption.WRITE)) {
+                file.force(true);
+            }
+            Files.move(checkpoint.temp, image, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            journal.compact(checkpoint.seq, checkpoint.position);
+            lastMillis = (System.nanoTime() - checkpoint.started) / 1000000;
+            taken++;
+        } catch (IOException | RuntimeException e) {
+            fail(checkpoint, e);
+            return;
+        }
+        synchronized (this) {
+            if (current == checkpoint) {
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Give up a checkpoint that could not be taken. The journal still holds
+     * every record, so nothing is lost.
+     */
+    private void fail(Checkpoint checkpoint, Exception e) {
+        abandon(checkpoint);
+        e.printStackTrace();
+    }
+
+    private void abandon(Checkpoint checkpoint) {
+        unpin(checkpoint);
+        try {
+            if (checkpoint.out != null) {
+                checkpoint.out.close();
+            }
+            Files.deleteIfExists(checkpoint.temp);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            synchronized (this) {
+                if (current == checkpoint) {
+                    current = null;
+                }
+            }
+        }
+    }
+
+    private void unpin(Checkpoint checkpoint) {
+        synchronized (checkpoint) {
+            if (checkpoint.pinned) {
+                checkpoint.pinned = false;
+                disk.versions().unpin(checkpoint.epoch);
+            }
+        }
+    }
+
+    /**
+     * Stop a checkpoint still being written a slice at a time, when the
+     * journal is closed. One written in the background is left to finish;
+     * its image is complete, and it leaves the closed journal alone.
+     */
+    synchronized void cancel() {
+        if (current != null && !disk.isConcurrent() && current.writer != null) {
+            abandon(current);
+        }
+    }
+
+    /**
+     * @return True if no checkpoint is being taken.
+     */
+    public synchronized boolean isIdle() {
+        return current == null;
+    }
+
+    /**
+     * @return The number of checkpoints taken.
+     */
+    public int getTaken() {
+        return taken;
+    }
+
+    /**
+     * @return How long the last checkpoint took, in milliseconds, from the
+     *         cut to the compacted journal.
+     */
+    public long getLastMillis() {
+        return lastMillis;
+    }
+}
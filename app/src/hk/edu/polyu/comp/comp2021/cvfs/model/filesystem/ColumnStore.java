@@ -0,0 +1,245 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.criteria.Criterion;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+
+import java.util.Arrays;
+
+/**
+ * The metadata of every file on a disk laid out column by column: one
+ * primitive array per attribute, all indexed by the slot of the file. The
+ * tree is linked through first-child and next-sibling slots, so a recursive
+ * scan walks a few flat arrays instead of chasing file objects and their
+ * catalogs. Slot 0 is unused; a file with slot 0 is not in the store.
+ */
+final class ColumnStore {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final DocumentType[] TYPES = DocumentType.values();
+
+    /**
+     * Type column value of a directory; a document stores its type ordinal.
+     */
+    private static final byte DIRECTORY = -1;
+
+    private long[] inode;
+    private long[] name;
+    private long[] size;
+    private byte[] type;
+    private int[] parent;
+    private int[] firstChild;
+    private int[] lastChild;
+    private int[] nextSibling;
+    private int[] prevSibling;
+
+    /**
+     * One past the highest slot ever used.
+     */
+    private int top = 1;
+
+    /**
+     * Head of the chain of freed slots, linked through the next-sibling column.
+     */
+    private int free;
+
+    /**
+     * The number of files in the store.
+     */
+    private int count;
+
+    ColumnStore() {
+        inode = new long[INITIAL_CAPACITY];
+        name = new long[INITIAL_CAPACITY];
+        size = new long[INITIAL_CAPACITY];
+        type = new byte[INITIAL_CAPACITY];
+        parent = new int[INITIAL_CAPACITY];
+        firstChild = new int[INITIAL_CAPACITY];
+        lastChild = new int[INITIAL_CAPACITY];
+        nextSibling = new int[INITIAL_CAPACITY];
+        prevSibling = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Add a file as the last child of its parent, which must already be in
+     * the store unless the file is the disk itself.
+     *
+     * @param unit The file to be added.
+     */
+    void add(Node unit) {
+        int slot = allocate();
+        inode[slot] = unit.getInode();
+        name[slot] = unit.getNameCode();
+        size[slot] = unit.getSize();
+        type[slot] = unit instanceof Document ? (byte) ((Document) unit).getType().ordinal() : DIRECTORY;
+        firstChild[slot] = 0;
+        lastChild[slot] = 0;
+        link(slot, unit.getParent() == null ? 0 : unit.getParent().getColumn());
+        unit.setColumn(slot);
+        count++;
+    }
+
+    /**
+     * Take a file, with everything inside it, out from under its parent
+     * without freeing any slot. It can be moved back or removed later.
+     *
+     * @param unit The file to be detached.
+     */
+    void detach(Node unit) {
+        int slot = unit.getColumn();
+        if (slot != 0) {
+            unlink(slot);
+            parent[slot] = 0;
+        }
+    }
+
+    /**
+     * Move a file, with everything inside it, to the end of its new parent
+     * and take its new name. Nothing inside it is touched.
+     *
+     * @param unit The moved file, already under its new parent.
+     */
+    void move(Node unit) {
+        int slot = unit.getColumn();
+        if (slot == 0) {
+            return;
+        }
+        unlink(slot);
+        name[slot] = unit.getNameCode();
+        link(slot, unit.getParent().getColumn());
+    }
+
+    /**
+     * Remove a file from the store. Files inside a directory must be removed
+     * before the directory.
+     *
+     * @param unit The file to be removed.
+     */
+    void remove(Node unit) {
+        int slot = unit.getColumn();
+        if (slot == 0) {
+            return;
+        }
+        unlink(slot);
+        unit.setColumn(0);
+        nextSibling[slot] = free;
+        free = slot;
+        count--;
+    }
+
+    /**
+     * Copy the current size of a directory into the store.
+     *
+     * @param unit The directory whose size has changed.
+     */
+    void updateSize(Directory unit) {
+        int slot = unit.getColumn();
+        if (slot != 0) {
+            size[slot] = unit.getLocalSize();
+        }
+    }
+
+    /**
+     * Check every file below a directory against a criterion, depth first
+     * and in the order the files were added.
+     *
+     * @param dir The directory to search in, which must be in the store.
+     * @param criterion The criterion to check.
+     * @return The inode IDs of the matching files.
+     */
+    long[] search(Directory dir, Criterion criterion) {
+        long[] found = new long[16];
+        int matches = 0;
+        int root = dir.getColumn();
+        int slot = firstChild[root];
+        while (slot != 0) {
+            DocumentType docType = type[slot] == DIRECTORY ? null : TYPES[type[slot]];
+            if (criterion.check(name[slot], size[slot], docType)) {
+                if (matches == found.length) {
+                    found = Arrays.copyOf(found, matches * 2);
+                }
+                found[matches++] = inode[slot];
+            }
+            if (firstChild[slot] != 0) {
+                slot = firstChild[slot];
+                continue;
+            }
+            while (slot != root && nextSibling[slot] == 0) {
+                slot = parent[slot];
+            }
+            slot = slot == root ? 0 : nextSibling[slot];
+        }
+        return Arrays.copyOf(found, matches);
+    }
+
+    /**
+     * @return The number of files in the store.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return The bytes taken by the columns.
+     */
+    long footprint() {
+        return (long) inode.length * (8 + 8 + 4 + 1 + 4 * 5);
+    }
+
+    /**
+     * Make a slot the last child of another, or a root if that is 0.
+     */
+    private void link(int slot, int up) {
+        parent[slot] = up;
+        prevSibling[slot] = up == 0 ? 0 : lastChild[up];
+        nextSibling[slot] = 0;
+        if (up != 0) {
+            if (lastChild[up] == 0) {
+                firstChild[up] = slot;
+            } else {
+                nextSibling[lastChild[up]] = slot;
+            }
+            lastChild[up] = slot;
+        }
+    }
+
+    /**
+     * Take a slot out of the children of its parent.
+     */
+    private void unlink(int slot) {
+        int up = parent[slot];
+        int prev = prevSibling[slot];
+        int next = nextSibling[slot];
+        if (up != 0) {
+            if (prev == 0) {
+                firstChild[up] = next;
+            } else {
+                nextSibling[prev] = next;
+            }
+            if (next == 0) {
+                lastChild[up] = prev;
+            } else {
+                prevSibling[next] = prev;
+            }
+        }
+    }
+
+    private int allocate() {
+        if (free != 0) {
+            int slot = free;
+            free = nextSibling[slot];
+            return slot;
+        }
+        if (top == inode.length) {
+            int capacity = inode.length * 2;
+            inode = Arrays.copyOf(inode, capacity);
+            name = Arrays.copyOf(name, capacity);
+            size = Arrays.copyOf(size, capacity);
+            type = Arrays.copyOf(type, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            lastChild = Arrays.copyOf(lastChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            prevSibling = Arrays.copyOf(prevSibling, capacity);
+        }
+        return top++;
+    }
+}
@@ -0,0 +1,592 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Off-heap storage for document contents. Contents are appended to direct
+ * <code>ByteBuffer</code> segments as UTF-16 chars, and a document only keeps
+ * the handle returned by <code>store</code>. The space of a freed copy is a
+ * hole that later copies are fitted into, merged with the holes next to it,
+ * and a segment is given back once all the contents in it have been freed.
+ * <p>
+ * Contents are also deduplicated: each stored content is hashed, and a
+ * content equal to one already in the arena shares its copy. Every copy
+ * counts its references and is freed when the last one goes.
+ * <p>
+ * Copies of at least <code>compressionThreshold</code> bytes (4096 unless the
+ * <code>cvfs.compressionThreshold</code> system property says otherwise) are
+ * deflated, and only inflated again when the content is read.
+ * <p>
+ * Reads take no lock. A copy never changes while a document holds its
+ * handle, and segments are published through a volatile array, so
+ * <code>load</code> and <code>physicalSize</code> only read. Storing, sharing
+ * and freeing update the shared tables under the monitor of the arena, with
+ * hashing and compression done before it is taken and contents copied in
+ * bulk.
+ */
+public final class ContentArena {
+
+    /**
+     * Handle of an empty content, which takes no space.
+     */
+    public static final long EMPTY = -1;
+
+    private static final int SEGMENT_SIZE = 1 << 20;
+
+    /**
+     * Copies within a segment start at multiples of this, so that holes do
+     * not splinter into slivers no copy fits in.
+     */
+    private static final int ALIGN = 8;
+
+    /**
+     * Flag in a handle marking a deflated copy, stored behind its 4-byte
+     * compressed length.
+     */
+    private static final long COMPRESSED = 1L << 31;
+    private static final long OFFSET_MASK = COMPRESSED - 1;
+
+    private static volatile ContentArena contentArena;
+
+    /**
+     * The segments by slot, null where one was released. Replaced, never
+     * resized in place, so a reader sees every slot filled before a handle
+     * into it was handed out.
+     */
+    private volatile ByteBuffer[] segments = new ByteBuffer[4];
+    private int segmentCount;
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    /**
+     * Bytes still in use in each segment.
+     */
+    private int[] live = new int[4];
+    /**
+     * The segment new contents are appended to when no hole fits, and its
+     * fill position.
+     */
+    private int current = -1;
+    private int top;
+    /**
+     * Free space inside the segments below their fill position, by position
+     * (slot and offset, as in a handle) to merge neighbours and by length to
+     * find the smallest hole that fits.
+     */
+    private final NavigableMap<Long, Integer> holes = new TreeMap<>();
+    private final NavigableMap<Integer, NavigableSet<Long>> holesByLength = new TreeMap<>();
+    private long usedBytes;
+    private long reservedBytes;
+
+    /**
+     * Shared copies by content hash, and by handle for <code>free</code>.
+     */
+    private final Map<Long, Shared> byHash = new HashMap<>();
+    private final Map<Long, Shared> byHandle = new HashMap<>();
+    private volatile int compressionThreshold = Integer.getInteger("cvfs.compressionThreshold", 4096);
+    private long compressedBytes;
+    private long storedBytes;
+    private long uniqueBytes;
+    private long documents;
+    private long sharedHits;
+
+    /**
+     * Empty constructor.
+     */
+    private ContentArena() {
+    }
+
+    /**
+     * @return the arena with singleton guaranteed.
+     */
+    public static ContentArena getInstance() {
+        if (contentArena == null) {
+            synchronized (ContentArena.class) {
+                if (contentArena == null) {
+                    contentArena = new ContentArena();
+                }
+            }
+        }
+        return contentArena;
+    }
+
+    /**
+     * Store a content, sharing the copy of an equal content if there is one.
+     *
+     * @param content The content to be stored.
+     * @return The handle of the stored content.
+     */
+    public long store(String content) {
+        if (content.isEmpty()) {
+            return EMPTY;
+        }
+        long hash = hash(content);
+        int bytes = content.length() * 2;
+        byte[] packed = null;
+        if (bytes >= compressionThreshold) {
+            packed = compress(content);
+            if (packed.length + 4 >= bytes) {
+                // compression does not pay off
+                packed = null;
+            }
+        }
+        synchronized (this) {
+            documents++;
+            storedBytes += bytes;
+            Shared shared = byHash.get(hash);
+            if (shared != null && shared.length == content.length() && matches(shared.handle, content)) {
+                shared.refs++;
+                sharedHits++;
+                return shared.handle;
+            }
+            shared = new Shared(packed != null ? allocate(packed, bytes) : allocate(content), content.length(), hash);
+            uniqueBytes += bytes;
+            byHandle.put(shared.handle, shared);
+            // on a hash collision the first copy stays the one that is shared
+            byHash.putIfAbsent(hash, shared);
+            return shared.handle;
+        }
+    }
+
+    /**
+     * Take one more reference to a stored content, for a copy of the
+     * document holding it. Nothing is hashed or copied.
+     *
+     * @param handle The handle returned by <code>store</code>.
+     * @param length The number of chars in the content.
+     * @return The same handle.
+     */
+    public synchronized long share(long handle, int length) {
+        if (handle == EMPTY) {
+            return EMPTY;
+        }
+        byHandle.get(handle).refs++;
+        documents++;
+        storedBytes += length * 2L;
+        sharedHits++;
+        return handle;
+    }
+
+    /**
+     * Drop one reference to a content, freeing its copy after the last one.
+     *
+     * @param handle The handle returned by <code>store</code>.
+     * @param length The number of chars in the content.
+     */
+    public synchronized void free(long handle, int length) {
+        if (handle == EMPTY) {
+            return;
+        }
+        documents--;
+        storedBytes -= length * 2L;
+        Shared shared = byHandle.get(handle);
+        if (--shared.refs > 0) {
+            return;
+        }
+        byHandle.remove(handle);
+        uniqueBytes -= length * 2L;
+        if (byHash.get(shared.hash) == shared) {
+            byHash.remove(shared.hash);
+        }
+        deallocate(handle, length);
+    }
+
+    /**
+     * Copy a content into a segment as it is.
+     *
+     * @param content A non-empty content.
+     * @return The handle of the copy.
+     */
+    private long allocate(String content) {
+        long handle = reserve(content.length() * 2);
+        ByteBuffer segment = at(handle);
+        segment.asCharBuffer().put(content);
+        return handle;
+    }
+
+    /**
+     * Copy a compressed content into a segment behind its length.
+     *
+     * @param packed The deflated content.
+     * @param bytes The size of the content before it was deflated.
+     * @return The handle of the copy.
+     */
+    private long allocate(byte[] packed, int bytes) {
+        long handle = reserve(packed.length + 4);
+        ByteBuffer segment = at(handle);
+        segment.putInt(packed.length).put(packed);
+        compressedBytes += bytes;
+        return handle | COMPRESSED;
+    }
+
+    /**
+     * Claim space in a segment: the smallest hole that fits, or else the
+     * end of the current segment.
+     *
+     * @param bytes The number of bytes needed.
+     * @return The slot of the segment in the high word, the offset in the
+     * low word.
+     */
+    private long reserve(int bytes) {
+        int block = block(bytes);
+        long position;
+        if (block > SEGMENT_SIZE) {
+            position = (long) newSegment(block) << 32;
+        } else {
+            position = takeHole(block);
+            if (position < 0) {
+                if (current < 0 || top + block > SEGMENT_SIZE) {
+                    if (current >= 0 && live[current] == 0) {
+                        releaseSegment(current);
+                    } else if (current >= 0 && top < SEGMENT_SIZE) {
+                        freeBlock(((long) current << 32) | top, SEGMENT_SIZE - top);
+                    }
+                    current = newSegment(SEGMENT_SIZE);
+                    top = 0;
+                }
+                position = ((long) current << 32) | top;
+                top += block;
+            }
+        }
+        live[(int) (position >>> 32)] += block;
+        usedBytes += bytes;
+        return position;
+    }
+
+    /**
+     * @return The space a copy of some bytes takes in its segment.
+     */
+    private static int block(int bytes) {
+        return bytes > SEGMENT_SIZE ? bytes : (bytes + ALIGN - 1) & -ALIGN;
+    }
+
+    /**
+     * Take the smallest hole that fits a block, leaving the rest of it as a
+     * smaller hole.
+     *
+     * @param block The aligned number of bytes needed.
+     * @return The position of the block, or -1 if no hole fits.
+     */
+    private long takeHole(int block) {
+        Map.Entry<Integer, NavigableSet<Long>> fit = holesByLength.ceilingEntry(block);
+        if (fit == null) {
+            return -1;
+        }
+        long position = fit.getValue().first();
+        int length = fit.getKey();
+        removeHole(position, length);
+        if (length > block) {
+            addHole(position + block, length - block);
+        }
+        return position;
+    }
+
+    /**
+     * Turn a block into a hole, merged with the holes right before and after
+     * it. A hole that reaches the fill position of the current segment is
+     * given back to it instead.
+     */
+    private void freeBlock(long position, int length) {
+        Map.Entry<Long, Integer> before = holes.lowerEntry(position);
+        if (before != null && before.getKey() + before.getValue() == position) {
+            removeHole(before.getKey(), before.getValue());
+            position = before.getKey();
+            length += before.getValue();
+        }
+        Integer after = holes.get(position + length);
+        if (after != null) {
+            removeHole(position + length, after);
+            length += after;
+        }
+        if ((int) (position >>> 32) == current && (int) position + length == top) {
+            top = (int) position;
+        } else {
+            addHole(position, length);
+        }
+    }
+
+    private void addHole(long position, int length) {
+        holes.put(position, length);
+        holesByLength.computeIfAbsent(length, k -> new TreeSet<>()).add(position);
+    }
+
+    private void removeHole(long position, int length) {
+        holes.remove(position);
+        NavigableSet<Long> same = holesByLength.get(length);
+        same.remove(position);
+        if (same.isEmpty()) {
+            holesByLength.remove(length);
+        }
+    }
+
+    /**
+     * Read a content back from the arena, inflating it if it was compressed.
+     *
+     * @param handle The handle returned by <code>store</code>.
+     * @param length The number of chars in the content.
+     * @return The content.
+     */
+    public String load(long handle, int length) {
+        if (handle == EMPTY) {
+            return "";
+        }
+        ByteBuffer segment = at(handle);
+        char[] chars = new char[length];
+        if ((handle & COMPRESSED) != 0) {
+            ByteBuffer.wrap(decompress(segment, length)).order(segment.order()).asCharBuffer().get(chars);
+        } else {
+            segment.asCharBuffer().get(chars);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Get the number of bytes a copy takes in the arena.
+     *
+     * @param handle The handle returned by <code>store</code>.
+     * @param length The number of chars in the content.
+     * @return The bytes taken, less than <code>length * 2</code> if the
+     * copy is compressed.
+     */
+    public int physicalSize(long handle, int length) {
+        if (handle == EMPTY) {
+            return 0;
+        }
+        if ((handle & COMPRESSED) == 0) {
+            return length * 2;
+        }
+        return segments[(int) (handle >>> 32)].getInt((int) (handle & OFFSET_MASK)) + 4;
+    }
+
+    /**
+     * Free a copy. Its segment is released once nothing in it is live.
+     *
+     * @param handle The handle of the copy.
+     * @param length The number of chars in the copy.
+     */
+    private void deallocate(long handle, int length) {
+        int slot = (int) (handle >>> 32);
+        int bytes = physicalSize(handle, length);
+        if ((handle & COMPRESSED) != 0) {
+            compressedBytes -= length * 2L;
+        }
+        int block = block(bytes);
+        live[slot] -= block;
+        usedBytes -= bytes;
+        if (live[slot] == 0) {
+            if (slot == current) {
+                dropHoles(slot);
+                top = 0;
+            } else {
+                releaseSegment(slot);
+            }
+        } else {
+            freeBlock(handle & ~COMPRESSED, block);
+        }
+    }
+
+    /**
+     * Forget the holes of a segment that is empty again.
+     */
+    private void dropHoles(int slot) {
+        NavigableMap<Long, Integer> inSlot = holes.subMap((long) slot << 32, true, (slot + 1L) << 32, false);
+        while (!inSlot.isEmpty()) {
+            Map.Entry<Long, Integer> hole = inSlot.firstEntry();
+            removeHole(hole.getKey(), hole.getValue());
+        }
+    }
+
+    /**
+     * Set the size from which contents are compressed. Only affects
+     * contents stored afterwards.
+     *
+     * @param bytes The threshold in bytes of UTF-16 text.
+     */
+    public void setCompressionThreshold(int bytes) {
+        compressionThreshold = bytes;
+    }
+
+    /**
+     * @return The size in bytes from which contents are compressed.
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @return The uncompressed size of all compressed copies.
+     */
+    public synchronized long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /**
+     * @return The number of bytes held by live copies.
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return The number of bytes all live documents would take unshared.
+     */
+    public synchronized long getStoredBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * @return The number of live non-empty document contents.
+     */
+    public synchronized long getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return How many stores so far were served by an existing copy.
+     */
+    public synchronized long getSharedHits() {
+        return sharedHits;
+    }
+
+    /**
+     * @return Bytes stored per byte of distinct copies, 1 if nothing is
+     * shared.
+     */
+    public synchronized double getDedupRatio() {
+        return uniqueBytes == 0 ? 1 : (double) storedBytes / uniqueBytes;
+    }
+
+    /**
+     * @return The uncompressed size of all distinct copies.
+     */
+    public synchronized long getUniqueBytes() {
+        return uniqueBytes;
+    }
+
+    /**
+     * @return The number of off-heap segments currently allocated.
+     */
+    public synchronized int getSegments() {
+        return segmentCount - freeSlots.size();
+    }
+
+    /**
+     * @return The number of off-heap bytes currently allocated.
+     */
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    private boolean matches(long handle, String content) {
+        return load(handle, content.length()).equals(content);
+    }
+
+    /**
+     * Get a view of the segment of a copy that starts at the copy. The view
+     * has a position of its own, so readers do not disturb each other.
+     */
+    private ByteBuffer at(long handle) {
+        ByteBuffer segment = segments[(int) (handle >>> 32)].duplicate().order(ByteOrder.nativeOrder());
+        segment.position((int) (handle & OFFSET_MASK));
+        return segment;
+    }
+
+    private static byte[] compress(String content) {
+        ByteBuffer raw = ByteBuffer.allocate(content.length() * 2).order(ByteOrder.nativeOrder());
+        raw.asCharBuffer().put(content);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw.array());
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length());
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] decompress(ByteBuffer segment, int length) {
+        byte[] packed = new byte[segment.getInt()];
+        segment.get(packed);
+        Inflater inflater = new Inflater();
+        inflater.setInput(packed);
+        byte[] raw = new byte[length * 2];
+        try {
+            int done = 0;
+            while (done < raw.length && !inflater.finished()) {
+                done += inflater.inflate(raw, done, raw.length - done);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted content in arena.", e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    /**
+     * 64-bit FNV-1a over the chars of the content.
+     */
+    private static long hash(String content) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < content.length(); i++) {
+            hash = (hash ^ content.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private int newSegment(int capacity) {
+        ByteBuffer segment = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        reservedBytes += capacity;
+        int slot;
+        if (!freeSlots.isEmpty()) {
+            slot = freeSlots.pop();
+        } else {
+            slot = segmentCount++;
+            if (slot == live.length) {
+                live = Arrays.copyOf(live, live.length * 2);
+            }
+        }
+        ByteBuffer[] grown = slot < segments.length ? segments : Arrays.copyOf(segments, segments.length * 2);
+        grown[slot] = segment;
+        // the volatile write publishes the slot to lock-free readers
+        segments = grown;
+        return slot;
+    }
+
+    private void releaseSegment(int slot) {
+        dropHoles(slot);
+        reservedBytes -= segments[slot].capacity();
+        segments[slot] = null;
+        freeSlots.push(slot);
+    }
+
+    /**
+     * A copy in the arena and the number of documents using it.
+     */
+    private static final class Shared {
+        private final long handle;
+        private final int length;
+        private final long hash;
+        private int refs = 1;
+
+        private Shared(long handle, int length, long hash) {
+            this.handle = handle;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+}
@@ -4,8 +4,12 @@ import hk.edu.polyu.comp.comp2021.cvfs.model.terminal.HistoryLogger;
 import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
 import hk.edu.polyu.comp.comp2021.cvfs.model.criteria.Criterion;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * This class implement directory that can stored documents or other directory
@@ -15,17 +19,54 @@ import java.util.Map;
 public class Directory extends Node {
 
     /**
-     * The contents in the directory.
+     * The contents in the directory. Starts as a small array and is swapped
+     * for a hash table or a sharded table as the directory grows.
      */
-    private final Map<String, Node> catalog = new HashMap<>();
+    private Catalog catalog = new ArrayCatalog();
     private static final String noFileWarning = "Warning: No files/folders in the current direcotry";
     private static final String unchangedRenameWarning = "Warning: File name unchanged during rename.";
+    private static final String unchangedMoveWarning = "Warning: File unchanged during move.";
 
     /**
      * A reference to the parent directory. Not null except for the disk.
      */
     private Directory parent;
 
+    /**
+     * Size change of this directory not yet folded into its own size and
+     * those of its ancestors. The disk itself is always kept exact.
+     */
+    private long pendingSize;
+
+    /**
+     * True while this directory is waiting in the disk's queue of pending
+     * size changes.
+     */
+    private boolean queued;
+
+    /**
+     * Size changes of this directory on a concurrent disk not yet folded into
+     * its own size. Threads add to it instead of deferring.
+     */
+    private transient LongAdder shared;
+
+    /**
+     * The directory this one is a lazy copy of, or null once its files have
+     * been copied. Until then the catalog is empty and the files are read
+     * from the pinned epoch <code>originEpoch</code> of the original, so
+     * either side can change without the other seeing it.
+     */
+    private transient volatile Directory origin;
+    private transient int originEpoch;
+
+    /**
+     * The mapped image holding the files of a directory loaded lazily, or
+     * null once they have been read in. The files are listed in the block
+     * at <code>imageBlock</code>.
+     */
+    private transient volatile ImageFile image;
+    private transient long imageBlock;
+
     /**
      * Construct a new directory.
      *
@@ -36,6 +77,30 @@ public class Directory extends Node {
         super(name);
         setParent(parent);
         setSize(SIZE_PREFIX);
+        if (parent != null) {
+            assignInode();
+        }
+    }
+
+    /**
+     * Construct a directory whose files stay in the mapped image of the disk
+     * until they are first needed.
+     *
+     * @param name The name of the directory.
+     * @param parent The parent of this directory.
+     * @param inode The inode ID of the directory.
+     * @param size The size of the directory with everything in it.
+     * @param image The image.
+     * @param block Where the files of the directory are listed in the image.
+     */
+    Directory(String name, Directory parent, long inode, long size, ImageFile image, long block) {
+        super(name);
+        setParent(parent);
+        setInode(inode);
+        setSize(size);
+        this.image = image;
+        this.imageBlock = block;
+        getDisk().lazyDirs(1);
     }
 
     /**
@@ -54,6 +119,7 @@ public class Directory extends Node {
     @Override
     public void setParent(Node newParent) {
         parent = (Directory) newParent;
+        updateLocation();
     }
 
     /**
@@ -63,13 +129,25 @@ public class Directory extends Node {
      */
     @Override
     public String toString() {
-        return String.format("\033[32m%-14s \033[33m%d\033[0m", getName(), getSize());
+        return format(getName(), getSize());
+    }
+
+    static String format(String name, long size) {
+        return String.format("\033[32m%-14s \033[33m%d\033[0m", name, size);
     }
 
     /**
      * @return The catalog of the current directory.
      */
-    public Map<String, Node> getCatalog() {
+    public Catalog getCatalog() {
+        expand();
+        return catalog;
+    }
+
+    /**
+     * @return The catalog as it is, without copying the files of a lazy copy.
+     */
+    Catalog loadedCatalog() {
         return catalog;
     }
 
@@ -81,14 +159,18 @@ public class Directory extends Node {
      * @return The reference to the new directory.
      */
     public Directory newDir(String name) {
-        if (catalog.get(name) != null) {
-            throw new IllegalArgumentException("A file with the same name already exists");
+        ReentrantReadWriteLock lock = lock();
+        try {
+            if (catalog.get(name) != null) {
+                throw new IllegalArgumentException("A file with the same name already exists");
+            }
+            Directory tmp = new Directory(name, this);
+            attach(tmp);
+            HistoryLogger.getInstance().newLog(HistoryLogger.OpType.DEL, tmp, this);
+            return tmp;
+        } finally {
+            unlock(lock);
         }
-        Directory tmp = new Directory(name, this);
-        updateSizeBy(tmp.getSize());
-        catalog.put(name, tmp);
-        HistoryLogger.getInstance().newLog(HistoryLogger.OpType.DEL, tmp, this);
-        return tmp;
     }
 
     /**
@@ -101,14 +183,18 @@ public class Directory extends Node {
      * @return The reference to the new Document.
      */
     public Document newDoc(String name, DocumentType type, String content) {
-        if (catalog.get(name) != null) {
-            throw new IllegalArgumentException("A file with the same name already exists.");
+        ReentrantReadWriteLock lock = lock();
+        try {
+            if (catalog.get(name) != null) {
+                throw new IllegalArgumentException("A file with the same name already exists.");
+            }
+            Document tmp = new Document(name, this, type, content);
+            attach(tmp);
+            HistoryLogger.getInstance().newLog(HistoryLogger.OpType.DEL, tmp, this);
+            return tmp;
+        } finally {
+            unlock(lock);
         }
-        Document tmp = new Document(name, this, type, content);
-        updateSizeBy(tmp.getSize());
-        catalog.put(name, tmp);
-        HistoryLogger.getInstance().newLog(HistoryLogger.OpType.DEL, tmp, this);
-        return tmp;
     }
 
     /**
@@ -119,12 +205,17 @@ public class Directory extends Node {
      * @param name The name of the file to be deleted.
      */
     public void delete(String name) {
-        if (catalog.get(name) == null) {
-            throw new IllegalArgumentException("Can't find " + name + " in this directory.");
+        ReentrantReadWriteLock lock = lock();
+        try {
+            Node unit = catalog.get(name);
+            if (unit == null) {
+                throw new IllegalArgumentException("Can't find " + name + " in this directory.");
+            }
+            detach(unit);
+            HistoryLogger.getInstance().newLog(HistoryLogger.OpType.ADD, unit, this);
+        } finally {
+            unlock(lock);
         }
-        updateSizeBy(-catalog.get(name).getSize());
-        HistoryLogger.getInstance().newLog(HistoryLogger.OpType.ADD, catalog.get(name), this);
-        catalog.remove(name);
     }
 
     /**
@@ -135,23 +226,413 @@ public class Directory extends Node {
      * @param newName The new name of the file.
      */
     public void rename(String oldName, String newName) {
-        if (catalog.get(oldName) == null) {
-            throw new IllegalArgumentException("Can't find " + oldName + " in this directory.");
+        ReentrantReadWriteLock lock = lock();
+        try {
+            if (catalog.get(oldName) == null) {
+                throw new IllegalArgumentException("Can't find " + oldName + " in this directory.");
+            }
+            if (catalog.get(newName) != null) {
+                throw new IllegalArgumentException("A file with the same new name already exists in this directory");
+            }
+
+            if (newName.equals(oldName)) {
+                System.out.println(unchangedRenameWarning);
+            }
+
+            Node renamedItem = catalog.get(oldName);
+            relabel(renamedItem, newName);
+            HistoryLogger.getInstance().newLog(HistoryLogger.OpType.REN, renamedItem, oldName, newName);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Copy a file from this directory into another directory on the disk,
+     * under a new name if given. A document copy shares its content with the
+     * original. A directory copy is lazy: its files are copied one level at a
+     * time as they are first needed, from the state the original had when
+     * the copy was made. The disk is charged for the full size at once.
+     *
+     * @param name The name of the file to be copied.
+     * @param target The directory to copy it into.
+     * @param newName The name of the copy.
+     * @return The copy.
+     */
+    public Node copy(String name, Directory target, String newName) {
+        Node unit = child(name);
+        if (unit == null) {
+            throw new IllegalArgumentException("Can't find " + name + " in this directory.");
         }
-        if (catalog.get(newName) != null) {
-            throw new IllegalArgumentException("A file with the same new name already exists in this directory");
+        Disk disk = getDisk();
+        if (target.getDisk() != disk) {
+            throw new IllegalArgumentException("Can't copy a file to another disk.");
         }
+        Node copy;
+        if (unit instanceof Document) {
+            copy = new Document(newName, target, (Document) unit);
+        } else {
+            copy = lazyCopy(newName, target, (Directory) unit, disk.versions().pin());
+        }
+        ReentrantReadWriteLock lock = target.lock();
+        try {
+            try {
+                if (target.catalog.get(newName) != null) {
+                    throw new IllegalArgumentException("A file with the same name already exists in the target directory");
+                }
+                target.attach(copy);
+            } catch (RuntimeException e) {
+                copy.release();
+                throw e;
+            }
+            HistoryLogger.getInstance().newLog(HistoryLogger.OpType.DEL, copy, target);
+        } finally {
+            unlock(lock);
+        }
+        return copy;
+    }
 
-        if (newName.equals(oldName)) {
-            System.out.println(unchangedRenameWarning);
+    /**
+     * Make a lazy copy of a directory as it was at a pinned epoch. The copy
+     * holds the pin until its files are copied or it is released.
+     */
+    private static Directory lazyCopy(String name, Directory parent, Directory origin, int epoch) {
+        Disk disk = parent.getDisk();
+        Directory copy = new Directory(name, parent);
+        copy.originEpoch = epoch;
+        copy.origin = origin;
+        copy.setSize(disk.versions().sizeAt(origin, epoch));
+        disk.lazyDirs(1);
+        return copy;
+    }
+
+    /**
+     * Copy the files of a lazy copy into its catalog: documents share their
+     * contents, directories become lazy copies themselves.
+     */
+    private void expand() {
+        if (image != null) {
+            page();
+        }
+        if (origin == null) {
+            return;
+        }
+        Disk disk = getDisk();
+        VersionStore versions = disk.versions();
+        ReentrantReadWriteLock stripe = disk.lockFor(this);
+        if (stripe != null) {
+            stripe.writeLock().lock();
+        }
+        Directory from = origin;
+        int epoch = originEpoch;
+        try {
+            if (from == null) {
+                return;
+            }
+            boolean attached = disk.getNode(getInode()) == this;
+            for (Node unit : versions.childrenAt(from, epoch)) {
+                String name = NameCodec.decode(versions.nameAt(unit, epoch));
+                Node copy;
+                if (unit instanceof Document) {
+                    copy = new Document(name, this, (Document) unit);
+                } else {
+                    versions.repin(epoch);
+                    copy = lazyCopy(name, this, (Directory) unit, epoch);
+                }
+                catalog.put(copy);
+                if (attached) {
+                    disk.index(copy);
+                }
+            }
+            catalog = catalog.resized(disk.isOrdered());
+            origin = null;
+            disk.lazyDirs(-1);
+        } finally {
+            if (stripe != null) {
+                stripe.writeLock().unlock();
+            }
         }
+        versions.unpin(epoch);
+    }
 
-        Node renamedItem = catalog.get(oldName);
-        renamedItem.setName(newName);
-        HistoryLogger.getInstance().newLog(HistoryLogger.OpType.REN, renamedItem, oldName, newName);
-        catalog.remove(oldName);
-        catalog.put(newName, renamedItem);
+    /**
+     * Read the files of a directory loaded lazily in from the image.
+     * Directories among them stay lazy themselves.
+     */
+    private void page() {
+        Disk disk = getDisk();
+        ReentrantReadWriteLock stripe = disk.lockFor(this);
+        if (stripe != null) {
+            stripe.writeLock().lock();
+        }
+        try {
+            ImageFile from = image;
+            if (from == null) {
+                return;
+            }
+            boolean attached = disk.isIndexed() && disk.getNode(getInode()) == this;
+            for (Node unit : DiskImage.readBlock(from, imageBlock, this)) {
+                catalog.put(unit);
+                if (attached) {
+                    disk.index(unit);
+                }
+            }
+            catalog = catalog.resized(disk.isOrdered());
+            image = null;
+            disk.lazyDirs(-1);
+        } finally {
+            if (stripe != null) {
+                stripe.writeLock().unlock();
+            }
+        }
+    }
 
+    /**
+     * Read in the files of every lazy directory in this directory, at any
+     * depth.
+     */
+    void expandAll() {
+        ArrayDeque<Directory> todo = new ArrayDeque<>();
+        todo.push(this);
+        while (!todo.isEmpty()) {
+            for (Node unit : todo.pop().getCatalog()) {
+                if (unit instanceof Directory) {
+                    todo.push((Directory) unit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Move a file from this directory into another directory on the disk,
+     * under a new name if given. The file is re-linked, not copied, so the
+     * cost does not depend on what is inside it.
+     *
+     * @param name The name of the file to be moved.
+     * @param target The directory to move it into.
+     * @param newName The name of the file in the target directory.
+     */
+    public void move(String name, Directory target, String newName) {
+        Node unit = child(name);
+        if (unit == null) {
+            throw new IllegalArgumentException("Can't find " + name + " in this directory.");
+        }
+        if (target == this && newName.equals(name)) {
+            System.out.println(unchangedMoveWarning);
+            return;
+        }
+        locked(target, () -> {
+            relocate(unit, target, newName);
+            HistoryLogger.getInstance().newLog(HistoryLogger.OpType.MOV, unit, this, name, target, newName);
+        });
+    }
+
+    /**
+     * Run a step holding the locks of this directory and another one, so
+     * that the step is journaled before either is changed again. Two are
+     * locked under the move lock, as <code>relocate</code> does.
+     *
+     * @param other The other directory, or this one.
+     * @param step The step.
+     */
+    void locked(Directory other, Runnable step) {
+        if (other == this) {
+            ReentrantReadWriteLock lock = lock();
+            try {
+                step.run();
+            } finally {
+                unlock(lock);
+            }
+            return;
+        }
+        synchronized (getDisk().moveLock()) {
+            ReentrantReadWriteLock from = lock();
+            ReentrantReadWriteLock to = other.lock();
+            try {
+                step.run();
+            } finally {
+                unlock(to);
+                unlock(from);
+            }
+        }
+    }
+
+    /**
+     * Move a file from this directory into another one without logging it.
+     * Only the directories below the lowest common ancestor of the two are
+     * resized; the ones above it hold the file before and after.
+     *
+     * @param unit The file to be moved.
+     * @param target The directory to move it into.
+     * @param newName The name of the file in the target directory.
+     */
+    public void relocate(Node unit, Directory target, String newName) {
+        Disk disk = getDisk();
+        if (target.getDisk() != disk) {
+            throw new IllegalArgumentException("Can't move a file to another disk.");
+        }
+        synchronized (disk.moveLock()) {
+            for (Node up = target; up != null; up = up.getParent()) {
+                if (up == unit) {
+                    throw new IllegalArgumentException("Can't move a directory into itself.");
+                }
+            }
+            VersionStore versions = disk.versions();
+            ReentrantReadWriteLock from = lock();
+            ReentrantReadWriteLock to = target.lock();
+            versions.beginChange();
+            try {
+                if (catalog.get(unit.getNameCode()) != unit) {
+                    throw new IllegalArgumentException("Can't find " + unit.getName() + " in this directory.");
+                }
+                if (target.catalog.get(newName) != null) {
+                    throw new IllegalArgumentException("A file with the same name already exists in the target directory");
+                }
+                long oldName = unit.getNameCode();
+                long size = unit.getSize();
+                Directory common = commonAncestor(this, target);
+                versions.saveChildren(this);
+                versions.saveChildren(target);
+                catalog.remove(unit.getNameCode());
+                catalog = catalog.resized(disk.isOrdered());
+                if (!newName.equals(unit.getName())) {
+                    versions.saveName(unit);
+                    unit.setName(newName);
+                }
+                unit.setParent(target);
+                target.catalog.put(unit);
+                target.catalog = target.catalog.resized(disk.isOrdered());
+                resize(common, -size);
+                target.resize(common, size);
+                disk.moved(unit, this, oldName);
+            } finally {
+                versions.endChange();
+                unlock(to);
+                unlock(from);
+            }
+        }
+    }
+
+    /**
+     * Put a directory tree built off the disk into this directory in one
+     * step, paying for it from a reservation. Logged like
+     * <code>newDir</code>, so undo takes the whole tree out again.
+     *
+     * @param tree The root of the tree, with this directory as its parent.
+     * @param reservation The reservation to pay from.
+     * @throws IllegalArgumentException if a file with the same name exists.
+     */
+    void attachTree(Directory tree, Reservation reservation) {
+        ReentrantReadWriteLock lock = lock();
+        try {
+            if (catalog.get(tree.getNameCode()) != null) {
+                throw new IllegalArgumentException("A file with the same name already exists");
+            }
+            attach(tree, reservation);
+            HistoryLogger.getInstance().newLog(HistoryLogger.OpType.DEL, tree, this);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Put a file into a directory that is not on the disk yet. The size is
+     * left alone and nothing is charged, indexed or logged; that happens
+     * once the whole tree is attached.
+     *
+     * @param unit The file, with this directory as its parent.
+     * @return False if a file with the same name is already there.
+     */
+    boolean adopt(Node unit) {
+        if (catalog.get(unit.getNameCode()) != null) {
+            return false;
+        }
+        catalog.put(unit);
+        catalog = catalog.resized(getDisk().isOrdered());
+        return true;
+    }
+
+    /**
+     * Put an existing file into this directory without logging it. Used by
+     * the create commands and by undo/redo; keeps the size and the disk's
+     * path index in sync.
+     *
+     * @param unit The file to be attached.
+     */
+    public void attach(Node unit) {
+        attach(unit, null);
+    }
+
+    /**
+     * Put an existing file into this directory without logging it, paying
+     * for it from capacity reserved up front.
+     *
+     * @param unit The file to be attached.
+     * @param reservation The reservation to pay from, or null to charge the
+     *                    disk directly.
+     * @throws IllegalStateException if the file does not fit.
+     */
+    public void attach(Node unit, Reservation reservation) {
+        VersionStore versions = getDisk().versions();
+        ReentrantReadWriteLock lock = lock();
+        versions.beginChange();
+        try {
+            updateSizeBy(unit.getSize(), reservation);
+            versions.saveChildren(this);
+            catalog.put(unit);
+            catalog = catalog.resized(getDisk().isOrdered());
+            getDisk().index(unit);
+        } finally {
+            versions.endChange();
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Take a file out of this directory without logging it. The counterpart
+     * of <code>attach</code>.
+     *
+     * @param unit The file to be detached.
+     */
+    public void detach(Node unit) {
+        VersionStore versions = getDisk().versions();
+        ReentrantReadWriteLock lock = lock();
+        versions.beginChange();
+        try {
+            versions.saveChildren(this);
+            getDisk().unindex(unit);
+            catalog.remove(unit.getNameCode());
+            catalog = catalog.resized(getDisk().isOrdered());
+            updateSizeBy(-unit.getSize());
+        } finally {
+            versions.endChange();
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Change the name of a file in this directory without logging it.
+     *
+     * @param unit The file to be renamed.
+     * @param newName The new name of the file.
+     */
+    public void relabel(Node unit, String newName) {
+        Disk disk = getDisk();
+        VersionStore versions = disk.versions();
+        ReentrantReadWriteLock lock = lock();
+        versions.beginChange();
+        try {
+            versions.saveChildren(this);
+            versions.saveName(unit);
+            long oldName = unit.getNameCode();
+            catalog.remove(oldName);
+            unit.setName(newName);
+            catalog.put(unit);
+            disk.moved(unit, this, oldName);
+        } finally {
+            versions.endChange();
+            unlock(lock);
+        }
     }
 
     /**
@@ -160,20 +641,79 @@ public class Directory extends Node {
      * directory, list the name and size.
      */
     public void list() {
+        expand();
+        Disk disk = getDisk();
+        if (disk.isConcurrent()) {
+            try (ReadView view = disk.openView()) {
+                list(view, "");
+            }
+            return;
+        }
         System.out.println("\033[4m" + this);
         if (catalog.isEmpty()) {
             System.out.println(noFileWarning);
         }
-        for (Node unit : catalog.values()) {
+        for (Node unit : catalog) {
             System.out.println(" ├─ " + unit);
         }
     }
 
+    /**
+     * List the files in the directory whose names start with a prefix. On
+     * an ordered catalog only the matching range is visited, in name order.
+     *
+     * @param prefix The prefix of the names to be listed.
+     */
+    public void list(String prefix) {
+        if (!isValidName(prefix)) {
+            throw new IllegalArgumentException("Invalid prefix: " + prefix);
+        }
+        expand();
+        Disk disk = getDisk();
+        if (disk.isConcurrent()) {
+            try (ReadView view = disk.openView()) {
+                list(view, prefix);
+            }
+            return;
+        }
+        System.out.println("\033[4m" + this);
+        Iterator<Node> units;
+        if (catalog instanceof OrderedCatalog) {
+            units = ((OrderedCatalog) catalog).prefix(prefix);
+        } else {
+            units = catalog.iterator();
+        }
+        boolean found = false;
+        while (units.hasNext()) {
+            Node unit = units.next();
+            if (unit.getName().startsWith(prefix)) {
+                System.out.println(" ├─ " + unit);
+                found = true;
+            }
+        }
+        if (!found) {
+            System.out.println(noFileWarning);
+        }
+    }
+
     /**
      * Recursively list the files in the directory. Use indentation to indicate
      * the level of each line. Report the total number and size of files listed.
      */
     public void rList() {
+        expand();
+        Disk disk = getDisk();
+        if (disk.isConcurrent()) {
+            try (ReadView view = disk.openView()) {
+                System.out.println("\033[4m" + view.describe(this));
+                Node[] units = view.children(this);
+                if (units.length == 0) {
+                    System.out.println(noFileWarning);
+                }
+                rList(view, units, 0);
+            }
+            return;
+        }
         System.out.println("\033[4m" + this);
         if (catalog.isEmpty()) {
             System.out.println(noFileWarning);
@@ -189,7 +729,7 @@ public class Directory extends Node {
      * @param level The level of each recursive.
      */
     public void rList(Directory currDir, int level) {
-        for (Node unit : currDir.getCatalog().values()) {
+        for (Node unit : currDir.getCatalog()) {
             for (int i = 0; i < level; i++) {
                 System.out.print("\t");
             }
@@ -206,12 +746,20 @@ public class Directory extends Node {
      * @param criterion The filter.
      */
     public void search(Criterion criterion) {
+        expand();
+        Disk disk = getDisk();
+        if (disk.isConcurrent()) {
+            try (ReadView view = disk.openView()) {
+                search(view, criterion, false);
+            }
+            return;
+        }
         if (catalog.isEmpty()) {
             System.out.println(noFileWarning);
             return;
         }
         System.out.println("\033[4m" + this);
-        for (Node unit : catalog.values()) {
+        for (Node unit : catalog) {
             if (criterion.check(unit)) {
                 System.out.println(unit);
             }
@@ -224,11 +772,25 @@ public class Directory extends Node {
      * @param criterion The filter.
      */
     public void rSearch(Criterion criterion) {
+        expand();
+        Disk disk = getDisk();
+        if (disk.isConcurrent()) {
+            try (ReadView view = disk.openView()) {
+                search(view, criterion, true);
+            }
+            return;
+        }
         if (catalog.isEmpty()) {
             System.out.println(noFileWarning);
             return;
         }
         System.out.println("\033[4m" + this);
+        if (disk.isColumnar()) {
+            for (Node unit : disk.search(this, criterion)) {
+                System.out.println(unit);
+            }
+            return;
+        }
         rSearch(this, criterion);
     }
 
@@ -239,7 +801,7 @@ public class Directory extends Node {
      * @param currDir The current Directory of each recursive level.
      */
     public static void rSearch(Directory currDir, Criterion criName) {
-        for (Node unit : currDir.getCatalog().values()) {
+        for (Node unit : currDir.getCatalog()) {
             if (criName.check(unit)) {
                 System.out.println(unit);
             }
@@ -250,24 +812,336 @@ public class Directory extends Node {
     }
 
     /**
-     * Recursively update the size of the directory by a certain number. First
-     * update the size of parent, then the current directory.
+     * List the files in the directory whose names start with a prefix, as
+     * they are in a view.
+     */
+    private void list(ReadView view, String prefix) {
+        System.out.println("\033[4m" + view.describe(this));
+        boolean found = false;
+        for (Node unit : view.children(this)) {
+            if (view.name(unit).startsWith(prefix)) {
+                System.out.println(" ├─ " + view.describe(unit));
+                found = true;
+            }
+        }
+        if (!found) {
+            System.out.println(noFileWarning);
+        }
+    }
+
+    private static void rList(ReadView view, Node[] units, int level) {
+        for (Node unit : units) {
+            for (int i = 0; i < level; i++) {
+                System.out.print("\t");
+            }
+            System.out.println(" ├─ " + view.describe(unit));
+            if (unit instanceof Directory) {
+                rList(view, view.children((Directory) unit), level + 1);
+            }
+        }
+    }
+
+    /**
+     * Search the directory, and the directories in it if recursive, as they
+     * are in a view.
+     */
+    private void search(ReadView view, Criterion criterion, boolean recursive) {
+        Node[] units = view.children(this);
+        if (units.length == 0) {
+            System.out.println(noFileWarning);
+            return;
+        }
+        System.out.println("\033[4m" + view.describe(this));
+        search(view, units, criterion, recursive);
+    }
+
+    private static void search(ReadView view, Node[] units, Criterion criterion, boolean recursive) {
+        for (Node unit : units) {
+            if (view.check(criterion, unit)) {
+                System.out.println(view.describe(unit));
+            }
+            if (recursive && unit instanceof Directory) {
+                search(view, view.children((Directory) unit), criterion, true);
+            }
+        }
+    }
+
+    /**
+     * Update the size of the directory by a certain number. The disk is
+     * charged at once so that its capacity is enforced exactly; the change to
+     * this directory and the ones between it and the disk is deferred until
+     * some size is read, see <code>Disk.flushSizes</code>.
+     *
+     * @param offset Positive if the size increases, vice versa.
+     */
+    public void updateSizeBy(long offset) {
+        updateSizeBy(offset, null);
+    }
+
+    /**
+     * Update the size of the directory, paying for any growth from a
+     * reservation instead of checking the capacity again.
      *
      * @param offset Positive if the size increases, vice versa.
+     * @param reservation The reservation to pay from, or null.
+     */
+    void updateSizeBy(long offset, Reservation reservation) {
+        Disk disk = getDisk();
+        disk.charge(offset, reservation);
+        if (disk.isConcurrent()) {
+            VersionStore versions = disk.versions();
+            for (Directory dir = this; dir != disk; dir = dir.parent) {
+                versions.saveSize(dir);
+                dir.shared.add(offset);
+            }
+            return;
+        }
+        pendingSize += offset;
+        if (!queued) {
+            queued = true;
+            disk.defer(this);
+        }
+    }
+
+    /**
+     * Change the size of this directory and its ancestors below another
+     * directory at once, leaving that directory and the disk as they are.
+     *
+     * @param stop An ancestor of this directory, or this directory itself.
+     * @param offset Positive if the size increases, vice versa.
+     */
+    private void resize(Directory stop, long offset) {
+        Disk disk = getDisk();
+        VersionStore versions = disk.versions();
+        for (Directory dir = this; dir != stop; dir = dir.parent) {
+            versions.saveSize(dir);
+            if (disk.isConcurrent()) {
+                dir.shared.add(offset);
+            } else {
+                dir.setSize(dir.getLocalSize() + offset);
+                disk.sizeChanged(dir);
+            }
+        }
+    }
+
+    private static Directory commonAncestor(Directory a, Directory b) {
+        while (a.getLevel() > b.getLevel()) {
+            a = a.parent;
+        }
+        while (b.getLevel() > a.getLevel()) {
+            b = b.parent;
+        }
+        while (a != b) {
+            a = a.parent;
+            b = b.parent;
+        }
+        return a;
+    }
+
+    /**
+     * Get the size of the directory, folding in any pending size changes
+     * on the disk first.
+     *
+     * @return the size of the directory.
+     */
+    @Override
+    public long getSize() {
+        Disk disk = getDisk();
+        if (disk.isConcurrent()) {
+            return super.getSize() + (shared == null ? 0 : shared.sum());
+        }
+        disk.flushSizes();
+        return super.getSize();
+    }
+
+    /**
+     * @return The size of this directory without folding pending changes.
+     */
+    long getLocalSize() {
+        return super.getSize();
+    }
+
+    /**
+     * Apply the pending size change to this directory and hand it on to the
+     * parent. The disk is skipped since it was charged eagerly.
+     *
+     * @return The parent if it has just been queued, otherwise null.
+     */
+    Directory foldSize() {
+        long delta = pendingSize;
+        pendingSize = 0;
+        queued = false;
+        getDisk().versions().saveSize(this);
+        setSize(super.getSize() + delta);
+        getDisk().sizeChanged(this);
+        if (parent == null || parent instanceof Disk) {
+            return null;
+        }
+        parent.pendingSize += delta;
+        if (parent.queued) {
+            return null;
+        }
+        parent.queued = true;
+        return parent;
+    }
+
+    /**
+     * Start taking size changes from several threads. Called when the
+     * directory is put on a concurrent disk.
+     */
+    void share() {
+        if (shared == null) {
+            shared = new LongAdder();
+        }
+    }
+
+    /**
+     * Fold the size changes taken from several threads into the size. Only
+     * exact while no other thread is changing the disk.
      */
-    public void updateSizeBy(int offset) {
-        getParent().updateSizeBy(offset);
-        setSize(getSize() + offset);
+    void foldShared() {
+        if (shared != null) {
+            setSize(super.getSize() + shared.sumThenReset());
+        }
     }
 
     /**
-     * Get the full path of the current directory.
+     * Find a file in the directory by its packed name. On a concurrent disk
+     * the catalog is read under its shared lock.
      *
-     * @return The StringBuilder containing the full path
+     * @param code The packed name of the file.
+     * @return The file, or null if there is none.
      */
-    public StringBuilder getPath() {
-        StringBuilder str = getParent().getPath();
-        str.append(':').append(getName());
-        return str;
+    Node child(long code) {
+        ReentrantReadWriteLock stripe = getDisk().lockFor(this);
+        if (stripe == null) {
+            return catalog.get(code);
+        }
+        stripe.readLock().lock();
+        try {
+            return catalog.get(code);
+        } finally {
+            stripe.readLock().unlock();
+        }
     }
+
+    /**
+     * Find a file in the directory by name. On a concurrent disk the catalog
+     * is read under its shared lock.
+     *
+     * @param name The name of the file.
+     * @return The file, or null if there is none.
+     */
+    Node child(String name) {
+        expand();
+        ReentrantReadWriteLock stripe = getDisk().lockFor(this);
+        if (stripe == null) {
+            return catalog.get(name);
+        }
+        stripe.readLock().lock();
+        try {
+            return catalog.get(name);
+        } finally {
+            stripe.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copy the files in the directory. On a concurrent disk the copy is taken
+     * under the shared lock of the directory, so that it holds up writers to
+     * this directory only and other readers not at all.
+     *
+     * @return The files in the directory.
+     */
+    Node[] entries() {
+        expand();
+        ReentrantReadWriteLock stripe = getDisk().lockFor(this);
+        if (stripe != null) {
+            stripe.readLock().lock();
+        }
+        try {
+            Node[] copy = new Node[catalog.size()];
+            int i = 0;
+            for (Node unit : catalog) {
+                copy[i++] = unit;
+            }
+            return copy;
+        } finally {
+            if (stripe != null) {
+                stripe.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Lock the catalog of this directory for writing if the disk is
+     * concurrent. A lazy copy is expanded first.
+     *
+     * @return The lock taken, or null if the disk is not concurrent.
+     */
+    private ReentrantReadWriteLock lock() {
+        expand();
+        ReentrantReadWriteLock stripe = getDisk().lockFor(this);
+        if (stripe != null) {
+            stripe.writeLock().lock();
+        }
+        return stripe;
+    }
+
+    private static void unlock(ReentrantReadWriteLock stripe) {
+        if (stripe != null) {
+            stripe.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copy the files of a lazy copy before the directory is written out.
+     *
+     * @param out The stream the directory is written to.
+     * @throws IOException if the stream fails.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        expand();
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Release everything inside the directory.
+     */
+    @Override
+    public void release() {
+        ArrayDeque<Directory> todo = new ArrayDeque<>();
+        todo.push(this);
+        while (!todo.isEmpty()) {
+            Directory dir = todo.pop();
+            dir.releaseOwn();
+            if (dir.getDisk().reclaim(dir)) {
+                continue;
+            }
+            for (Node unit : dir.catalog) {
+                if (unit instanceof Directory) {
+                    todo.push((Directory) unit);
+                } else {
+                    unit.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Release what the directory holds itself, but not the files in it: the
+     * pin of a lazy copy. Files still in the image are simply dropped.
+     */
+    void releaseOwn() {
+        if (image != null) {
+            image = null;
+            getDisk().lazyDirs(-1);
+        }
+        if (origin != null) {
+            origin = null;
+            getDisk().lazyDirs(-1);
+            getDisk().versions().unpin(originEpoch);
+        }
+    }
+
 }
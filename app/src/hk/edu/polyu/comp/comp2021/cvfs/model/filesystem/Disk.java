@@ -1,34 +1,667 @@
 package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
 
+import hk.edu.polyu.comp.comp2021.cvfs.model.criteria.Criterion;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DiskOption;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 /**
  * This class implements disk similar to <code>Directory</code>
  * but without parent and have a given fixed capacity.
  */
 public class Disk extends Directory {
-    private final int capacity;
+    private final long capacity;
+
+    /**
+     * A disk-wide index of the files by parent and name, so that resolving
+     * a path takes one probe per level. Not stored with the disk; rebuilt
+     * on first use after loading.
+     */
+    private transient volatile PathIndex index;
+
+    /**
+     * The files on the disk by inode ID, rebuilt along with the path index.
+     */
+    private transient InodeTable inodes;
+
+    /**
+     * The files on a concurrent disk by inode ID, used instead of
+     * <code>inodes</code>.
+     */
+    private transient Map<Long, Node> sharedInodes;
+
+    /**
+     * The last inode ID handed out.
+     */
+    private volatile long lastInode;
+
+    private static final AtomicLongFieldUpdater<Disk> LAST_INODE
+            = AtomicLongFieldUpdater.newUpdater(Disk.class, "lastInode");
+
+    private static final AtomicIntegerFieldUpdater<Disk> MOVES
+            = AtomicIntegerFieldUpdater.newUpdater(Disk.class, "moves");
+
+    /**
+     * The number of locks a concurrent disk spreads its directories over.
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * Directories with size changes not yet folded upward.
+     */
+    private transient List<Directory> deferred;
+
+    /**
+     * True if every directory on the disk keeps its files sorted by name.
+     */
+    private final boolean ordered;
+
+    /**
+     * True if the metadata of the files is also kept in a columnar store,
+     * which recursive searches scan instead of the tree.
+     */
+    private final boolean columnar;
+
+    /**
+     * The columnar store, rebuilt along with the path index.
+     */
+    private transient ColumnStore columns;
+
+    /**
+     * True if the disk may be changed from several threads at once.
+     */
+    private final boolean concurrent;
+
+    /**
+     * The locks guarding the catalogs of a concurrent disk; a directory is
+     * guarded by the lock its inode ID hashes to. Writers take it exclusively
+     * and readers copying a catalog take it shared.
+     */
+    private transient ReentrantReadWriteLock[] stripes;
+
+    /**
+     * The used space of a concurrent disk.
+     */
+    private transient AtomicLong used;
+
+    /**
+     * The used space of a concurrent disk plus its open reservations,
+     * charged with compare-and-set so the capacity holds exactly under
+     * contention.
+     */
+    private transient AtomicLong claimed;
+
+    /**
+     * The capacity held by open reservations on any other disk.
+     */
+    private transient long reserved;
+
+    /**
+     * Past states of the files, kept while a snapshot or a reader needs them.
+     */
+    private transient VersionStore versions;
+
+    /**
+     * The named snapshots of the disk, oldest first. Kept in memory only.
+     */
+    private transient List<Snapshot> snapshots;
+
+    /**
+     * The number of directory moves, plus one. Cached levels stamped with an
+     * older count are recomputed.
+     */
+    private transient volatile int moves;
+
+    /**
+     * Deleted directories whose insides are still in the index and the inode
+     * table, so that the delete and its undo cost the same for any tree.
+     * They are torn down by the reclaimer once undo can no longer reach them.
+     */
+    private transient Set<Directory> shelved;
+
+    /**
+     * Shelved directories handed to the reclaimer and not yet torn down.
+     */
+    private transient Set<Directory> reclaiming;
+
+    /**
+     * The number of shelved deletes, plus one. A file found by its inode ID
+     * is checked against the shelved directories unless it has been checked
+     * since the last one.
+     */
+    private transient AtomicInteger shelves;
+
+    private transient Reclaimer reclaimer;
+
+    /**
+     * Held while a file is moved, so that two moves on a concurrent disk
+     * cannot each put one directory inside the other.
+     */
+    private transient Object moveLock;
+
+    /**
+     * The number of lazy directories, copies or directories paged from an
+     * image, whose files have not been read in yet. Those files are in
+     * neither the path index nor the columnar store.
+     */
+    private transient AtomicInteger lazyDirs;
+
+    /**
+     * The mapped image the disk was loaded from lazily, which holds the
+     * files not read in yet. Null for a disk loaded in full.
+     */
+    private transient volatile ImageFile image;
+
+    /**
+     * The journal changes to the disk are appended to, or null.
+     */
+    private transient volatile Journal journal;
+
+    /**
+     * True if the disk is served to several sessions, so that no one
+     * session's history may release it.
+     */
+    private transient volatile boolean served;
+
+    /**
+     * The number of journal records already held by the image the disk was
+     * loaded from; replaying its journal starts after them.
+     */
+    private transient long journaled;
 
     /**
      * create a new disk
      * @param capacity size max limit
      */
-    public Disk(int capacity) {
+    public Disk(long capacity) {
+        this(capacity, EnumSet.noneOf(DiskOption.class));
+    }
+
+    /**
+     * create a new disk
+     * @param capacity size max limit
+     * @param options the options of the disk
+     * @throws IllegalArgumentException if the options cannot be combined
+     */
+    public Disk(long capacity, Set<DiskOption> options) {
         super("Disk", null);
+        if (options.contains(DiskOption.COLUMNAR) && options.contains(DiskOption.CONCURRENT)) {
+            throw new IllegalArgumentException("A concurrent disk cannot be columnar.");
+        }
         this.capacity = capacity;
+        this.ordered = options.contains(DiskOption.SORTED);
+        this.columnar = options.contains(DiskOption.COLUMNAR);
+        this.concurrent = options.contains(DiskOption.CONCURRENT);
         setSize(0);
+        initTransients();
     }
 
     /**
      * Update the current size of the disk.
-     * Print a warning and return if the disk capacity is not enough.
      *
      * @param offset Positive if the size increases, vice versa.
+     * @throws IllegalStateException if the disk capacity is not enough.
      */
     @Override
-    public void updateSizeBy(int offset) {
-        if (getSize() + offset > getCapacity()) {
+    public void updateSizeBy(long offset) {
+        charge(offset, null);
+    }
+
+    @Override
+    void updateSizeBy(long offset, Reservation reservation) {
+        charge(offset, reservation);
+    }
+
+    /**
+     * Charge the disk for a change in size. Growth is paid from the
+     * reservation if one is given, so the capacity is not checked again.
+     *
+     * @param offset Positive if the size increases, vice versa.
+     * @param reservation The reservation to pay from, or null.
+     * @throws IllegalStateException if the disk capacity or the reservation
+     *                               is not enough.
+     */
+    void charge(long offset, Reservation reservation) {
+        boolean prepaid = reservation != null && offset > 0;
+        if (prepaid) {
+            if (reservation.getDisk() != this) {
+                throw new IllegalArgumentException("The reservation is for another disk.");
+            }
+            reservation.take(offset);
+        }
+        versions.saveSize(this);
+        if (concurrent) {
+            if (!prepaid) {
+                claim(offset);
+            }
+            used.addAndGet(offset);
+            return;
+        }
+        if (prepaid) {
+            reserved -= offset;
+        } else if (offset > getFree()) {
             throw new IllegalStateException("No Enough Space Left.");
         }
         setSize(getSize() + offset);
+        sizeChanged(this);
+    }
+
+    private void claim(long offset) {
+        long claim;
+        do {
+            claim = claimed.get();
+            if (offset > capacity - claim) {
+                throw new IllegalStateException("No Enough Space Left.");
+            }
+        } while (!claimed.compareAndSet(claim, claim + offset));
+    }
+
+    /**
+     * Claim capacity up front for a bulk operation, which then pays for the
+     * files it adds from the reservation. Closing the reservation gives the
+     * unused part back.
+     *
+     * @param size The number of bytes to claim.
+     * @return The reservation.
+     * @throws IllegalArgumentException if the size is negative.
+     * @throws IllegalStateException if the disk capacity is not enough.
+     */
+    public Reservation reserve(long size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Cannot reserve a negative size.");
+        }
+        if (concurrent) {
+            claim(size);
+        } else {
+            if (size > getFree()) {
+                throw new IllegalStateException("No Enough Space Left.");
+            }
+            reserved += size;
+        }
+        return new Reservation(this, size);
+    }
+
+    /**
+     * Give back the unused part of a reservation.
+     *
+     * @param size The number of bytes to give back.
+     */
+    void unreserve(long size) {
+        if (concurrent) {
+            claimed.addAndGet(-size);
+        } else {
+            reserved -= size;
+        }
+    }
+
+    /**
+     * @return The capacity neither used nor reserved.
+     */
+    public long getFree() {
+        return concurrent ? capacity - claimed.get() : capacity - getSize() - reserved;
+    }
+
+    /**
+     * The disk's own size is always exact, so no flush is needed to read it.
+     *
+     * @return The used space of the disk.
+     */
+    @Override
+    public long getSize() {
+        return concurrent ? used.get() : getLocalSize();
+    }
+
+    /**
+     * Queue a directory whose size change has been deferred.
+     *
+     * @param dir The directory with a pending size change.
+     */
+    void defer(Directory dir) {
+        if (deferred == null) {
+            deferred = new ArrayList<>();
+        }
+        deferred.add(dir);
+    }
+
+    /**
+     * Copy the new size of a directory into the columnar store, if any.
+     *
+     * @param dir The directory whose size has changed.
+     */
+    void sizeChanged(Directory dir) {
+        if (columns != null) {
+            columns.updateSize(dir);
+        }
+    }
+
+    /**
+     * Fold all pending size changes up the tree in one pass. Directories are
+     * handled deepest level first, so every ancestor is updated once no
+     * matter how many changes happened below it.
+     */
+    public void flushSizes() {
+        if (concurrent) {
+            setSize(used.get());
+            foldShared(this);
+            return;
+        }
+        if (deferred == null || deferred.isEmpty()) {
+            return;
+        }
+        List<List<Directory>> levels = new ArrayList<>();
+        for (Directory dir : deferred) {
+            int level = dir.getLevel();
+            while (levels.size() <= level) {
+                levels.add(new ArrayList<>());
+            }
+            levels.get(level).add(dir);
+        }
+        deferred.clear();
+        for (int level = levels.size() - 1; level > 0; level--) {
+            for (Directory dir : levels.get(level)) {
+                Directory parent = dir.foldSize();
+                if (parent != null) {
+                    levels.get(level - 1).add(parent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fold the shared size changes of every directory below one. The tree
+     * is listed in pre-order with a worklist and folded in reverse, so that
+     * children are folded before their parents at any depth.
+     */
+    private static void foldShared(Directory root) {
+        List<Directory> order = new ArrayList<>();
+        Deque<Directory> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Directory dir = pending.pop();
+            for (Node unit : dir.loadedCatalog()) {
+                if (unit instanceof Directory) {
+                    order.add((Directory) unit);
+                    pending.push((Directory) unit);
+                }
+            }
+        }
+        for (int i = order.size() - 1; i >= 0; i--) {
+            order.get(i).foldShared();
+        }
+    }
+
+    /**
+     * Measure the contents of all documents on the disk. A copy shared by
+     * several documents is counted once in the physical size.
+     *
+     * @return The number of documents, their logical content bytes and the
+     * bytes their copies take in the arena.
+     */
+    public long[] measureContents() {
+        long[] usage = new long[3];
+        Set<Long> seen = new HashSet<>();
+        Deque<Directory> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            for (Node unit : pending.pop().getCatalog()) {
+                if (unit instanceof Document) {
+                    Document doc = (Document) unit;
+                    usage[0]++;
+                    usage[1] += doc.getSize() - SIZE_PREFIX;
+                    if (!doc.isPaged() && seen.add(doc.getContentHandle())) {
+                        usage[2] += doc.getStoredSize();
+                    }
+                } else {
+                    pending.push((Directory) unit);
+                }
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * @return True if the directories on this disk are kept sorted by name.
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * @return The past states of the files on the disk.
+     */
+    VersionStore versions() {
+        return versions;
+    }
+
+    /**
+     * Open a consistent view of the disk as it is now. The caller closes it
+     * once done so that the states it pins can be reclaimed.
+     *
+     * @return The view.
+     */
+    ReadView openView() {
+        return new ReadView(versions);
+    }
+
+    /**
+     * Keep a released document's content while a snapshot or a reader may
+     * still see it.
+     *
+     * @param unit The released document.
+     * @return True if the content must not be freed yet.
+     */
+    boolean retire(Node unit) {
+        return versions != null && versions.retire(unit);
+    }
+
+    /**
+     * Take a named snapshot of the disk. Nothing is copied: the current
+     * epoch is pinned, and files changed later save their old state first.
+     *
+     * @param name The name of the snapshot.
+     * @return The new snapshot.
+     * @throws IllegalArgumentException if the name is taken
+     */
+    public Snapshot snapshot(String name) {
+        synchronized (snapshots) {
+            if (findSnapshot(name) != null) {
+                throw new IllegalArgumentException("A snapshot named " + name + " already exists.");
+            }
+            int epoch = versions.pin();
+            Snapshot snapshot = new Snapshot(name, epoch, System.currentTimeMillis(), versions.sizeAt(this, epoch));
+            snapshots.add(snapshot);
+            return snapshot;
+        }
+    }
+
+    /**
+     * @return The named snapshots of the disk, oldest first.
+     */
+    public List<Snapshot> getSnapshots() {
+        synchronized (snapshots) {
+            return new ArrayList<>(snapshots);
+        }
+    }
+
+    /**
+     * Build a new disk holding the files as they were when a snapshot was
+     * taken. Files keep their inode IDs.
+     *
+     * @param name The name of the snapshot.
+     * @return The new disk.
+     * @throws IllegalArgumentException if there is no such snapshot
+     */
+    public Disk checkout(String name) {
+        Snapshot snapshot;
+        synchronized (snapshots) {
+            snapshot = findSnapshot(name);
+        }
+        if (snapshot == null) {
+            throw new IllegalArgumentException("Can't find snapshot " + name + ".");
+        }
+        return materialize(snapshot.getEpoch());
+    }
+
+    /**
+     * Build a new disk holding the files as they are now, seen as one
+     * consistent state even while other threads keep changing this disk.
+     *
+     * @return The new disk.
+     */
+    public Disk copy() {
+        int epoch = versions.pin();
+        try {
+            return materialize(epoch);
+        } finally {
+            versions.unpin(epoch);
+        }
+    }
+
+    private Snapshot findSnapshot(String name) {
+        for (Snapshot snapshot : snapshots) {
+            if (snapshot.getName().equals(name)) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    private Disk materialize(int epoch) {
+        Set<DiskOption> options = EnumSet.noneOf(DiskOption.class);
+        if (ordered) {
+            options.add(DiskOption.SORTED);
+        }
+        if (columnar) {
+            options.add(DiskOption.COLUMNAR);
+        }
+        if (concurrent) {
+            options.add(DiskOption.CONCURRENT);
+        }
+        Disk copy = new Disk(capacity, options);
+        copyInto(this, copy, epoch);
+        copy.lastInode = lastInode;
+        return copy;
+    }
+
+    /**
+     * Copy the tree under a directory as it was at an epoch. Documents share
+     * their content in the arena with the originals.
+     */
+    private void copyInto(Directory from, Directory to, int epoch) {
+        ArrayDeque<Directory[]> todo = new ArrayDeque<>();
+        todo.push(new Directory[]{from, to});
+        while (!todo.isEmpty()) {
+            Directory[] pair = todo.pop();
+            for (Node unit : versions.childrenAt(pair[0], epoch)) {
+                String name = NameCodec.decode(versions.nameAt(unit, epoch));
+                Node copy;
+                if (unit instanceof Document) {
+                    copy = new Document(name, pair[1], (Document) unit);
+                } else {
+                    copy = new Directory(name, pair[1]);
+                    todo.push(new Directory[]{(Directory) unit, (Directory) copy});
+                }
+                copy.setInode(unit.getInode());
+                pair[1].attach(copy);
+            }
+        }
+    }
+
+    /**
+     * @return True if the disk keeps a columnar store of its files.
+     */
+    public boolean isColumnar() {
+        return columnar;
+    }
+
+    /**
+     * @return True if the disk may be changed from several threads at once.
+     */
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
+    /**
+     * Get the lock guarding the catalog of a directory.
+     *
+     * @param dir A directory on this disk.
+     * @return The lock, or null if the disk is not concurrent.
+     */
+    ReentrantReadWriteLock lockFor(Directory dir) {
+        if (!concurrent) {
+            return null;
+        }
+        return stripes[(int) LongNodeTable.mix(dir.getInode()) & (STRIPES - 1)];
+    }
+
+    /**
+     * Try to lock the catalogs of all directories of a concurrent disk for
+     * writing. Never waits, so it cannot deadlock with threads locking
+     * directories in any order.
+     *
+     * @return True if all are locked now; false, with none locked, if one
+     *         was held by another thread.
+     */
+    boolean tryLockAll() {
+        for (int i = 0; i < STRIPES; i++) {
+            if (!stripes[i].writeLock().tryLock()) {
+                while (--i >= 0) {
+                    stripes[i].writeLock().unlock();
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The counterpart of <code>tryLockAll</code>.
+     */
+    void unlockAll() {
+        for (int i = STRIPES - 1; i >= 0; i--) {
+            stripes[i].writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find every file below a directory that fits a criterion by scanning
+     * the columnar store. Only the matching files are looked up.
+     *
+     * @param dir The directory to search in.
+     * @param criterion The criterion to check.
+     * @return The matching files, depth first in the order they were added.
+     * @throws IllegalStateException if the disk is not columnar
+     */
+    public List<Node> search(Directory dir, Criterion criterion) {
+        if (!columnar) {
+            throw new IllegalStateException("The disk has no columnar store.");
+        }
+        if (lazyDirs.get() > 0) {
+            dir.expandAll();
+        }
+        getIndex();
+        flushSizes();
+        List<Node> result = new ArrayList<>();
+        for (long id : columns.search(dir, criterion)) {
+            result.add(getNode(id));
+        }
+        return result;
     }
 
     /**
@@ -36,19 +669,525 @@ public class Disk extends Directory {
      *
      * @return The capacity of the disk.
      */
-    public int getCapacity() {
+    public long getCapacity() {
         return capacity;
     }
 
+    /**
+     * Find a file by its full path, e.g. <code>Disk:dir1:file</code>.
+     *
+     * @param path The full path of the file.
+     * @return The file, or null if there is no such file on this disk.
+     */
+    public Node lookup(String path) {
+        PathIndex paths = getIndex();
+        String root = getName();
+        if (!path.startsWith(root)) {
+            return null;
+        }
+        if (path.length() == root.length()) {
+            return this;
+        }
+        Node unit = this;
+        for (int start = root.length(); start >= 0; ) {
+            if (!(unit instanceof Directory) || path.charAt(start) != ':') {
+                return null;
+            }
+            int end = path.indexOf(':', start + 1);
+            long name = NameCodec.tryEncode(path, start + 1, end < 0 ? path.length() : end);
+            Node child = name == 0 ? null : child(paths, (Directory) unit, name);
+            if (child == null) {
+                return null;
+            }
+            unit = child;
+            start = end;
+        }
+        return unit;
+    }
+
+    /**
+     * Find a file by its path relative to a directory, e.g.
+     * <code>$:dir1:file</code>. <code>$</code> segments stand for the
+     * current level and are skipped. Each other segment is one probe of the
+     * path index, starting from the directory itself; nothing is allocated.
+     *
+     * @param from The directory the path starts from.
+     * @param path The relative path, segments separated by ':'.
+     * @return The file, or null if there is no such file.
+     */
+    public Node lookup(Directory from, String path) {
+        return lookup(from, path, path.length());
+    }
+
+    /**
+     * Find a file by the first chars of a path relative to a directory, so
+     * that the directory part of a path resolves without cutting it out.
+     *
+     * @param from The directory the path starts from.
+     * @param path The relative path, segments separated by ':'.
+     * @param length The number of chars of the path to resolve.
+     * @return The file, or null if there is no such file.
+     */
+    public Node lookup(Directory from, String path, int length) {
+        PathIndex paths = getIndex();
+        Node unit = from;
+        for (int start = 0; ; ) {
+            int end = path.indexOf(':', start);
+            if (end < 0 || end > length) {
+                end = length;
+            }
+            if (end - start != 1 || path.charAt(start) != '$') {
+                if (!(unit instanceof Directory)) {
+                    return null;
+                }
+                long name = NameCodec.tryEncode(path, start, end);
+                unit = name == 0 ? null : child(paths, (Directory) unit, name);
+                if (unit == null) {
+                    return null;
+                }
+            }
+            if (end == length) {
+                return unit;
+            }
+            start = end + 1;
+        }
+    }
+
+    private Node child(PathIndex paths, Directory dir, long name) {
+        Node child = paths.get(dir.getInode(), name);
+        if (child == null && lazyDirs.get() > 0) {
+            // the files of a lazy directory are indexed once read in
+            child = dir.child(NameCodec.decode(name));
+        }
+        return child;
+    }
+
+    /**
+     * Update the path index after a file has been moved or renamed. Only
+     * the file itself is re-keyed; the files inside a directory are keyed
+     * by its inode ID, which stays the same. Moving or renaming a directory
+     * bumps the move count, so the files inside rebuild their cached paths.
+     *
+     * @param unit The file, already under its new parent and name.
+     * @param oldParent The parent of the file before.
+     * @param oldName The packed name of the file before.
+     */
+    void moved(Node unit, Directory oldParent, long oldName) {
+        PathIndex paths = getIndex();
+        if (unit instanceof Directory) {
+            MOVES.incrementAndGet(this);
+        }
+        paths.remove(oldParent.getInode(), oldName, unit);
+        paths.put(unit);
+        if (columns != null) {
+            columns.move(unit);
+        }
+    }
+
+    /**
+     * Count lazy directories made, expanded or released.
+     *
+     * @param delta The change in the number of lazy directories.
+     */
+    void lazyDirs(int delta) {
+        lazyDirs.addAndGet(delta);
+    }
+
+    /**
+     * @return The number of directory moves and renames, plus one.
+     */
+    int moves() {
+        return moves;
+    }
+
+    /**
+     * @return The lock held while a file is moved.
+     */
+    Object moveLock() {
+        return moveLock;
+    }
+
+    /**
+     * Check that a file is not inside a shelved directory by walking up
+     * until an ancestor already checked since the last shelved delete.
+     * Every file on the way is marked, so each is walked through once per
+     * shelved delete; moves do not matter, as they never take a file out of
+     * the tree.
+     */
+    private boolean isAttached(Node unit) {
+        int stamp = shelves.get();
+        for (Node up = unit; up != this && up.getAttached() != stamp; up = up.getParent()) {
+            if (up.getParent() == null || shelved.contains(up) || reclaiming.contains(up)) {
+                return false;
+            }
+        }
+        for (Node up = unit; up != this && up.getAttached() != stamp; up = up.getParent()) {
+            up.setAttached(stamp);
+        }
+        return true;
+    }
+
+    /**
+     * Find a file by its inode ID.
+     *
+     * @param inode The inode ID of the file.
+     * @return The file, or null if there is no such file on this disk.
+     */
+    public Node getNode(long inode) {
+        if (inode == getInode()) {
+            return this;
+        }
+        getIndex();
+        Node unit = concurrent ? sharedInodes.get(inode) : inodes.get(inode);
+        if (unit != null && !(shelved.isEmpty() && reclaiming.isEmpty()) && !isAttached(unit)) {
+            return null;
+        }
+        return unit;
+    }
+
+    /**
+     * Hand out the next inode ID. IDs are never reused, and the counter is
+     * saved with the disk.
+     *
+     * @return A new inode ID.
+     */
+    long nextInode() {
+        return LAST_INODE.incrementAndGet(this);
+    }
+
+    /**
+     * @return The mapped image files not read in yet are paged from.
+     */
+    ImageFile image() {
+        return image;
+    }
+
+    /**
+     * @param image The mapped image the disk is loaded from lazily.
+     */
+    void setImage(ImageFile image) {
+        this.image = image;
+    }
+
+    /**
+     * @return The journal changes to the disk are appended to, or null.
+     */
+    public Journal journal() {
+        return journal;
+    }
+
+    /**
+     * @param journal The journal changes to the disk are appended to.
+     */
+    void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return The number of journal records the image the disk was loaded
+     *         from holds.
+     */
+    long journaled() {
+        return journaled;
+    }
+
+    /**
+     * @param journaled The number of journal records the image the disk
+     *                  was loaded from holds.
+     */
+    void setJournaled(long journaled) {
+        this.journaled = journaled;
+    }
+
+    /**
+     * @return The last inode ID handed out.
+     */
+    long lastInode() {
+        return lastInode;
+    }
+
+    /**
+     * Finish a disk whose files were put in place without being charged or
+     * indexed, such as one read from an image. Its size must already be
+     * the sum of its files.
+     *
+     * @param lastInode The last inode ID handed out on the disk.
+     */
+    void loaded(long lastInode) {
+        this.lastInode = lastInode;
+        if (concurrent) {
+            used.set(getLocalSize());
+            claimed.set(getLocalSize());
+            getIndex();
+        }
+    }
+
+    /**
+     * @return True once the path index has been built; until then files
+     *         put into the tree need not be indexed one by one.
+     */
+    boolean isIndexed() {
+        return index != null;
+    }
+
+    /**
+     * Add a file and, for a directory, everything inside it to the path
+     * index and the inode table.
+     *
+     * @param unit The file newly attached to the tree.
+     */
+    public void index(Node unit) {
+        PathIndex paths = getIndex();
+        if (unit instanceof Directory && shelved.remove(unit)) {
+            paths.put(unit);
+            if (concurrent) {
+                sharedInodes.put(unit.getInode(), unit);
+            } else {
+                inodes.put(unit);
+            }
+            if (columns != null) {
+                columns.move(unit);
+            }
+        } else {
+            indexTree(unit);
+        }
+        reclaimSlice();
+    }
+
+    /**
+     * Remove a file and, for a directory, everything inside it from the
+     * path index and the inode table.
+     *
+     * @param unit The file about to be detached from the tree.
+     */
+    public void unindex(Node unit) {
+        PathIndex paths = getIndex();
+        if (unit instanceof Directory && !((Directory) unit).loadedCatalog().isEmpty()) {
+            paths.remove(unit.getParent().getInode(), unit.getNameCode(), unit);
+            if (concurrent) {
+                sharedInodes.remove(unit.getInode());
+            } else {
+                inodes.remove(unit.getInode());
+            }
+            if (columns != null) {
+                columns.detach(unit);
+            }
+            shelved.add((Directory) unit);
+            shelves.incrementAndGet();
+        } else {
+            unindexTree(unit);
+        }
+        reclaimSlice();
+    }
+
+    /**
+     * Hand a deleted directory no longer reachable by undo to the reclaimer
+     * if its insides are still indexed.
+     *
+     * @param dir The released directory.
+     * @return True if the reclaimer will release everything inside it.
+     */
+    boolean reclaim(Directory dir) {
+        if (shelved == null || !shelved.remove(dir)) {
+            return false;
+        }
+        reclaiming.add(dir);
+        reclaimer.add(dir);
+        return true;
+    }
+
+    /**
+     * Drop a file of a torn-down directory from the index, the inode table
+     * and the columnar store, and free what it holds.
+     *
+     * @param unit A file inside a reclaimed directory, or the directory.
+     */
+    void forget(Node unit) {
+        index.remove(unit.getParent().getInode(), unit.getNameCode(), unit);
+        if (concurrent) {
+            sharedInodes.remove(unit.getInode(), unit);
+        } else if (inodes.get(unit.getInode()) == unit) {
+            inodes.remove(unit.getInode());
+        }
+        if (columns != null) {
+            columns.remove(unit);
+        }
+        if (unit instanceof Directory) {
+            reclaiming.remove(unit);
+            ((Directory) unit).releaseOwn();
+        } else {
+            unit.release();
+        }
+    }
+
+    /**
+     * @return The reclaimer of the disk.
+     */
+    Reclaimer reclaimer() {
+        return reclaimer;
+    }
+
+    /**
+     * Tear down a slice of the reclaimed directories of a disk that is not
+     * concurrent, on the thread changing it.
+     */
+    private void reclaimSlice() {
+        if (!concurrent) {
+            reclaimer.step(Reclaimer.SLICE);
+        }
+    }
+
+    /**
+     * @return The path index, rebuilt with the inode table from the tree if
+     * it is missing.
+     */
+    private PathIndex getIndex() {
+        PathIndex paths = index;
+        if (paths != null) {
+            return paths;
+        }
+        synchronized (this) {
+            if (index == null) {
+                paths = new PathIndex(concurrent);
+                if (concurrent) {
+                    sharedInodes = new ConcurrentHashMap<>();
+                } else {
+                    inodes = new InodeTable();
+                }
+                if (columnar) {
+                    columns = new ColumnStore();
+                    columns.add(this);
+                }
+                for (Node unit : loadedCatalog()) {
+                    indexTree(paths, unit);
+                }
+                index = paths;
+            }
+            return index;
+        }
+    }
+
+    private void indexTree(Node unit) {
+        indexTree(index, unit);
+    }
+
+    private void indexTree(PathIndex paths, Node unit) {
+        ArrayDeque<Node> todo = new ArrayDeque<>();
+        todo.push(unit);
+        while (!todo.isEmpty()) {
+            unit = todo.pop();
+            paths.put(unit);
+            if (concurrent) {
+                sharedInodes.put(unit.getInode(), unit);
+                if (unit instanceof Directory) {
+                    ((Directory) unit).share();
+                }
+            } else {
+                inodes.put(unit);
+            }
+            if (columns != null) {
+                columns.add(unit);
+            }
+            if (unit instanceof Directory) {
+                for (Node child : ((Directory) unit).loadedCatalog()) {
+                    todo.push(child);
+                }
+            }
+        }
+    }
+
+    private void unindexTree(Node unit) {
+        ArrayDeque<Node> todo = new ArrayDeque<>();
+        todo.push(unit);
+        while (!todo.isEmpty()) {
+            unit = todo.pop();
+            if (unit instanceof Directory) {
+                for (Node child : ((Directory) unit).loadedCatalog()) {
+                    todo.push(child);
+                }
+            }
+            index.remove(unit.getParent().getInode(), unit.getNameCode(), unit);
+            if (concurrent) {
+                sharedInodes.remove(unit.getInode());
+            } else {
+                inodes.remove(unit.getInode());
+            }
+            if (columns != null) {
+                columns.remove(unit);
+            }
+        }
+    }
+
+    private void initTransients() {
+        versions = new VersionStore(this, concurrent);
+        snapshots = new ArrayList<>();
+        moves = 1;
+        moveLock = new Object();
+        lazyDirs = new AtomicInteger();
+        shelved = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        reclaiming = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        shelves = new AtomicInteger(1);
+        reclaimer = new Reclaimer(this);
+        if (concurrent) {
+            used = new AtomicLong(getLocalSize());
+            claimed = new AtomicLong(getLocalSize());
+            stripes = new ReentrantReadWriteLock[STRIPES];
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new ReentrantReadWriteLock();
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        initTransients();
+        if (concurrent) {
+            getIndex();
+        }
+    }
+
+    /**
+     * Mark the disk as served to several sessions. It is then never
+     * released, as the history of one session cannot tell whether another
+     * is still using it.
+     */
+    public void serve() {
+        served = true;
+    }
+
+    /**
+     * Free everything the disk holds and stop journaling it, once nothing
+     * can switch back to it. A served disk is left alone.
+     */
+    @Override
+    public void release() {
+        if (served) {
+            return;
+        }
+        Journal.detach(this);
+        List<Directory> deleted = new ArrayList<>(shelved);
+        // nothing can be undone any more, so nothing is shelved
+        shelved.clear();
+        super.release();
+        for (Directory dir : deleted) {
+            dir.release();
+        }
+        if (!concurrent) {
+            reclaimer.step(Integer.MAX_VALUE);
+        }
+    }
+
     @Override
-    public StringBuilder getPath() {
-        StringBuilder str = new StringBuilder();
-        str.append("Disk");
-        return str;
+    public String getPath() {
+        return getName();
     }
 
     @Override
     public String toString() {
-        return String.format("\033[32m%-14s \033[33m(%d/%d)\033[0m", getName(), getSize(), getCapacity());
+        return format(getName(), getSize(), getCapacity());
+    }
+
+    static String format(String name, long size, long capacity) {
+        return String.format("\033[32m%-14s \033[33m(%d/%d)\033[0m", name, size, capacity);
     }
 }
@@ -0,0 +1,623 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DiskOption;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads and writes disks in the CVFS image format, which replaces Java
+ * serialization for <code>save</code> and <code>load</code>. Both directions
+ * walk the tree with an explicit stack, so neither the depth of the tree nor
+ * its size is limited by the call stack.
+ * <p>
+ * An image is the magic <code>CVFS</code>, the format version, then the
+ * capacity, the options and the last inode ID of the disk and the number of
+ * journal records the image already holds, followed by the files of the
+ * disk in post-order and a trailer. Each directory is a block:
+ * the number of files in it, then a record per file holding a kind byte,
+ * the packed name and the inode ID. A document record goes on with the
+ * number of chars in the content and where the content is, as UTF-8
+ * prefixed by the byte count; a directory record goes on with the size of
+ * the directory and where its own block is. The contents of the documents
+ * of a directory come just before its block. The trailer is where the block
+ * of the disk is and the size of the disk, as two 8-byte big-endian numbers.
+ * All other numbers are unsigned varints.
+ * <p>
+ * Since every block can be found without reading what is around it, an
+ * image can be opened lazily: it is mapped into memory, only the files at
+ * the top of the disk are read, and the rest of the tree and the contents
+ * are read in as they are first used.
+ * <p>
+ * Images of version 2, which had no journal record count, and of version
+ * 1, which had no positions and stored the tree in pre-order with the
+ * contents inline, can still be read.
+ */
+public final class DiskImage {
+
+    /**
+     * The version of the format written.
+     */
+    public static final int VERSION = 3;
+
+    private static final byte[] MAGIC = {'C', 'V', 'F', 'S'};
+
+    /**
+     * The low bits of a kind byte: 0 for a directory, or one more than the
+     * ordinal of the type of a document. The high bits count the empty
+     * digits cut off the end of the packed name.
+     */
+    private static final int KIND_BITS = 4;
+    private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+
+    private static final int TRAILER = 16;
+
+    private static final int BUFFER = 64 * 1024;
+
+    private DiskImage() {
+    }
+
+    /**
+     * @param in The start of a stream, which must support mark.
+     * @return True if the stream holds a disk image.
+     * @throws IOException if the stream cannot be read.
+     */
+    public static boolean isImage(InputStream in) throws IOException {
+        in.mark(MAGIC.length);
+        try {
+            for (byte b : MAGIC) {
+                if (in.read() != b) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Write a disk. A disk loaded lazily is read in full first. A concurrent
+     * disk is written as it was at a pinned epoch, so other threads may go
+     * on changing it meanwhile. A journaled disk is pinned together with a
+     * cut of its journal, and the image records the records it holds.
+     *
+     * @param disk The disk, which no other thread may change meanwhile
+     *             unless it is concurrent.
+     * @param stream Where the image goes; left open.
+     * @throws IOException if the stream cannot be written.
+     */
+    public static void write(Disk disk, OutputStream stream) throws IOException {
+        Journal journal = disk.journal();
+        if (journal == null && !disk.isConcurrent()) {
+            new Writer(disk, -1, 0, stream).step(Long.MAX_VALUE);
+            return;
+        }
+        int epoch;
+        long journaled = 0;
+        if (journal != null) {
+            long[] mark = journal.mark(disk);
+            epoch = (int) mark[0];
+            journaled = mark[1];
+        } else {
+            epoch = disk.versions().pin();
+        }
+        try {
+            new Writer(disk, epoch, journaled, stream).step(Long.MAX_VALUE);
+        } finally {
+            disk.versions().unpin(epoch);
+        }
+    }
+
+    /**
+     * Writes an image a few files at a time, of a disk as it is or as it
+     * was at a pinned epoch. Walking the disk at an epoch, the writer sees
+     * one consistent state while the disk keeps changing between steps, or,
+     * on a concurrent disk, during them.
+     */
+    static final class Writer {
+        private final Disk disk;
+        private final int epoch;
+        private final Output out;
+
+        /**
+         * The directories being written; each gathers the records of its
+         * files, which are written as its block once all of them are.
+         */
+        private final ArrayDeque<Block> open = new ArrayDeque<>();
+
+        /**
+         * Write the header.
+         *
+         * @param disk The disk.
+         * @param epoch The pinned epoch to write the disk at, or -1 to write
+         *              it as it is.
+         * @param journaled The number of journal records the image holds.
+         * @param stream Where the image goes; left open.
+         * @throws IOException if the stream cannot be written.
+         */
+        Writer(Disk disk, int epoch, long journaled, OutputStream stream) throws IOException {
+            this.disk = disk;
+            this.epoch = epoch;
+            this.out = new Output(stream);
+            out.write(MAGIC);
+            writeVarint(out, VERSION);
+            writeVarint(out, disk.getCapacity());
+            int options = (disk.isOrdered() ? 1 : 0) | (disk.isColumnar() ? 2 : 0) | (disk.isConcurrent() ? 4 : 0);
+            writeVarint(out, options);
+            writeVarint(out, disk.lastInode());
+            writeVarint(out, journaled);
+            open.push(new Block(disk, children(disk), 0));
+        }
+
+        /**
+         * Write at most a number of files.
+         *
+         * @param budget The number of files to write.
+         * @return True once the whole image is written and flushed.
+         * @throws IOException if the stream cannot be written.
+         */
+        boolean step(long budget) throws IOException {
+            for (; !open.isEmpty(); budget--) {
+                if (budget <= 0) {
+                    return false;
+                }
+                Block block = open.peek();
+                if (block.files.hasNext()) {
+                    Node unit = block.files.next();
+                    if (unit instanceof Document) {
+                        Document doc = (Document) unit;
+                        String content = doc.getContent();
+                        long at = out.position;
+                        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+                        writeVarint(out, bytes.length);
+                        out.write(bytes);
+                        block.record(unit, code(unit), doc.getType().ordinal() + 1);
+                        writeVarint(block.records, content.length());
+                        writeVarint(block.records, at);
+                        block.size += unit.getSize();
+                    } else {
+                        Directory dir = (Directory) unit;
+                        open.push(new Block(dir, children(dir), Node.SIZE_PREFIX));
+                    }
+                    continue;
+                }
+                open.pop();
+                long at = out.position;
+                writeVarint(out, block.count);
+                block.records.writeTo(out);
+                if (open.isEmpty()) {
+                    writeLong(out, at);
+                    writeLong(out, block.size);
+                    break;
+                }
+                Block parent = open.peek();
+                parent.record(block.dir, code(block.dir), 0);
+                writeVarint(parent.records, block.size);
+                writeVarint(parent.records, at);
+                parent.size += block.size;
+            }
+            out.flush();
+            return true;
+        }
+
+        private Iterator<Node> children(Directory dir) {
+            return epoch < 0 ? dir.getCatalog().iterator()
+                    : Arrays.asList(disk.versions().childrenAt(dir, epoch)).iterator();
+        }
+
+        private long code(Node unit) {
+            return epoch < 0 ? unit.getNameCode() : disk.versions().nameAt(unit, epoch);
+        }
+    }
+
+    /**
+     * Read a disk in full.
+     *
+     * @param stream Where the image comes from; left open.
+     * @return The disk.
+     * @throws IOException if the stream cannot be read or is not an image
+     *                     this version can read.
+     */
+    public static Disk read(InputStream stream) throws IOException {
+        InputStream in = new BufferedInputStream(stream, BUFFER);
+        in.mark(MAGIC.length + 10);
+        int version = readHeader(in);
+        in.reset();
+        if (version == 1) {
+            return readStream(in);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            bytes.write(buffer, 0, n);
+        }
+        return open(ImageFile.wrap(bytes.toByteArray()), false);
+    }
+
+    /**
+     * Open a disk image file.
+     *
+     * @param path The file.
+     * @param lazy True to map the file and read files from it only when
+     *             they are first used; false to read it all at once. An
+     *             image of version 1 is always read at once.
+     * @return The disk.
+     * @throws IOException if the file cannot be read or is not an image
+     *                     this version can read.
+     */
+    public static Disk open(Path path, boolean lazy) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), BUFFER)) {
+            in.mark(MAGIC.length + 10);
+            if (readHeader(in) == 1) {
+                in.reset();
+                return readStream(in);
+            }
+        }
+        return open(ImageFile.map(path), lazy);
+    }
+
+    private static Disk open(ImageFile image, boolean lazy) throws IOException {
+        try {
+            ImageFile.Cursor in = image.new Cursor(MAGIC.length);
+            long version = in.varint();
+            Disk disk = new Disk(in.varint(), options((int) in.varint()));
+            long lastInode = in.varint();
+            disk.setJournaled(version < 3 ? 0 : in.varint());
+            if (image.size() < in.position + TRAILER) {
+                throw new EOFException("Disk image ends too early.");
+            }
+            disk.setImage(image);
+            for (Node unit : readBlock(image, image.getLong(image.size() - TRAILER), disk)) {
+                if (!disk.adopt(unit)) {
+                    throw new IOException("Corrupt disk image: " + unit.getName() + " appears twice.");
+                }
+            }
+            disk.setSize(image.getLong(image.size() - 8));
+            if (!lazy) {
+                // read everything before the disk is indexed, so it is
+                // indexed once as a whole
+                ArrayDeque<Directory> todo = new ArrayDeque<>();
+                todo.push(disk);
+                while (!todo.isEmpty()) {
+                    for (Node unit : todo.pop().getCatalog()) {
+                        if (unit instanceof Directory) {
+                            todo.push((Directory) unit);
+                        } else {
+                            ((Document) unit).getContentHandle();
+                        }
+                    }
+                }
+                disk.setImage(null);
+            }
+            disk.loaded(lastInode);
+            return disk;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Read the files of a directory from its block. Directories among them
+     * are left to be read in later, and contents stay in the image.
+     *
+     * @param image The image.
+     * @param block Where the block is.
+     * @param parent The directory the files go into.
+     * @return The files.
+     * @throws java.io.UncheckedIOException if the block is cut short or
+     *                                      corrupt.
+     */
+    static List<Node> readBlock(ImageFile image, long block, Directory parent) {
+        ImageFile.Cursor in = image.new Cursor(block);
+        long count = in.varint();
+        if (count > image.size()) {
+            throw new UncheckedIOException(new IOException("Corrupt disk image: bad file count."));
+        }
+        DocumentType[] types = DocumentType.values();
+        List<Node> units = new ArrayList<>((int) Math.min(count, 1 << 16));
+        for (long i = 0; i < count; i++) {
+            int kind = in.next();
+            String name = NameCodec.decode(scale(in.varint(), kind));
+            long inode = in.varint();
+            if ((kind & KIND_MASK) == 0) {
+                long size = in.varint();
+                units.add(new Directory(name, parent, inode, size, image, in.varint()));
+            } else {
+                if ((kind & KIND_MASK) > types.length) {
+                    throw new UncheckedIOException(new IOException("Corrupt disk image: unknown document type."));
+                }
+                int length = (int) in.varint();
+                units.add(new Document(name, parent, inode, types[(kind & KIND_MASK) - 1], length, in.varint()));
+            }
+        }
+        return units;
+    }
+
+    /**
+     * Read the magic and the version.
+     *
+     * @return The version, if this version can read it.
+     */
+    private static int readHeader(InputStream in) throws IOException {
+        for (byte b : MAGIC) {
+            if (in.read() != b) {
+                throw new IOException("Not a CVFS disk image.");
+            }
+        }
+        int version = (int) readVarint(in);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported disk image version " + version + ".");
+        }
+        return version;
+    }
+
+    private static Set<DiskOption> options(int flags) {
+        Set<DiskOption> options = EnumSet.noneOf(DiskOption.class);
+        if ((flags & 1) != 0) {
+            options.add(DiskOption.SORTED);
+        }
+        if ((flags & 2) != 0) {
+            options.add(DiskOption.COLUMNAR);
+        }
+        if ((flags & 4) != 0) {
+            options.add(DiskOption.CONCURRENT);
+        }
+        return options;
+    }
+
+    /**
+     * Put back the empty digits cut off the end of a packed name.
+     */
+    private static long scale(long code, int kind) {
+        for (int i = kind >>> KIND_BITS; i > 0; i--) {
+            code *= NameCodec.RADIX;
+        }
+        return code;
+    }
+
+    /**
+     * Read an image of version 1 from a stream.
+     */
+    private static Disk readStream(InputStream in) throws IOException {
+        readHeader(in);
+        Disk disk = new Disk(readVarint(in), options((int) readVarint(in)));
+        long lastInode = readVarint(in);
+        for (long count = readVarint(in); count > 0; count--) {
+            Node unit = readTree(in, disk);
+            if (!disk.adopt(unit)) {
+                throw new IOException("Corrupt disk image: " + unit.getName() + " appears twice.");
+            }
+            disk.setSize(disk.getLocalSize() + unit.getSize());
+        }
+        disk.loaded(lastInode);
+        return disk;
+    }
+
+    /**
+     * Write a file and everything in it in pre-order, each document with
+     * its content inline and each directory followed by its files. This is
+     * the body of an image of version 1, and how journal records carry the
+     * files they put back.
+     *
+     * @param unit The file.
+     * @param out Where the files go.
+     * @throws IOException if the stream cannot be written.
+     */
+    static void writeTree(Node unit, OutputStream out) throws IOException {
+        ArrayDeque<Iterator<Node>> open = new ArrayDeque<>();
+        open.push(Collections.singletonList(unit).iterator());
+        while (!open.isEmpty()) {
+            Iterator<Node> next = open.peek();
+            if (!next.hasNext()) {
+                open.pop();
+                continue;
+            }
+            unit = next.next();
+            long code = unit.getNameCode();
+            int cut = 0;
+            while (code != 0 && code % NameCodec.RADIX == 0) {
+                code /= NameCodec.RADIX;
+                cut++;
+            }
+            if (unit instanceof Document) {
+                Document doc = (Document) unit;
+                out.write(cut << KIND_BITS | doc.getType().ordinal() + 1);
+                writeVarint(out, code);
+                writeVarint(out, unit.getInode());
+                writeString(out, doc.getContent());
+            } else {
+                Catalog catalog = ((Directory) unit).getCatalog();
+                out.write(cut << KIND_BITS);
+                writeVarint(out, code);
+                writeVarint(out, unit.getInode());
+                writeVarint(out, catalog.size());
+                open.push(catalog.iterator());
+            }
+        }
+    }
+
+    /**
+     * Read a file written by <code>writeTree</code>. The file is not put
+     * into the parent; its size and the sizes inside it are set.
+     *
+     * @param in Where the files come from.
+     * @param parent The directory the file is meant for.
+     * @return The file.
+     * @throws IOException if the stream cannot be read or is corrupt.
+     */
+    static Node readTree(InputStream in, Directory parent) throws IOException {
+        DocumentType[] types = DocumentType.values();
+        // the directories being filled and the number of files each still
+        // expects; a directory's size is handed to its parent once it is full
+        ArrayDeque<Directory> dirs = new ArrayDeque<>();
+        ArrayDeque<long[]> left = new ArrayDeque<>();
+        Node top = null;
+        do {
+            Directory dir = dirs.isEmpty() ? parent : dirs.peek();
+            if (!dirs.isEmpty() && left.peek()[0]-- == 0) {
+                dirs.pop();
+                left.pop();
+                if (!dirs.isEmpty()) {
+                    dirs.peek().setSize(dirs.peek().getLocalSize() + dir.getLocalSize());
+                }
+                continue;
+            }
+            int kind = in.read();
+            if (kind < 0) {
+                throw new EOFException("Disk image ends too early.");
+            }
+            String name = NameCodec.decode(scale(readVarint(in), kind));
+            long inode = readVarint(in);
+            Node unit;
+            if ((kind & KIND_MASK) == 0) {
+                Directory child = new Directory(name, dir);
+                dirs.push(child);
+                left.push(new long[]{readVarint(in)});
+                unit = child;
+            } else {
+                if ((kind & KIND_MASK) > types.length) {
+                    throw new IOException("Corrupt disk image: unknown document type.");
+                }
+                unit = new Document(name, dir, types[(kind & KIND_MASK) - 1], readString(in));
+                if (dir != parent) {
+                    dir.setSize(dir.getLocalSize() + unit.getSize());
+                }
+            }
+            unit.setInode(inode);
+            if (top == null) {
+                top = unit;
+            } else if (!dir.adopt(unit)) {
+                throw new IOException("Corrupt disk image: " + name + " appears twice.");
+            }
+        } while (!dirs.isEmpty());
+        return top;
+    }
+
+    /**
+     * A directory being written and the records of its files so far.
+     */
+    private static final class Block {
+        final Directory dir;
+        final Iterator<Node> files;
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        long count;
+        long size;
+
+        Block(Directory dir, Iterator<Node> files, long size) {
+            this.dir = dir;
+            this.files = files;
+            this.size = size;
+        }
+
+        /**
+         * Start the record of a file with its kind, name and inode ID.
+         */
+        void record(Node unit, long code, int kind) throws IOException {
+            int cut = 0;
+            while (code != 0 && code % NameCodec.RADIX == 0) {
+                code /= NameCodec.RADIX;
+                cut++;
+            }
+            records.write(cut << KIND_BITS | kind);
+            writeVarint(records, code);
+            writeVarint(records, unit.getInode());
+            count++;
+        }
+    }
+
+    /**
+     * A buffered stream that knows how many bytes went through it.
+     */
+    private static final class Output extends BufferedOutputStream {
+        long position;
+
+        Output(OutputStream out) {
+            super(out, BUFFER);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            super.write(b);
+            position++;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            position += len;
+        }
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Disk image ends too early.");
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt disk image: varint too long.");
+    }
+
+    /**
+     * Write a text as its UTF-8 byte count followed by the bytes.
+     */
+    static void writeString(OutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(InputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarint(in)];
+        readFully(in, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(InputStream in, byte[] bytes) throws IOException {
+        for (int done = 0; done < bytes.length; ) {
+            int n = in.read(bytes, done, bytes.length - done);
+            if (n < 0) {
+                throw new EOFException("Disk image ends too early.");
+            }
+            done += n;
+        }
+    }
+}
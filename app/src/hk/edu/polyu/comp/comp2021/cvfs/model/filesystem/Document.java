@@ -2,6 +2,10 @@ package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
 
 import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 /**
  * This class implements document stored in the system, and a
  * <code>Document</code> is a Leaf on the system's storage tree. Uses s
@@ -11,15 +15,29 @@ import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
 @SuppressWarnings("FieldCanBeLocal")
 public class Document extends Node {
 
+    /**
+     * Handle value of a content that has been freed.
+     */
+    private static final long RELEASED = -2;
+
+    /**
+     * Handle values from this one down stand for a content still in the
+     * mapped image of the disk, at <code>PAGED - handle</code>.
+     */
+    private static final long PAGED = -3;
+
     /**
      * The type of the document.
      */
     private final DocumentType type;
     /**
-     * The content of the document.
+     * Handle of the content in the off-heap <code>ContentArena</code>.
+     */
+    private transient volatile long content;
+    /**
+     * The number of chars in the content.
      */
-    @SuppressWarnings("unused")
-    private final String content;
+    private final int length;
     /**
      * A reference to the parent directory. Not null except for the disk.
      */
@@ -36,9 +54,130 @@ public class Document extends Node {
     public Document(String name, Node parent, DocumentType type, String content) {
         super(name);
         setParent(parent);
+        assignInode();
         this.type = type;
-        this.content = content;
-        setSize(SIZE_PREFIX + content.length() * 2);
+        this.content = ContentArena.getInstance().store(content);
+        this.length = content.length();
+        setSize(SIZE_PREFIX + length * 2);
+    }
+
+    /**
+     * Construct a copy of a document sharing its content in the arena.
+     *
+     * @param name The name of the copy.
+     * @param parent The parent of the copy.
+     * @param source The document to be copied.
+     */
+    public Document(String name, Node parent, Document source) {
+        super(name);
+        setParent(parent);
+        assignInode();
+        this.type = source.type;
+        this.length = source.length;
+        this.content = ContentArena.getInstance().share(source.getContentHandle(), length);
+        setSize(source.getSize());
+    }
+
+    /**
+     * Construct a document whose content stays in the mapped image of its
+     * disk until it is first read.
+     *
+     * @param name The name of the doc.
+     * @param parent The parent of the doc.
+     * @param inode The inode ID of the doc.
+     * @param type The type of the document.
+     * @param length The number of chars in the content.
+     * @param offset Where the content is in the image.
+     */
+    Document(String name, Directory parent, long inode, DocumentType type, int length, long offset) {
+        super(name);
+        setParent(parent);
+        setInode(inode);
+        this.type = type;
+        this.length = length;
+        this.content = PAGED - offset;
+        setSize(SIZE_PREFIX + length * 2);
+    }
+
+    /**
+     * @return The content of the document, read back from the arena.
+     */
+    public String getContent() {
+        long handle = getContentHandle();
+        if (handle == RELEASED) {
+            throw new IllegalStateException("Content of " + getName() + " has been released.");
+        }
+        return ContentArena.getInstance().load(handle, length);
+    }
+
+    /**
+     * @return The number of bytes the content takes in the arena, none
+     *         while it is still in the image.
+     */
+    public int getStoredSize() {
+        long handle = content;
+        return handle < 0 ? 0 : ContentArena.getInstance().physicalSize(handle, length);
+    }
+
+    /**
+     * @return True if the content has not been read from the image yet.
+     */
+    boolean isPaged() {
+        return content <= PAGED;
+    }
+
+    /**
+     * @return The handle of the content in the arena, reading it in from
+     *         the image first if needed.
+     */
+    long getContentHandle() {
+        long handle = content;
+        return handle <= PAGED ? page() : handle;
+    }
+
+    private synchronized long page() {
+        if (content <= PAGED) {
+            content = ContentArena.getInstance().store(getDisk().image().getString(PAGED - content));
+        }
+        return content;
+    }
+
+    /**
+     * Free the content in the arena. Only called once the document can no
+     * longer be reached, not even by undo or redo. While a snapshot of the
+     * disk may still see it, the disk holds on to it and frees it later.
+     */
+    @Override
+    public void release() {
+        if (content != RELEASED && !getDisk().retire(this)) {
+            if (content >= 0) {
+                ContentArena.getInstance().free(content, length);
+            }
+            content = RELEASED;
+        }
+    }
+
+    /**
+     * Store the content itself in place of the arena handle.
+     *
+     * @param out The stream the document is written to.
+     * @throws IOException if the stream fails.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(getContent());
+    }
+
+    /**
+     * Copy the content back into the arena.
+     *
+     * @param in The stream the document is read from.
+     * @throws IOException if the stream fails.
+     * @throws ClassNotFoundException if a class is missing.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        content = ContentArena.getInstance().store((String) in.readObject());
     }
 
     /**
@@ -64,6 +203,7 @@ public class Document extends Node {
     @Override
     public void setParent(Node newParent) {
         parent = (Directory) newParent;
+        updateLocation();
     }
 
     /**
@@ -73,7 +213,11 @@ public class Document extends Node {
      */
     @Override
     public String toString() {
-        return String.format("%-14s \033[33m%d\033[0m", this.getName() + "." + this.getType(), this.getSize());
+        return format(getName(), getType(), getSize());
+    }
+
+    static String format(String name, DocumentType type, long size) {
+        return String.format("%-14s \033[33m%d\033[0m", name + "." + type, size);
     }
 
 }
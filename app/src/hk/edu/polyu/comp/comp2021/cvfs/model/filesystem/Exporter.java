@@ -0,0 +1,264 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * Writes a directory of a disk out to the host, either as a directory tree
+ * or as a tar archive. The tree is walked from a consistent view with an
+ * explicit stack, and each document is streamed as <code>name.type</code>
+ * through one fixed buffer, so memory use does not grow with the size of
+ * the tree. Paths in the output are relative to the exported directory.
+ */
+public final class Exporter {
+
+    /**
+     * The size of the buffer every byte written goes through.
+     */
+    static final int BUFFER = 64 * 1024;
+
+    private static final int BLOCK = 512;
+
+    private final Directory source;
+    private final Path target;
+    private final boolean tar;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private FileChannel archive;
+
+    private int documents;
+    private int directories;
+    private long bytes;
+
+    /**
+     * @param source The directory to be exported.
+     * @param target The path of the new directory or, if it ends with
+     *               <code>.tar</code>, of the new archive on the host.
+     */
+    public Exporter(Directory source, Path target) {
+        this.source = source;
+        this.target = target;
+        this.tar = target.getFileName() != null && target.getFileName().toString().endsWith(".tar");
+    }
+
+    /**
+     * Export the directory.
+     *
+     * @throws IllegalArgumentException if the target already exists.
+     * @throws UncheckedIOException if the host cannot be written.
+     */
+    public void run() {
+        try {
+            if (tar) {
+                try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    archive = out;
+                    walk();
+                    // two empty blocks end the archive
+                    pad(2 * BLOCK);
+                    flush(out);
+                }
+            } else {
+                Files.createDirectory(target);
+                walk();
+            }
+        } catch (FileAlreadyExistsException e) {
+            throw new IllegalArgumentException("Already exists: " + target);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return The number of documents written.
+     */
+    public int getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return The number of directories written, not counting the target.
+     */
+    public int getDirectories() {
+        return directories;
+    }
+
+    /**
+     * @return The number of content bytes written.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    private void walk() throws IOException {
+        ArrayDeque<Directory> dirs = new ArrayDeque<>();
+        ArrayDeque<String> paths = new ArrayDeque<>();
+        try (ReadView view = source.getDisk().openView()) {
+            dirs.push(source);
+            paths.push("");
+            while (!dirs.isEmpty()) {
+                Directory dir = dirs.pop();
+                String prefix = paths.pop();
+                for (Node unit : view.children(dir)) {
+                    String name = view.name(unit);
+                    if (unit instanceof Document) {
+                        Document doc = (Document) unit;
+                        write(prefix + name + "." + doc.getType(), doc.getContent());
+                        documents++;
+                    } else {
+                        String path = prefix + name + "/";
+                        if (tar) {
+                            header(path, 0, '5');
+                        } else {
+                            Files.createDirectory(target.resolve(path));
+                        }
+                        dirs.push((Directory) unit);
+                        paths.push(path);
+                        directories++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write one document, into the archive or as a file of its own.
+     */
+    private void write(String path, String content) throws IOException {
+        long length = utf8Length(content);
+        bytes += length;
+        if (tar) {
+            header(path, length, '0');
+            encode(content, archive);
+            pad((int) ((BLOCK - length % BLOCK) % BLOCK));
+            return;
+        }
+        try (FileChannel out = FileChannel.open(target.resolve(path), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            encode(content, out);
+            flush(out);
+        }
+    }
+
+    /**
+     * Write a ustar header. Paths too long for the header are preceded by
+     * a GNU long name entry holding the whole path.
+     */
+    private void header(String path, long size, char type) throws IOException {
+        byte[] name = path.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 100) {
+            header("././@LongLink", name.length + 1, 'L');
+            put(name);
+            pad(BLOCK - name.length % BLOCK);
+        }
+        byte[] block = new byte[BLOCK];
+        System.arraycopy(name, 0, block, 0, Math.min(name.length, 100));
+        octal(block, 100, 8, type == '5' ? 0755 : 0644);
+        octal(block, 108, 8, 0);
+        octal(block, 116, 8, 0);
+        octal(block, 124, 12, size);
+        octal(block, 136, 12, System.currentTimeMillis() / 1000);
+        block[156] = (byte) type;
+        System.arraycopy("ustar  \0".getBytes(StandardCharsets.US_ASCII), 0, block, 257, 8);
+        // the checksum is taken with its own field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            block[i] = ' ';
+        }
+        long sum = 0;
+        for (byte b : block) {
+            sum += b & 0xff;
+        }
+        octal(block, 148, 7, sum);
+        put(block);
+    }
+
+    private static void octal(byte[] block, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        int start = offset + length - 1 - digits.length();
+        for (int i = offset; i < start; i++) {
+            block[i] = '0';
+        }
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, block, start, digits.length());
+        block[offset + length - 1] = 0;
+    }
+
+    private void put(byte[] data) throws IOException {
+        for (int done = 0; done < data.length; ) {
+            if (!buffer.hasRemaining()) {
+                flush(archive);
+            }
+            int n = Math.min(buffer.remaining(), data.length - done);
+            buffer.put(data, done, n);
+            done += n;
+        }
+    }
+
+    private void pad(int zeros) throws IOException {
+        for (int i = 0; i < zeros; i++) {
+            if (!buffer.hasRemaining()) {
+                flush(archive);
+            }
+            buffer.put((byte) 0);
+        }
+    }
+
+    /**
+     * Encode text through the buffer, flushing it whenever it fills up.
+     */
+    private void encode(String content, FileChannel out) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(content);
+        encoder.reset();
+        while (encoder.encode(chars, buffer, true).isOverflow()) {
+            flush(out);
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            flush(out);
+        }
+    }
+
+    private void flush(FileChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return The number of bytes the text takes encoded, worked out
+     *         without encoding it.
+     */
+    private static long utf8Length(String content) {
+        long length = 0;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < content.length()
+                    && Character.isLowSurrogate(content.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // a lone surrogate is encoded as '?'
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
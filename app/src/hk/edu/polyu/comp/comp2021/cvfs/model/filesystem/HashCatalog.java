@@ -0,0 +1,47 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+/**
+ * A catalog for medium-sized directories: an open-addressing hash table from
+ * packed names to files, so a lookup neither boxes nor hashes a string.
+ * Grows into a <code>ShardedCatalog</code> past <code>MAX_SIZE</code> files
+ * and shrinks back into an <code>ArrayCatalog</code> when few files are
+ * left.
+ */
+public class HashCatalog extends LongNodeTable implements Catalog {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The largest number of files kept in a single table.
+     */
+    static final int MAX_SIZE = 1 << 16;
+
+    /**
+     * Create an empty table with room for the given number of files.
+     *
+     * @param expected The number of files expected.
+     */
+    public HashCatalog(int expected) {
+        super(expected);
+    }
+
+    @Override
+    long keyOf(Node unit) {
+        return unit.getNameCode();
+    }
+
+    @Override
+    public Catalog resized(boolean ordered) {
+        Catalog other;
+        if (size() > MAX_SIZE) {
+            other = new ShardedCatalog();
+        } else if (size() <= ArrayCatalog.MAX_SIZE / 2) {
+            other = new ArrayCatalog();
+        } else {
+            return this;
+        }
+        for (Node unit : this) {
+            other.put(unit);
+        }
+        return other;
+    }
+}
@@ -0,0 +1,149 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The bytes of a disk image, read in place. A file is memory-mapped in
+ * chunks of 1 GB, so an image of any size can be opened at once and only
+ * the pages actually read are brought into memory. All reads are by
+ * absolute position and do not change the buffers, so any number of
+ * threads may read at the same time.
+ */
+final class ImageFile {
+
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK = 1L << CHUNK_BITS;
+
+    private final ByteBuffer[] chunks;
+    private final long size;
+
+    private ImageFile(ByteBuffer[] chunks, long size) {
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /**
+     * Map a file read-only. The mapping stays valid after the channel is
+     * closed.
+     *
+     * @param path The file.
+     * @return The mapped image.
+     * @throws IOException if the file cannot be mapped.
+     */
+    static ImageFile map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer[] chunks = new ByteBuffer[(int) ((size + CHUNK - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = i * CHUNK;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK, size - start));
+            }
+            return new ImageFile(chunks, size);
+        }
+    }
+
+    /**
+     * @param bytes An image held in memory.
+     * @return The image.
+     */
+    static ImageFile wrap(byte[] bytes) {
+        return new ImageFile(new ByteBuffer[]{ByteBuffer.wrap(bytes)}, bytes.length);
+    }
+
+    /**
+     * @return The number of bytes in the image.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * @param position A position in the image.
+     * @return The byte there, from 0 to 255.
+     */
+    int get(long position) {
+        if (position < 0 || position >= size) {
+            throw new UncheckedIOException(new EOFException("Disk image ends too early."));
+        }
+        return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & (CHUNK - 1))) & 0xff;
+    }
+
+    /**
+     * Copy bytes out of the image.
+     *
+     * @param position Where the bytes start.
+     * @param bytes Filled with the bytes.
+     */
+    void get(long position, byte[] bytes) {
+        if (position < 0 || position + bytes.length > size) {
+            throw new UncheckedIOException(new EOFException("Disk image ends too early."));
+        }
+        for (int done = 0; done < bytes.length; ) {
+            long at = position + done;
+            ByteBuffer chunk = chunks[(int) (at >>> CHUNK_BITS)].duplicate();
+            chunk.position((int) (at & (CHUNK - 1)));
+            int n = Math.min(chunk.remaining(), bytes.length - done);
+            chunk.get(bytes, done, n);
+            done += n;
+        }
+    }
+
+    /**
+     * @param position Where a big-endian long starts.
+     * @return The long.
+     */
+    long getLong(long position) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | get(position + i);
+        }
+        return value;
+    }
+
+    /**
+     * Read a text stored as its UTF-8 byte count followed by the bytes.
+     *
+     * @param position Where the byte count starts.
+     * @return The text.
+     */
+    String getString(long position) {
+        Cursor cursor = new Cursor(position);
+        byte[] bytes = new byte[(int) cursor.varint()];
+        get(cursor.position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads values one after another from a position in the image.
+     */
+    final class Cursor {
+        long position;
+
+        Cursor(long position) {
+            this.position = position;
+        }
+
+        int next() {
+            return get(position++);
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = next();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new UncheckedIOException(new IOException("Corrupt disk image: varint too long."));
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Copies a directory tree of the host into a disk. The tree is walked
+ * first, then the files are read by a pool of threads while the documents
+ * are built in order on the calling thread. The new tree is put together
+ * off the disk, its sizes are added up in one pass, and it is attached in
+ * one step paid from a single reservation.
+ * <p>
+ * A document is named after the file without its extension, which gives
+ * the type. Files of other types, and files or directories whose names are
+ * not valid file names, are skipped.
+ */
+public final class Importer {
+
+    /**
+     * The number of threads reading files, by default one per processor.
+     */
+    static final int THREADS = Integer.getInteger("cvfs.importThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The number of files read ahead of the documents being built, which
+     * bounds the contents held in memory at once.
+     */
+    static final int WINDOW = 256;
+
+    private final Path source;
+    private final Directory target;
+    private final String name;
+
+    private final List<Directory> dirs = new ArrayList<>();
+    private final List<Entry> files = new ArrayList<>();
+    private long bytes;
+    private int documents;
+    private int skipped;
+
+    /**
+     * @param source The directory of the host to be imported.
+     * @param target The directory the tree is put into.
+     * @param name The name of the new directory.
+     */
+    public Importer(Path source, Directory target, String name) {
+        this.source = source;
+        this.target = target;
+        this.name = name;
+    }
+
+    /**
+     * Import the tree. The disk is left as it was if anything fails.
+     *
+     * @return The root of the imported tree.
+     * @throws IllegalArgumentException if the source is not a directory or
+     *                                  the name is taken.
+     * @throws IllegalStateException if the disk capacity is not enough.
+     * @throws UncheckedIOException if the tree cannot be walked.
+     */
+    public Directory run() {
+        if (!Files.isDirectory(source)) {
+            throw new IllegalArgumentException("Not a directory: " + source);
+        }
+        if (target.getCatalog().get(name) != null) {
+            throw new IllegalArgumentException("A file with the same name already exists");
+        }
+        Directory root = new Directory(name, target);
+        try {
+            walk(root);
+            // contents are UTF-8, so no file has more characters than bytes
+            long size = (long) (dirs.size() + files.size()) * Node.SIZE_PREFIX + bytes * 2;
+            try (Reservation reservation = target.getDisk().reserve(size)) {
+                read();
+                for (int i = dirs.size() - 1; i > 0; i--) {
+                    Directory dir = dirs.get(i);
+                    dir.getParent().setSize(dir.getParent().getLocalSize() + dir.getLocalSize());
+                }
+                target.attachTree(root, reservation);
+            }
+        } catch (RuntimeException e) {
+            root.release();
+            throw e;
+        }
+        return root;
+    }
+
+    /**
+     * @return The number of documents imported.
+     */
+    public int getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return The number of directories imported, the new one included.
+     */
+    public int getDirectories() {
+        return dirs.size();
+    }
+
+    /**
+     * @return The number of bytes read from the host.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The number of files and directories of the host left out.
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Build the directories and list the files to be read.
+     */
+    private void walk(Directory root) {
+        ArrayDeque<Directory> open = new ArrayDeque<>();
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    Directory made = root;
+                    if (!open.isEmpty()) {
+                        String dirName = dir.getFileName().toString();
+                        made = Node.isValidName(dirName) ? new Directory(dirName, open.peek()) : null;
+                        if (made == null || !open.peek().adopt(made)) {
+                            skipped++;
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                    }
+                    dirs.add(made);
+                    open.push(made);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String fileName = file.getFileName().toString();
+                    int dot = fileName.lastIndexOf('.');
+                    DocumentType type = dot > 0 ? DocumentType.parse(fileName.substring(dot + 1)) : null;
+                    if (!attrs.isRegularFile() || type == null || !Node.isValidName(fileName.substring(0, dot))) {
+                        skipped++;
+                    } else {
+                        files.add(new Entry(file, open.peek(), fileName.substring(0, dot), type));
+                        bytes += attrs.size();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    skipped++;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    open.pop();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read the listed files on the pool and build their documents in order.
+     */
+    private void read() {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, THREADS), task -> {
+            Thread thread = new Thread(task, "cvfs-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+        try {
+            int next = 0;
+            for (Entry entry : files) {
+                while (next < files.size() && pending.size() < WINDOW) {
+                    Path path = files.get(next++).path;
+                    pending.add(pool.submit(() -> new String(Files.readAllBytes(path), StandardCharsets.UTF_8)));
+                }
+                String content = content(pending.poll());
+                Directory parent = entry.parent;
+                Document doc = content == null ? null : new Document(entry.name, parent, entry.type, content);
+                if (doc == null || !parent.adopt(doc)) {
+                    if (doc != null) {
+                        doc.release();
+                    }
+                    skipped++;
+                    continue;
+                }
+                parent.setSize(parent.getLocalSize() + doc.getSize());
+                documents++;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The content read, or null if the file could not be read.
+     */
+    private static String content(Future<String> read) {
+        try {
+            return read.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Import interrupted.");
+        }
+    }
+
+    /**
+     * A file of the host to be read into a document.
+     */
+    private static final class Entry {
+        final Path path;
+        final Directory parent;
+        final String name;
+        final DocumentType type;
+
+        Entry(Path path, Directory parent, String name, DocumentType type) {
+            this.path = path;
+            this.parent = parent;
+            this.name = name;
+            this.type = type;
+        }
+    }
+}
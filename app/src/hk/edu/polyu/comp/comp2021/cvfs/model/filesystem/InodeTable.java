@@ -0,0 +1,21 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+/**
+ * The inode table of a disk: a hash table from inode IDs to the files
+ * currently in the tree.
+ */
+class InodeTable extends LongNodeTable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create an empty inode table.
+     */
+    InodeTable() {
+        super(0);
+    }
+
+    @Override
+    long keyOf(Node unit) {
+        return unit.getInode();
+    }
+}
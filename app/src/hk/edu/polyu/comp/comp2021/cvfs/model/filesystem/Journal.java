@@ -0,0 +1,697 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.terminal.HistoryLogger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the changes made to a disk since its image was
+ * saved, so that keeping a disk on the host costs in proportion to what
+ * changed rather than to the size of the disk. Every step recorded through
+ * the history logger, and every undo or redo of one, that puts, removes,
+ * renames or moves a file is appended as a record; loading the image and
+ * replaying the records brings back the disk.
+ * <p>
+ * Appends use group commit: a record is added to a shared buffer, and the
+ * first writer to find its record not yet on the host writes and syncs the
+ * whole buffer, so writers arriving meanwhile share one sync. Setting
+ * <code>cvfs.journalSync</code> to false leaves syncing to the host.
+ * <p>
+ * A journal is the magic <code>CVFJ</code> and the sequence number of its
+ * first record as an 8-byte big-endian number, followed by records, each
+ * its length, its body and the CRC-32 of the body. Records are numbered
+ * from the save that started the journal, and an image records how many
+ * it holds, so replay starts after those; a checkpoint cuts the ones
+ * before it out of the journal. A record cut short by a
+ * crash fails its check; it and anything after it are dropped on replay.
+ * <p>
+ * A step is journaled before the directories it changed are unlocked, and
+ * an image is written at an epoch pinned together with its cut while no
+ * step is under way, so the image holds exactly the records before the
+ * cut. Records name files by path and carry their inode IDs; one that does
+ * not match the disk on replay means the journal and the image have
+ * diverged, and loading fails rather than bring back a different disk.
+ */
+public final class Journal implements Closeable {
+
+    private static final boolean SYNC = Boolean.parseBoolean(System.getProperty("cvfs.journalSync", "true"));
+
+    private static final byte[] MAGIC = {'C', 'V', 'F', 'J'};
+
+    private static final int PUT = 1;
+    private static final int REMOVE = 2;
+    private static final int RENAME = 3;
+    private static final int MOVE = 4;
+
+    /**
+     * The disk each open journal file belongs to.
+     */
+    private static final Map<Path, Disk> OWNERS = new ConcurrentHashMap<>();
+
+    private static final int HEADER = MAGIC.length + 8;
+
+    private final Path path;
+    private final Checkpointer checkpointer;
+
+    /**
+     * The file being appended to; replaced when the journal is compacted.
+     * Guarded by <code>commitLock</code>.
+     */
+    private FileChannel channel;
+
+    /**
+     * Records appended but not written yet, and how many records were
+     * appended in all. Guarded by this journal.
+     */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appended;
+    private boolean closed;
+
+    /**
+     * The sequence number of the first record appended since the journal
+     * was opened.
+     */
+    private final long first;
+
+    /**
+     * Held by the writer syncing a group of records. Guards
+     * <code>durable</code>, the number of records on the host.
+     */
+    private final Object commitLock = new Object();
+    private long durable;
+
+    /**
+     * The number of bytes in the file, kept apart so that reading it does
+     * not wait for a sync.
+     */
+    private volatile long length;
+
+    /**
+     * The number of records replayed when the journal was opened.
+     */
+    private int replayed;
+
+    private Journal(Disk disk, Path path, Path image, FileChannel channel, long first) {
+        this.path = path.toAbsolutePath().normalize();
+        this.channel = channel;
+        this.first = first;
+        try {
+            this.length = channel.position();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.checkpointer = new Checkpointer(disk, this, image);
+    }
+
+    /**
+     * Start an empty journal for a disk just saved, replacing any journal
+     * at the path.
+     *
+     * @param disk The disk.
+     * @param path The journal file.
+     * @param image The image the disk was saved to, which checkpoints
+     *              replace.
+     * @return The journal, which the disk now appends to.
+     * @throws IOException if the file cannot be written.
+     */
+    public static Journal create(Disk disk, Path path, Path image) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        writeHeader(channel, 0);
+        if (SYNC) {
+            channel.force(true);
+        }
+        return attach(disk, new Journal(disk, path, image, channel, 0));
+    }
+
+    /**
+     * Replay a journal onto a disk just loaded from its image and go on
+     * appending to it. Records the image holds already are skipped, and a
+     * torn record at the end is cut off.
+     *
+     * @param disk The disk.
+     * @param path The journal file.
+     * @param image The image the disk was loaded from, which checkpoints
+     *              replace.
+     * @return The journal, which the disk now appends to.
+     * @throws IOException if the file cannot be read, does not follow the
+     *                     image, or a record cannot be replayed.
+     */
+    public static Journal open(Disk disk, Path path, Path image) throws IOException {
+        long end = HEADER;
+        long seq;
+        int replayed = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            byte[] header = new byte[HEADER];
+            if (readFully(in, header) < HEADER) {
+                throw new IOException("Not a CVFS journal.");
+            }
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (header[i] != MAGIC[i]) {
+                    throw new IOException("Not a CVFS journal.");
+                }
+            }
+            seq = ByteBuffer.wrap(header, MAGIC.length, 8).getLong();
+            if (seq > disk.journaled()) {
+                throw new IOException("The journal " + path.getFileName() + " does not follow its image.");
+            }
+            long lastInode = disk.lastInode();
+            CRC32 crc = new CRC32();
+            byte[] body;
+            for (; (body = readRecord(in, crc)) != null; seq++) {
+                if (seq >= disk.journaled()) {
+                    lastInode = Math.max(lastInode, replay(disk, new ByteArrayInputStream(body), seq));
+                    replayed++;
+                }
+                end += varintSize(body.length) + body.length + 4;
+            }
+            // loaded() takes the size of a concurrent disk from its own
+            // field, which replay has left behind the charged total
+            disk.flushSizes();
+            disk.loaded(lastInode);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        channel.truncate(end);
+        channel.position(end);
+        Journal journal = new Journal(disk, path, image, channel, seq);
+        journal.replayed = replayed;
+        return attach(disk, journal);
+    }
+
+    private static void writeHeader(FileChannel channel, long first) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.put(MAGIC).putLong(first).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    /**
+     * Stop journaling the changes to a disk and close its journal.
+     *
+     * @param disk The disk.
+     */
+    public static void detach(Disk disk) {
+        Journal journal = disk.journal();
+        disk.setJournal(null);
+        if (journal != null) {
+            OWNERS.remove(journal.path, disk);
+            journal.close();
+        }
+    }
+
+    /**
+     * Make a journal the one of a disk. A journal file is written for one
+     * disk at a time, so another disk still appending to the same file, such
+     * as the one a reload replaced, stops journaling.
+     */
+    private static Journal attach(Disk disk, Journal journal) {
+        detach(disk);
+        Disk previous = OWNERS.put(journal.path, disk);
+        Journal stale = previous == null || previous == disk ? null : previous.journal();
+        if (stale != null && stale.path.equals(journal.path)) {
+            previous.setJournal(null);
+            stale.close();
+        }
+        disk.setJournal(journal);
+        return journal;
+    }
+
+    /**
+     * Carry out a step taken from the undo or redo history and journal it,
+     * holding the locks of the directories it changes throughout, so that
+     * no other step changes them between the two.
+     *
+     * @param log The step.
+     * @param step What carries it out.
+     */
+    public static void apply(HistoryLogger.Tracelog log, Runnable step) {
+        Object[] args = log.getArgs();
+        Directory from = null;
+        Directory to = null;
+        if (args.length > 0 && args[0] instanceof Node) {
+            switch (log.getType()) {
+                case ADD:
+                case DEL:
+                    from = to = (Directory) args[1];
+                    break;
+                case REN:
+                    from = to = (Directory) ((Node) args[0]).getParent();
+                    break;
+                case MOV:
+                    from = (Directory) args[3];
+                    to = (Directory) args[1];
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (from == null) {
+            step.run();
+            record(log);
+            return;
+        }
+        from.locked(to, () -> {
+            step.run();
+            record(log);
+        });
+    }
+
+    /**
+     * Append a step that has just changed a disk to the journal of the
+     * disk, if it has one. Steps that change no file are ignored. Called
+     * while the directories the step changed are still locked.
+     *
+     * @param done The step, as it was carried out.
+     * @throws UncheckedIOException if the journal cannot be written.
+     */
+    public static void record(HistoryLogger.Tracelog done) {
+        Object[] args = done.getArgs();
+        if (args.length == 0 || !(args[0] instanceof Node)) {
+            return;
+        }
+        Node unit = (Node) args[0];
+        Directory dir;
+        switch (done.getType()) {
+            case ADD:
+            case DEL:
+                dir = (Directory) args[1];
+                break;
+            case REN:
+                dir = (Directory) unit.getParent();
+                break;
+            case MOV:
+                dir = (Directory) args[3];
+                break;
+            default:
+                return;
+        }
+        Journal journal = dir.getDisk().journal();
+        if (journal == null) {
+            return;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            switch (done.getType()) {
+                case ADD:
+                    body.write(PUT);
+                    DiskImage.writeString(body, dir.getPath());
+                    DiskImage.writeTree(unit, body);
+                    break;
+                case DEL:
+                    body.write(REMOVE);
+                    DiskImage.writeString(body, dir.getPath() + ':' + unit.getName());
+                    DiskImage.writeVarint(body, unit.getInode());
+                    break;
+                case REN:
+                    // the log renames the file from its third argument to its second
+                    body.write(RENAME);
+                    DiskImage.writeString(body, dir.getPath() + ':' + args[2]);
+                    DiskImage.writeVarint(body, unit.getInode());
+                    DiskImage.writeString(body, (String) args[1]);
+                    break;
+                default:
+                    // moved from the fourth and fifth arguments to the second and third
+                    body.write(MOVE);
+                    DiskImage.writeString(body, dir.getPath() + ':' + args[4]);
+                    DiskImage.writeVarint(body, unit.getInode());
+                    DiskImage.writeString(body, ((Directory) args[1]).getPath());
+                    DiskImage.writeString(body, (String) args[2]);
+                    break;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        journal.append(body.toByteArray());
+        journal.checkpointer.changed();
+    }
+
+    /**
+     * Append a record and wait until it is on the host.
+     *
+     * @param body The body of the record.
+     */
+    void append(byte[] body) {
+        long seq;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The journal " + path.getFileName() + " is closed.");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(body, 0, body.length);
+            try {
+                DiskImage.writeVarint(pending, body.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pending.write(body, 0, body.length);
+            long check = crc.getValue();
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                pending.write((int) (check >>> shift));
+            }
+            seq = ++appended;
+        }
+        commit(seq);
+    }
+
+    /**
+     * Make sure the records up to a given one are on the host, writing
+     * every record pending along with it.
+     */
+    private void commit(long seq) {
+        synchronized (commitLock) {
+            if (durable >= seq) {
+                return;
+            }
+            ByteBuffer group;
+            long last;
+            int written;
+            synchronized (this) {
+                group = ByteBuffer.wrap(pending.toByteArray());
+                written = group.remaining();
+                pending.reset();
+                last = appended;
+            }
+            try {
+                while (group.hasRemaining()) {
+                    channel.write(group);
+                }
+                if (SYNC) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            durable = last;
+            length += written;
+        }
+    }
+
+    /**
+     * Mark where a checkpoint starts: every record appended so far is
+     * written out, and the ones after the mark are kept by compaction.
+     *
+     * @return The sequence number of the next record, and where in the
+     *         file it goes.
+     */
+    long[] cut() {
+        synchronized (commitLock) {
+            long seq;
+            synchronized (this) {
+                seq = appended;
+            }
+            commit(seq);
+            try {
+                return new long[]{first + seq, channel.position()};
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Pin the current epoch of a disk and cut the journal at the same
+     * point, so that an image written at the epoch holds exactly the
+     * records before the cut. A concurrent disk has all its directories
+     * locked meanwhile; as steps are journaled before their directories are
+     * unlocked, none is then between its change and its record. Waits for
+     * a moment when no directory is locked, so it must not be called from
+     * a thread holding one.
+     *
+     * @param disk The disk of the journal.
+     * @return The pinned epoch, the sequence number of the next record, and
+     *         where in the file it goes.
+     */
+    long[] mark(Disk disk) {
+        if (disk.isConcurrent()) {
+            while (!disk.tryLockAll()) {
+                Thread.yield();
+            }
+        }
+        try {
+            long[] cut = cut();
+            return new long[]{disk.versions().pin(), cut[0], cut[1]};
+        } finally {
+            if (disk.isConcurrent()) {
+                disk.unlockAll();
+            }
+        }
+    }
+
+    /**
+     * Drop the records before a cut, once an image holding them has
+     * replaced the old one. The records after the cut are copied into a
+     * new file that replaces the journal in one atomic move; most of them
+     * are copied before appends are held up, and only the rest while they
+     * are.
+     *
+     * @param seq The sequence number of the first record kept.
+     * @param position Where that record is in the file.
+     * @throws IOException if the files cannot be written.
+     */
+    void compact(long seq, long position) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel to = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel from = FileChannel.open(path, StandardOpenOption.READ)) {
+            writeHeader(to, seq);
+            position = copy(from, position, from.size(), to);
+            synchronized (commitLock) {
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                }
+                copy(from, position, channel.position(), to);
+                to.force(true);
+                channel.close();
+                try {
+                    Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    // the compacted journal, or the old one if it could not replace it
+                    channel = FileChannel.open(path, StandardOpenOption.WRITE);
+                    channel.position(channel.size());
+                    length = channel.size();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static long copy(FileChannel from, long position, long end, FileChannel to) throws IOException {
+        while (position < end) {
+            position += from.transferTo(position, end - position, to);
+        }
+        return position;
+    }
+
+    /**
+     * @return The number of bytes of records in the journal, the ones not
+     *         yet written included.
+     */
+    long records() {
+        return size() - HEADER;
+    }
+
+    /**
+     * @return The checkpointer of the journal.
+     */
+    public Checkpointer getCheckpointer() {
+        return checkpointer;
+    }
+
+    /**
+     * @return The number of records replayed when the journal was opened.
+     */
+    public int getReplayed() {
+        return replayed;
+    }
+
+    /**
+     * @return The journal file.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return The number of bytes in the journal, records not yet written
+     *         included.
+     */
+    public long size() {
+        synchronized (this) {
+            return length + pending.size();
+        }
+    }
+
+    /**
+     * Write what is pending and close the file. Later appends fail.
+     */
+    @Override
+    public void close() {
+        long seq;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            seq = appended;
+        }
+        checkpointer.cancel();
+        commit(seq);
+        synchronized (commitLock) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Read one record and check it.
+     *
+     * @return The body, or null at the end of the journal or at a record
+     *         cut short.
+     */
+    private static byte[] readRecord(InputStream in, CRC32 crc) throws IOException {
+        long length;
+        try {
+            length = DiskImage.readVarint(in);
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length > Integer.MAX_VALUE) {
+            return null;
+        }
+        byte[] body = new byte[(int) length];
+        byte[] check = new byte[4];
+        if (readFully(in, body) < body.length || readFully(in, check) < check.length) {
+            return null;
+        }
+        crc.reset();
+        crc.update(body, 0, body.length);
+        long expected = (check[0] & 0xffL) << 24 | (check[1] & 0xff) << 16 | (check[2] & 0xff) << 8 | check[3] & 0xff;
+        return crc.getValue() == expected ? body : null;
+    }
+
+    private static int readFully(InputStream in, byte[] bytes) throws IOException {
+        int done = 0;
+        while (done < bytes.length) {
+            int n = in.read(bytes, done, bytes.length - done);
+            if (n < 0) {
+                break;
+            }
+            done += n;
+        }
+        return done;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7fL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Carry out one record on a disk. The record must match the disk: the
+     * image holds no record from its cut on, so a file that is missing, in
+     * the way or not the one recorded means the two have diverged.
+     *
+     * @param seq The sequence number of the record.
+     * @return The largest inode ID the record brings onto the disk.
+     * @throws IOException if the record is corrupt or does not match.
+     */
+    private static long replay(Disk disk, InputStream in, long seq) throws IOException {
+        int op = in.read();
+        String from = DiskImage.readString(in);
+        Node unit = disk.lookup(from);
+        switch (op) {
+            case PUT: {
+                if (!(unit instanceof Directory)) {
+                    throw mismatch(seq, "no directory " + from);
+                }
+                Directory dir = (Directory) unit;
+                Node tree = DiskImage.readTree(in, dir);
+                Node there = dir.child(tree.getName());
+                if (there != null) {
+                    tree.release();
+                    throw mismatch(seq, there.getPath() + " is in the way");
+                }
+                dir.attach(tree);
+                return maxInode(tree);
+            }
+            case REMOVE:
+                checkInode(unit, from, DiskImage.readVarint(in), seq);
+                ((Directory) unit.getParent()).detach(unit);
+                unit.release();
+                return 0;
+            case RENAME:
+                checkInode(unit, from, DiskImage.readVarint(in), seq);
+                ((Directory) unit.getParent()).relabel(unit, DiskImage.readString(in));
+                return 0;
+            case MOVE: {
+                checkInode(unit, from, DiskImage.readVarint(in), seq);
+                String to = DiskImage.readString(in);
+                Node target = disk.lookup(to);
+                if (!(target instanceof Directory)) {
+                    throw mismatch(seq, "no directory " + to);
+                }
+                ((Directory) unit.getParent()).relocate(unit, (Directory) target, DiskImage.readString(in));
+                return 0;
+            }
+            default:
+                throw new IOException("Corrupt journal: unknown record " + op + ".");
+        }
+    }
+
+    private static void checkInode(Node unit, String path, long inode, long seq) throws IOException {
+        if (unit == null) {
+            throw mismatch(seq, "no file " + path);
+        }
+        if (unit.getInode() != inode) {
+            throw mismatch(seq, path + " is inode " + unit.getInode() + ", not " + inode);
+        }
+    }
+
+    private static IOException mismatch(long seq, String what) {
+        return new IOException("The journal does not match its image at record " + seq + ": " + what + ".");
+    }
+
+    private static long maxInode(Node tree) {
+        long max = 0;
+        ArrayDeque<Node> todo = new ArrayDeque<>();
+        todo.push(tree);
+        while (!todo.isEmpty()) {
+            Node unit = todo.pop();
+            max = Math.max(max, unit.getInode());
+            if (unit instanceof Directory) {
+                for (Node child : ((Directory) unit).getCatalog()) {
+                    todo.push(child);
+                }
+            }
+        }
+        return max;
+    }
+}
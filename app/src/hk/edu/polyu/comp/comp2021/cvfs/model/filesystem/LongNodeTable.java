@@ -0,0 +1,185 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An open-addressing hash table from <code>long</code> keys to files, with
+ * linear probing and backward-shift deletion. Keys are kept in a primitive
+ * array with 0 marking an empty slot, so a lookup neither boxes nor hashes
+ * an object. Subclasses choose which key of a file is used.
+ */
+abstract class LongNodeTable implements Iterable<Node>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private long[] keys;
+    private Node[] values;
+    private int size;
+
+    /**
+     * Create an empty table with room for the given number of files.
+     *
+     * @param expected The number of files expected.
+     */
+    LongNodeTable(int expected) {
+        int capacity = 4;
+        while (capacity * 3 < expected * 4) {
+            capacity *= 2;
+        }
+        keys = new long[capacity];
+        values = new Node[capacity];
+    }
+
+    /**
+     * @return The number of files in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find a file by its key.
+     *
+     * @param code The key.
+     * @return The file, or null if there is none.
+     */
+    public Node get(long code) {
+        int mask = keys.length - 1;
+        for (int i = slot(code, mask); keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == code) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Put a file into the table under its own key, replacing any file with
+     * the same key.
+     *
+     * @param unit The file to be put.
+     */
+    public void put(Node unit) {
+        long code = keyOf(unit);
+        int mask = keys.length - 1;
+        int i = slot(code, mask);
+        while (keys[i] != 0) {
+            if (keys[i] == code) {
+                values[i] = unit;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = code;
+        values[i] = unit;
+        if (++size * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+    }
+
+    /**
+     * Remove a file by its key.
+     *
+     * @param code The key.
+     * @return The removed file, or null if there was none.
+     */
+    public Node remove(long code) {
+        int mask = keys.length - 1;
+        int i = slot(code, mask);
+        while (keys[i] != code) {
+            if (keys[i] == 0) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+        Node removed = values[i];
+        // shift later entries of the probe run back so no gap is left
+        int gap = i;
+        for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        keys[gap] = 0;
+        values[gap] = null;
+        size--;
+        return removed;
+    }
+
+    /**
+     * @return An iterator over the files, in no particular order.
+     */
+    @Override
+    public Iterator<Node> iterator() {
+        return new Iterator<Node>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < values.length && values[from] == null) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < values.length;
+            }
+
+            @Override
+            public Node next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Node unit = values[next];
+                next = advance(next + 1);
+                return unit;
+            }
+        };
+    }
+
+    /**
+     * Get the key a file is stored under. Never 0, which marks empty slots.
+     *
+     * @param unit The file.
+     * @return The key of the file.
+     */
+    abstract long keyOf(Node unit);
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Node[] oldValues = values;
+        keys = new long[capacity];
+        values = new Node[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0) {
+                int i = slot(oldKeys[j], mask);
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private static int slot(long code, int mask) {
+        long h = mix(code);
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Spread the bits of a key.
+     *
+     * @param code The key.
+     * @return The hash of the name.
+     */
+    static long mix(long code) {
+        return code * 0x9E3779B97F4A7C15L;
+    }
+}
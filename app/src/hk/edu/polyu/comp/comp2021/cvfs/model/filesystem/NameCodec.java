@@ -0,0 +1,168 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+/**
+ * Packs a file name into a single <code>long</code>. A valid name has at most
+ * 10 chars from [0-9A-Za-z], so each char is stored as a base-63 digit from 1
+ * to 62 with 0 marking the end of a shorter name. Digits are left aligned,
+ * which keeps the numeric order of two codes the same as the order of the
+ * names they stand for.
+ */
+public final class NameCodec {
+
+    /**
+     * The maximum length of a name.
+     */
+    public static final int MAX_LENGTH = 10;
+
+    /**
+     * All chars allowed in a name, in ascending order.
+     */
+    private static final String SYMBOLS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    static final int RADIX = SYMBOLS.length() + 1;
+
+    /**
+     * RADIX to the power of i, for i from 0 to MAX_LENGTH.
+     */
+    private static final long[] POWERS = new long[MAX_LENGTH + 1];
+
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i <= MAX_LENGTH; i++) {
+            POWERS[i] = POWERS[i - 1] * RADIX;
+        }
+    }
+
+    private NameCodec() {
+    }
+
+    /**
+     * Check whether the name can be packed, i.e. whether it is a valid name.
+     *
+     * @param name The string to be checked.
+     * @return true if it is valid.
+     */
+    public static boolean isEncodable(String name) {
+        if (name == null || name.isEmpty() || name.length() > MAX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (digit(name.charAt(i)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pack a name into a long.
+     *
+     * @param name A valid name.
+     * @return The packed name, never 0.
+     * @throws IllegalArgumentException if the name is not valid.
+     */
+    public static long encode(String name) {
+        long code = tryEncode(name);
+        if (code == 0) {
+            throw new IllegalArgumentException("Invalid name: " + name);
+        }
+        return code;
+    }
+
+    /**
+     * Pack a name into a long without throwing.
+     *
+     * @param name Any string.
+     * @return The packed name, or 0 if the name is not valid.
+     */
+    public static long tryEncode(String name) {
+        return name == null ? 0 : tryEncode(name, 0, name.length());
+    }
+
+    /**
+     * Pack a part of a text into a long without throwing, so a path can be
+     * resolved without cutting it into strings.
+     *
+     * @param text Any text.
+     * @param start Where the name starts.
+     * @param end Where the name ends, exclusive.
+     * @return The packed name, or 0 if it is not valid.
+     */
+    static long tryEncode(CharSequence text, int start, int end) {
+        if (start >= end || end - start > MAX_LENGTH) {
+            return 0;
+        }
+        long code = 0;
+        for (int i = start; i < end; i++) {
+            int digit = digit(text.charAt(i));
+            if (digit == 0) {
+                return 0;
+            }
+            code += digit * POWERS[MAX_LENGTH - 1 - (i - start)];
+        }
+        return code;
+    }
+
+    /**
+     * Get the bound just past all names that start with a given prefix, so
+     * that they are exactly the codes in [prefixCode, bound).
+     *
+     * @param prefixCode The packed prefix.
+     * @param length The length of the prefix.
+     * @return The exclusive upper bound of names with that prefix.
+     */
+    public static long prefixEnd(long prefixCode, int length) {
+        return prefixCode + POWERS[MAX_LENGTH - length];
+    }
+
+    /**
+     * Unpack a name. Only used when the name is displayed.
+     *
+     * @param code A packed name.
+     * @return The name as a string.
+     */
+    public static String decode(long code) {
+        char[] chars = new char[MAX_LENGTH];
+        int length = 0;
+        while (length < MAX_LENGTH) {
+            int digit = (int) (code / POWERS[MAX_LENGTH - 1 - length] % RADIX);
+            if (digit == 0) {
+                break;
+            }
+            chars[length++] = SYMBOLS.charAt(digit - 1);
+        }
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Unpack a name onto the end of a builder.
+     *
+     * @param out Where the name goes.
+     * @param code A packed name.
+     */
+    static void appendTo(StringBuilder out, long code) {
+        // digits come out last first; dividing by the constant radix is
+        // much cheaper than by the powers
+        int[] digits = new int[MAX_LENGTH];
+        for (int i = MAX_LENGTH - 1; i >= 0; i--) {
+            digits[i] = (int) (code % RADIX);
+            code /= RADIX;
+        }
+        for (int i = 0; i < MAX_LENGTH && digits[i] != 0; i++) {
+            out.append(SYMBOLS.charAt(digits[i] - 1));
+        }
+    }
+
+    private static int digit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0' + 1;
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A' + 11;
+        }
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 37;
+        }
+        return 0;
+    }
+}
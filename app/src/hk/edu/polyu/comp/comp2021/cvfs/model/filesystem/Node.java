@@ -12,15 +12,58 @@ public abstract class Node implements Serializable {
      */
     protected static final int SIZE_PREFIX = 40;
     /**
-     * A non-null string. Only numbers and English letters are allowed. No more
-     * than 10 chars. Can't be empty except for the disk.
+     * The name packed by <code>NameCodec</code>. Only numbers and English
+     * letters are allowed. No more than 10 chars.
      */
-    private String name;
+    private long name;
 
     /**
      * The size of the file.
      */
-    private int size;
+    private long size;
+
+    /**
+     * The inode ID of the file, unique within its disk and never reused.
+     * 0 for the disk itself.
+     */
+    private long inode;
+
+    /**
+     * The number of directories between the file and the disk, set whenever
+     * the parent is set.
+     */
+    private transient int level;
+
+    /**
+     * The move count of the disk when the level was cached. Moving or
+     * renaming a directory bumps the count instead of visiting everything
+     * inside it, and each file recomputes its location the next time it is
+     * read.
+     */
+    private transient int located;
+
+    /**
+     * Cached full path of the file, with the move count it was built at.
+     * Dropped when the file itself is renamed or given a new parent.
+     */
+    private transient volatile CachedPath path;
+
+    /**
+     * The shelved delete count of the disk when the file was last found to
+     * be in the tree, see <code>Disk.isAttached</code>.
+     */
+    private transient int attached;
+
+    /**
+     * Cached reference to the disk holding this file.
+     */
+    private transient Disk disk;
+
+    /**
+     * The slot of the file in the columnar store of its disk, 0 if the disk
+     * has none.
+     */
+    private transient int column;
 
     /**
      * Construct a new file.
@@ -28,7 +71,7 @@ public abstract class Node implements Serializable {
      * @param name The name of the file.
      */
     public Node(String name) {
-        this.name = name;
+        this.name = NameCodec.encode(name);
     }
 
     /**
@@ -40,7 +83,7 @@ public abstract class Node implements Serializable {
      */
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     public static boolean isValidName(String name) {
-        return name.matches("^[a-zA-Z0-9]{1,10}$");
+        return NameCodec.isEncodable(name);
     }
 
     /**
@@ -49,6 +92,41 @@ public abstract class Node implements Serializable {
      * @return the name of the file.
      */
     public String getName() {
+        return NameCodec.decode(name);
+    }
+
+    /**
+     * Get the inode ID of the file.
+     *
+     * @return the inode ID, 0 for the disk.
+     */
+    public long getInode() {
+        return inode;
+    }
+
+    /**
+     * Give the file the next inode ID of its disk. Called once, when the
+     * file is created.
+     */
+    protected void assignInode() {
+        inode = getDisk().nextInode();
+    }
+
+    /**
+     * Give the file the inode ID of the file it is a copy of.
+     *
+     * @param inode The inode ID.
+     */
+    void setInode(long inode) {
+        this.inode = inode;
+    }
+
+    /**
+     * Get the packed name of the file, used as the key in catalogs.
+     *
+     * @return the packed name of the file.
+     */
+    public long getNameCode() {
         return name;
     }
 
@@ -58,7 +136,8 @@ public abstract class Node implements Serializable {
      * @param newName The new name to be used.
      */
     public void setName(String newName) {
-        name = newName;
+        name = NameCodec.encode(newName);
+        path = null;
     }
 
     /**
@@ -81,7 +160,7 @@ public abstract class Node implements Serializable {
      *
      * @return the size of the file.
      */
-    public int getSize() {
+    public long getSize() {
         return size;
     }
 
@@ -90,24 +169,143 @@ public abstract class Node implements Serializable {
      *
      * @param newSize The new size.
      */
-    public void setSize(int newSize) {
+    public void setSize(long newSize) {
         size = newSize;
     }
 
+    /**
+     * Get the disk this file belongs to.
+     *
+     * @return The root disk of the file.
+     */
+    public Disk getDisk() {
+        if (disk == null) {
+            disk = getParent() == null ? (Disk) this : getParent().getDisk();
+        }
+        return disk;
+    }
+
+    /**
+     * Get the full path of the file, e.g. <code>Disk:dir1:file</code>. The
+     * path is cached until a directory on the disk is moved or renamed; it
+     * is then rebuilt from the names up to the nearest directory whose path
+     * is still cached.
+     *
+     * @return The full path of the file.
+     */
+    public String getPath() {
+        int moves = getDisk().moves();
+        CachedPath cached = path;
+        if (cached != null && cached.moves == moves) {
+            return cached.path;
+        }
+        String prefix = null;
+        int depth = 0;
+        for (Node up = this; up != null; up = up.getParent()) {
+            CachedPath above = up.path;
+            if (up != this && above != null && above.moves == moves) {
+                prefix = above.path;
+                break;
+            }
+            depth++;
+        }
+        long[] names = new long[depth];
+        Node up = this;
+        for (int i = depth - 1; i >= 0; i--) {
+            names[i] = up.name;
+            up = up.getParent();
+        }
+        StringBuilder built = new StringBuilder((prefix == null ? 0 : prefix.length())
+                + depth * (NameCodec.MAX_LENGTH + 1));
+        if (prefix != null) {
+            built.append(prefix);
+        }
+        for (int i = 0; i < depth; i++) {
+            if (prefix != null || i > 0) {
+                built.append(':');
+            }
+            NameCodec.appendTo(built, names[i]);
+        }
+        String full = built.toString();
+        path = new CachedPath(full, moves);
+        return full;
+    }
+
+    int getAttached() {
+        return attached;
+    }
+
+    void setAttached(int stamp) {
+        attached = stamp;
+    }
+
+    /**
+     * @return The slot of the file in the columnar store, 0 if none.
+     */
+    int getColumn() {
+        return column;
+    }
+
+    /**
+     * @param column The new slot of the file in the columnar store.
+     */
+    void setColumn(int column) {
+        this.column = column;
+    }
+
+    /**
+     * Refresh the cached location after the parent has been set.
+     */
+    protected void updateLocation() {
+        level = getParent() == null ? 0 : getParent().getLevel() + 1;
+        disk = null;
+        path = null;
+        located = getDisk().moves();
+    }
+
+    /**
+     * Recompute the cached level if a directory has been moved since it was
+     * cached.
+     */
+    private void locate() {
+        Node parent = getParent();
+        if (parent == null) {
+            return;
+        }
+        int moves = getDisk().moves();
+        if (located != moves) {
+            level = parent.getLevel() + 1;
+            located = moves;
+        }
+    }
+
+    /**
+     * Free any storage held outside the heap. Called once the file has been
+     * dropped from the tree and from the undo/redo history.
+     */
+    public void release() {
+    }
+
     /**
      * get level index of this
      *
      * @return The level index of this file;
      */
     public int getLevel() {
-        int level = 0;
-        Node current = this;
+        locate();
+        return level;
+    }
 
-        while (current.getParent() != null) {
-            level++;
-            current = current.getParent();
-        }
+    /**
+     * A full path and the move count of the disk it was built at.
+     */
+    private static final class CachedPath {
+        private final String path;
+        private final int moves;
 
-        return level;
+        private CachedPath(String path, int moves) {
+            this.path = path;
+            this.moves = moves;
+        }
     }
 }
@@ -0,0 +1,70 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A catalog that keeps its files sorted by name. Since packed names sort in
+ * the same order as the names themselves, the order is that of the packed
+ * codes. Iteration, <code>seek</code> and <code>range</code> all walk the
+ * catalog in place without building a sorted copy.
+ */
+public interface OrderedCatalog extends Catalog {
+
+    /**
+     * Open a cursor at the first file whose name is not less than the given
+     * one.
+     *
+     * @param from The packed name to start from.
+     * @return An iterator over the files from there on, in name order.
+     */
+    Iterator<Node> seek(long from);
+
+    /**
+     * Iterate over the files whose packed names lie in [from, to).
+     *
+     * @param from The first packed name included.
+     * @param to The first packed name excluded.
+     * @return An iterator over the files in the range, in name order.
+     */
+    default Iterator<Node> range(long from, final long to) {
+        final Iterator<Node> cursor = seek(from);
+        return new Iterator<Node>() {
+            private Node next = advance();
+
+            private Node advance() {
+                if (!cursor.hasNext()) {
+                    return null;
+                }
+                Node unit = cursor.next();
+                return unit.getNameCode() < to ? unit : null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Node next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Node unit = next;
+                next = advance();
+                return unit;
+            }
+        };
+    }
+
+    /**
+     * Iterate over the files whose names start with the given prefix.
+     *
+     * @param prefix A valid name used as the prefix.
+     * @return An iterator over the matching files, in name order.
+     */
+    default Iterator<Node> prefix(String prefix) {
+        long from = NameCodec.encode(prefix);
+        return range(from, NameCodec.prefixEnd(from, prefix.length()));
+    }
+}
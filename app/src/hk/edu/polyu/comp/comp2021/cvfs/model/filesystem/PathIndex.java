@@ -0,0 +1,208 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+/**
+ * The path index of a disk: every file in the tree keyed by the inode ID of
+ * its parent and its packed name, so a full path resolves with one probe per
+ * level. Paths are not stored, and a moved or renamed file is re-keyed on
+ * its own; nothing inside it changes.
+ * <p>
+ * Only the files and a hash of their keys are kept, with linear probing and
+ * backward-shift deletion as in <code>LongNodeTable</code>; a probe checks
+ * the parent and name of the file itself, so keys that hash alike do not
+ * clash. A concurrent disk spreads its files over shards guarded by their
+ * own monitors.
+ */
+final class PathIndex {
+
+    /**
+     * The number of shards of the index of a concurrent disk.
+     */
+    private static final int SHARDS = 64;
+
+    private final Shard[] shards;
+
+    /**
+     * Create an empty index.
+     *
+     * @param concurrent True if the index is used from several threads.
+     */
+    PathIndex(boolean concurrent) {
+        shards = new Shard[concurrent ? SHARDS : 1];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = concurrent ? new LockedShard() : new Shard();
+        }
+    }
+
+    /**
+     * Find a file by its parent and name.
+     *
+     * @param parent The inode ID of the parent.
+     * @param name The packed name of the file.
+     * @return The file, or null if there is none.
+     */
+    Node get(long parent, long name) {
+        long hash = hash(parent, name);
+        return shard(hash).get(hash, parent, name);
+    }
+
+    /**
+     * Put a file into the index under its current parent and name.
+     *
+     * @param unit The file, already under its parent.
+     */
+    void put(Node unit) {
+        long parent = unit.getParent().getInode();
+        long name = unit.getNameCode();
+        long hash = hash(parent, name);
+        shard(hash).put(hash, parent, name, unit);
+    }
+
+    /**
+     * Remove a file put in under a parent and name it may no longer have.
+     *
+     * @param parent The inode ID of the parent it was put in under.
+     * @param name The packed name it was put in under.
+     * @param unit The file.
+     */
+    void remove(long parent, long name, Node unit) {
+        long hash = hash(parent, name);
+        shard(hash).remove(hash, unit);
+    }
+
+    /**
+     * @return The number of files in the index.
+     */
+    int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    private Shard shard(long hash) {
+        return shards[(int) (hash >>> 58) & (shards.length - 1)];
+    }
+
+    private static long hash(long parent, long name) {
+        long h = LongNodeTable.mix(LongNodeTable.mix(parent) ^ name);
+        // 0 marks an empty slot
+        return h == 0 ? 1 : h;
+    }
+
+    private static boolean matches(Node unit, long parent, long name) {
+        return unit.getNameCode() == name && unit.getParent() != null && unit.getParent().getInode() == parent;
+    }
+
+    /**
+     * One open-addressing table.
+     */
+    private static class Shard {
+        private long[] hashes = new long[16];
+        private Node[] values = new Node[16];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        Node get(long hash, long parent, long name) {
+            int mask = hashes.length - 1;
+            for (int i = slot(hash, mask); hashes[i] != 0; i = (i + 1) & mask) {
+                if (hashes[i] == hash && matches(values[i], parent, name)) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        void put(long hash, long parent, long name, Node unit) {
+            int mask = hashes.length - 1;
+            int i = slot(hash, mask);
+            while (hashes[i] != 0) {
+                if (hashes[i] == hash && (values[i] == unit || matches(values[i], parent, name))) {
+                    values[i] = unit;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            hashes[i] = hash;
+            values[i] = unit;
+            if (++size * 4 > hashes.length * 3) {
+                resize(hashes.length * 2);
+            }
+        }
+
+        void remove(long hash, Node unit) {
+            int mask = hashes.length - 1;
+            int i = slot(hash, mask);
+            while (hashes[i] != hash || values[i] != unit) {
+                if (hashes[i] == 0) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            // shift later entries of the probe run back so no gap is left
+            int gap = i;
+            for (int j = (i + 1) & mask; hashes[j] != 0; j = (j + 1) & mask) {
+                int home = slot(hashes[j], mask);
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    hashes[gap] = hashes[j];
+                    values[gap] = values[j];
+                    gap = j;
+                }
+            }
+            hashes[gap] = 0;
+            values[gap] = null;
+            size--;
+        }
+
+        private void resize(int capacity) {
+            long[] oldHashes = hashes;
+            Node[] oldValues = values;
+            hashes = new long[capacity];
+            values = new Node[capacity];
+            int mask = capacity - 1;
+            for (int j = 0; j < oldHashes.length; j++) {
+                if (oldHashes[j] != 0) {
+                    int i = slot(oldHashes[j], mask);
+                    while (hashes[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    hashes[i] = oldHashes[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+
+        private static int slot(long hash, int mask) {
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+
+    /**
+     * A table read and changed under its own monitor.
+     */
+    private static final class LockedShard extends Shard {
+
+        @Override
+        synchronized int size() {
+            return super.size();
+        }
+
+        @Override
+        synchronized Node get(long hash, long parent, long name) {
+            return super.get(hash, parent, name);
+        }
+
+        @Override
+        synchronized void put(long hash, long parent, long name, Node unit) {
+            super.put(hash, parent, name, unit);
+        }
+
+        @Override
+        synchronized void remove(long hash, Node unit) {
+            super.remove(hash, unit);
+        }
+    }
+}
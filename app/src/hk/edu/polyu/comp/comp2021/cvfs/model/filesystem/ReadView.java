@@ -0,0 +1,77 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.criteria.Criterion;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+
+/**
+ * The files of a disk as they were when the view was opened, for a reader
+ * walking the tree while other threads change it. The view pins an epoch in
+ * the disk's version store and reads every name, size and catalog as of that
+ * epoch, so it never sees half of a change and never holds up a writer.
+ */
+final class ReadView implements AutoCloseable {
+
+    private final VersionStore versions;
+    private final int epoch;
+
+    ReadView(VersionStore versions) {
+        this.versions = versions;
+        this.epoch = versions.pin();
+    }
+
+    /**
+     * @param dir A directory in the view.
+     * @return The files in the directory.
+     */
+    Node[] children(Directory dir) {
+        return versions.childrenAt(dir, epoch);
+    }
+
+    /**
+     * @param unit A file in the view.
+     * @return The name of the file.
+     */
+    String name(Node unit) {
+        return NameCodec.decode(versions.nameAt(unit, epoch));
+    }
+
+    /**
+     * @param unit A file in the view.
+     * @return The size of the file.
+     */
+    long size(Node unit) {
+        return versions.sizeAt(unit, epoch);
+    }
+
+    /**
+     * @param criterion A filter.
+     * @param unit A file in the view.
+     * @return True if the file passes the filter.
+     */
+    boolean check(Criterion criterion, Node unit) {
+        DocumentType type = unit instanceof Document ? ((Document) unit).getType() : null;
+        return criterion.check(versions.nameAt(unit, epoch), size(unit), type);
+    }
+
+    /**
+     * @param unit A file in the view.
+     * @return The file formatted as its <code>toString</code> would.
+     */
+    String describe(Node unit) {
+        if (unit instanceof Document) {
+            return Document.format(name(unit), ((Document) unit).getType(), size(unit));
+        }
+        if (unit instanceof Disk) {
+            return Disk.format(name(unit), size(unit), ((Disk) unit).getCapacity());
+        }
+        return Directory.format(name(unit), size(unit));
+    }
+
+    /**
+     * Give up the pinned epoch.
+     */
+    @Override
+    public void close() {
+        versions.unpin(epoch);
+    }
+}
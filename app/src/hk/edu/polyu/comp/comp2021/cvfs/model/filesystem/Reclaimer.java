@@ -0,0 +1,107 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tears down deleted directories that undo can no longer reach: drops the
+ * index entries of everything inside them and frees their contents, a few
+ * files at a time. A concurrent disk is torn down by a background thread;
+ * any other disk is not safe to touch from another thread, so it is torn
+ * down in small slices whenever the disk is changed.
+ */
+final class Reclaimer {
+
+    /**
+     * The number of files torn down in one slice.
+     */
+    static final int SLICE = 256;
+
+    private static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "cvfs-reclaimer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Disk disk;
+
+    /**
+     * The files being torn down, each below its parent, and the files in
+     * each not yet visited. Files are torn down after everything inside them.
+     */
+    private final ArrayDeque<Node> units = new ArrayDeque<>();
+    private final ArrayDeque<Iterator<Node>> children = new ArrayDeque<>();
+
+    private boolean scheduled;
+
+    Reclaimer(Disk disk) {
+        this.disk = disk;
+    }
+
+    /**
+     * Queue a deleted directory for tear-down. The directory itself is
+     * already out of the index.
+     *
+     * @param dir The directory, no longer reachable by undo.
+     */
+    synchronized void add(Directory dir) {
+        push(dir);
+        if (disk.isConcurrent() && !scheduled) {
+            scheduled = true;
+            BACKGROUND.execute(this::drain);
+        }
+    }
+
+    /**
+     * Tear down at most a number of files.
+     *
+     * @param budget The number of files to tear down.
+     * @return True if nothing is left to tear down.
+     */
+    synchronized boolean step(int budget) {
+        while (budget > 0 && !units.isEmpty()) {
+            Iterator<Node> next = children.peek();
+            if (next.hasNext()) {
+                push(next.next());
+                continue;
+            }
+            children.pop();
+            disk.forget(units.pop());
+            budget--;
+        }
+        return units.isEmpty();
+    }
+
+    /**
+     * Tear down everything queued, one slice at a time.
+     */
+    void drain() {
+        while (!step(SLICE)) {
+            Thread.yield();
+        }
+        synchronized (this) {
+            scheduled = false;
+            if (!units.isEmpty()) {
+                scheduled = true;
+                BACKGROUND.execute(this::drain);
+            }
+        }
+    }
+
+    /**
+     * @return True if nothing is waiting to be torn down.
+     */
+    synchronized boolean isIdle() {
+        return units.isEmpty();
+    }
+
+    private void push(Node unit) {
+        units.push(unit);
+        children.push(unit instanceof Directory
+                ? ((Directory) unit).loadedCatalog().iterator()
+                : Collections.<Node>emptyIterator());
+    }
+}
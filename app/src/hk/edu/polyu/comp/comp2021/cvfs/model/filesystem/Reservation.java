@@ -0,0 +1,53 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+/**
+ * Capacity claimed on a disk ahead of a bulk operation. Files added with
+ * the reservation are paid from it instead of being checked against the
+ * capacity one by one; closing it gives the unused part back to the disk.
+ */
+public final class Reservation implements AutoCloseable {
+
+    private final Disk disk;
+    private long remaining;
+
+    Reservation(Disk disk, long size) {
+        this.disk = disk;
+        this.remaining = size;
+    }
+
+    /**
+     * @return The disk the capacity is claimed on.
+     */
+    public Disk getDisk() {
+        return disk;
+    }
+
+    /**
+     * @return The number of reserved bytes not used yet.
+     */
+    public synchronized long getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * Pay for some bytes from the reservation.
+     *
+     * @param size The number of bytes.
+     * @throws IllegalStateException if the reservation is not enough.
+     */
+    synchronized void take(long size) {
+        if (size > remaining) {
+            throw new IllegalStateException("No Enough Space Left in the reservation.");
+        }
+        remaining -= size;
+    }
+
+    /**
+     * Give the unused part back to the disk. Closing twice has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        disk.unreserve(remaining);
+        remaining = 0;
+    }
+}
@@ -0,0 +1,98 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A catalog for huge directories: the files are split by the top bits of
+ * their hash over a fixed number of <code>HashCatalog</code> shards. Each
+ * shard resizes on its own, so a growing directory never has to rehash all
+ * of its files at once.
+ */
+public class ShardedCatalog implements Catalog {
+    private static final long serialVersionUID = 1L;
+
+    private static final int SHARD_BITS = 6;
+
+    private final HashCatalog[] shards = new HashCatalog[1 << SHARD_BITS];
+    private int size;
+
+    /**
+     * Create an empty sharded catalog.
+     */
+    public ShardedCatalog() {
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new HashCatalog(HashCatalog.MAX_SIZE >> SHARD_BITS);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Node get(long code) {
+        return shard(code).get(code);
+    }
+
+    @Override
+    public void put(Node unit) {
+        HashCatalog shard = shard(unit.getNameCode());
+        int before = shard.size();
+        shard.put(unit);
+        size += shard.size() - before;
+    }
+
+    @Override
+    public Node remove(long code) {
+        Node removed = shard(code).remove(code);
+        if (removed != null) {
+            size--;
+        }
+        return removed;
+    }
+
+    @Override
+    public Catalog resized(boolean ordered) {
+        if (size >= HashCatalog.MAX_SIZE / 4) {
+            return this;
+        }
+        HashCatalog smaller = new HashCatalog(size);
+        for (Node unit : this) {
+            smaller.put(unit);
+        }
+        return smaller;
+    }
+
+    /**
+     * @return An iterator over the files, shard by shard.
+     */
+    @Override
+    public Iterator<Node> iterator() {
+        return new Iterator<Node>() {
+            private int shard;
+            private Iterator<Node> current = shards[0].iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && shard < shards.length - 1) {
+                    current = shards[++shard].iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Node next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    private HashCatalog shard(long code) {
+        return shards[(int) (LongNodeTable.mix(code) >>> (64 - SHARD_BITS))];
+    }
+}
@@ -0,0 +1,49 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A named snapshot of a disk: the epoch it pins and what the disk looked
+ * like from outside when it was taken.
+ */
+public final class Snapshot {
+    private final String name;
+    private final int epoch;
+    private final long time;
+    private final long size;
+
+    Snapshot(String name, int epoch, long time, long size) {
+        this.name = name;
+        this.epoch = epoch;
+        this.time = time;
+        this.size = size;
+    }
+
+    /**
+     * @return The name of the snapshot.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The epoch pinned by the snapshot.
+     */
+    int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return The used space of the disk when the snapshot was taken.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        String when = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(time));
+        return String.format("\033[32m%-14s \033[33m%-8d \033[0m%s", name, size, when);
+    }
+}
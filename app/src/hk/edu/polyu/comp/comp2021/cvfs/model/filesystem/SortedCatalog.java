@@ -0,0 +1,225 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A catalog for larger directories on an ordered disk: a two-level B-tree.
+ * Files are kept sorted by packed name in blocks of at most
+ * <code>BLOCK_SIZE</code> entries, and a sorted array of the first name of
+ * every block routes lookups to the right block. Shrinks back into an
+ * <code>ArrayCatalog</code> when few files are left.
+ */
+public class SortedCatalog implements OrderedCatalog {
+    private static final long serialVersionUID = 1L;
+
+    private static final int BLOCK_SIZE = 128;
+
+    private long[] firsts = new long[4];
+    private Block[] blocks = new Block[4];
+    private int blockCount;
+    private int size;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Node get(long code) {
+        if (blockCount == 0) {
+            return null;
+        }
+        Block block = blocks[findBlock(code)];
+        int i = Arrays.binarySearch(block.keys, 0, block.size, code);
+        return i >= 0 ? block.values[i] : null;
+    }
+
+    @Override
+    public void put(Node unit) {
+        long code = unit.getNameCode();
+        if (blockCount == 0) {
+            insertBlock(0, new Block());
+        }
+        int b = findBlock(code);
+        Block block = blocks[b];
+        int i = Arrays.binarySearch(block.keys, 0, block.size, code);
+        if (i >= 0) {
+            block.values[i] = unit;
+            return;
+        }
+        i = -i - 1;
+        if (block.size == BLOCK_SIZE) {
+            Block upper = block.split();
+            insertBlock(b + 1, upper);
+            if (i > block.size) {
+                b++;
+                i -= block.size;
+                block = upper;
+            }
+        }
+        block.insert(i, code, unit);
+        firsts[b] = block.keys[0];
+        size++;
+    }
+
+    @Override
+    public Node remove(long code) {
+        if (blockCount == 0) {
+            return null;
+        }
+        int b = findBlock(code);
+        Block block = blocks[b];
+        int i = Arrays.binarySearch(block.keys, 0, block.size, code);
+        if (i < 0) {
+            return null;
+        }
+        Node removed = block.remove(i);
+        size--;
+        if (block.size == 0) {
+            removeBlock(b);
+        } else {
+            firsts[b] = block.keys[0];
+            if (b + 1 < blockCount && block.size + blocks[b + 1].size <= BLOCK_SIZE / 2) {
+                block.append(blocks[b + 1]);
+                removeBlock(b + 1);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public Catalog resized(boolean ordered) {
+        if (size > ArrayCatalog.MAX_SIZE / 2) {
+            return this;
+        }
+        ArrayCatalog smaller = new ArrayCatalog();
+        for (Node unit : this) {
+            smaller.put(unit);
+        }
+        return smaller;
+    }
+
+    /**
+     * @return An iterator over the files, in name order.
+     */
+    @Override
+    public Iterator<Node> iterator() {
+        return cursor(0, 0);
+    }
+
+    @Override
+    public Iterator<Node> seek(long from) {
+        if (blockCount == 0) {
+            return cursor(0, 0);
+        }
+        int b = findBlock(from);
+        Block block = blocks[b];
+        int i = Arrays.binarySearch(block.keys, 0, block.size, from);
+        return cursor(b, i >= 0 ? i : -i - 1);
+    }
+
+    private Iterator<Node> cursor(final int startBlock, final int startIndex) {
+        return new Iterator<Node>() {
+            private int b = startBlock;
+            private int i = startIndex;
+
+            @Override
+            public boolean hasNext() {
+                while (b < blockCount && i >= blocks[b].size) {
+                    b++;
+                    i = 0;
+                }
+                return b < blockCount;
+            }
+
+            @Override
+            public Node next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return blocks[b].values[i++];
+            }
+        };
+    }
+
+    /**
+     * @return The index of the last block whose first name is not greater
+     * than the code, or 0 if there is none.
+     */
+    private int findBlock(long code) {
+        int i = Arrays.binarySearch(firsts, 0, blockCount, code);
+        if (i >= 0) {
+            return i;
+        }
+        return Math.max(-i - 2, 0);
+    }
+
+    private void insertBlock(int b, Block block) {
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+            firsts = Arrays.copyOf(firsts, blockCount * 2);
+        }
+        System.arraycopy(blocks, b, blocks, b + 1, blockCount - b);
+        System.arraycopy(firsts, b, firsts, b + 1, blockCount - b);
+        blocks[b] = block;
+        firsts[b] = block.size > 0 ? block.keys[0] : 0;
+        blockCount++;
+    }
+
+    private void removeBlock(int b) {
+        blockCount--;
+        System.arraycopy(blocks, b + 1, blocks, b, blockCount - b);
+        System.arraycopy(firsts, b + 1, firsts, b, blockCount - b);
+        blocks[blockCount] = null;
+    }
+
+    /**
+     * A leaf of the tree: a sorted run of packed names and their files.
+     */
+    private static final class Block implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final long[] keys = new long[BLOCK_SIZE];
+        private final Node[] values = new Node[BLOCK_SIZE];
+        private int size;
+
+        private void insert(int i, long code, Node unit) {
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(values, i, values, i + 1, size - i);
+            keys[i] = code;
+            values[i] = unit;
+            size++;
+        }
+
+        private Node remove(int i) {
+            Node removed = values[i];
+            size--;
+            System.arraycopy(keys, i + 1, keys, i, size - i);
+            System.arraycopy(values, i + 1, values, i, size - i);
+            values[size] = null;
+            return removed;
+        }
+
+        /**
+         * Move the upper half of this block into a new block.
+         */
+        private Block split() {
+            Block upper = new Block();
+            int half = size / 2;
+            upper.size = size - half;
+            System.arraycopy(keys, half, upper.keys, 0, upper.size);
+            System.arraycopy(values, half, upper.values, 0, upper.size);
+            Arrays.fill(values, half, size, null);
+            size = half;
+            return upper;
+        }
+
+        private void append(Block next) {
+            System.arraycopy(next.keys, 0, keys, size, next.size);
+            System.arraycopy(next.values, 0, values, size, next.size);
+            size += next.size;
+        }
+    }
+}
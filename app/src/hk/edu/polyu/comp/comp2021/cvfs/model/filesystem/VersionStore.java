@@ -0,0 +1,373 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Past states of the files on a disk, kept so that snapshots and readers
+ * can see the tree as it was at some epoch while it keeps changing.
+ * <p>
+ * Taking a snapshot only pins the current epoch and starts a new one, so it
+ * costs the same for any tree. The first time a file's name, size or
+ * catalog changes in a new epoch, the old value is saved first, tagged with
+ * the last epoch it was current in. A file that has not changed since an
+ * epoch is read live. Only the files changed while something is pinned have
+ * a history, and saved values no pinned epoch can see are dropped.
+ */
+final class VersionStore {
+
+    /**
+     * One saved value of a file: its name, its size or the files in it.
+     */
+    private static final class Version {
+        /**
+         * The last epoch in which the value was current.
+         */
+        final int epoch;
+        final long value;
+        final Node[] children;
+        Version older;
+
+        Version(int epoch, long value, Node[] children, Version older) {
+            this.epoch = epoch;
+            this.value = value;
+            this.children = children;
+            this.older = older;
+        }
+    }
+
+    /**
+     * The saved values of one file, newest first, and the epoch in which
+     * each kind was last saved.
+     */
+    private static final class History {
+        Version names;
+        Version sizes;
+        Version children;
+        int nameStamp;
+        int sizeStamp;
+        int childStamp;
+    }
+
+    private final Disk disk;
+
+    /**
+     * Held shared by every change to a concurrent disk and exclusively to
+     * start a new epoch, so that no change straddles two epochs.
+     */
+    private final ReentrantReadWriteLock epochLock;
+
+    private volatile int epoch;
+
+    /**
+     * True once a change has begun in the current epoch. Until then a new
+     * pin shares the last pinned epoch instead of starting another, so that
+     * readers arriving between two changes cost writers nothing extra.
+     */
+    private volatile boolean changed = true;
+    private volatile int pinCount;
+    private volatile int oldestPin = Integer.MAX_VALUE;
+
+    /**
+     * How many times each epoch is pinned.
+     */
+    private final TreeMap<Integer, Integer> pins = new TreeMap<>();
+
+    private final Map<Node, History> histories = new ConcurrentHashMap<>();
+
+    /**
+     * Documents released while something was pinned; their contents are
+     * freed once nothing is.
+     */
+    private final List<Node> retired = new ArrayList<>();
+
+    VersionStore(Disk disk, boolean concurrent) {
+        this.disk = disk;
+        this.epochLock = concurrent ? new ReentrantReadWriteLock() : null;
+    }
+
+    /**
+     * Pin the current state of the disk and start a new epoch, unless
+     * nothing has changed since the last one started.
+     *
+     * @return The pinned epoch.
+     */
+    int pin() {
+        if (epochLock != null) {
+            epochLock.writeLock().lock();
+        } else {
+            disk.flushSizes();
+        }
+        try {
+            synchronized (this) {
+                int pinned = epoch;
+                if (changed) {
+                    epoch = pinned + 1;
+                    changed = false;
+                } else {
+                    pinned--;
+                }
+                pins.merge(pinned, 1, Integer::sum);
+                oldestPin = pins.firstKey();
+                pinCount++;
+                return pinned;
+            }
+        } finally {
+            if (epochLock != null) {
+                epochLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Pin an epoch once more while it is already pinned, e.g. for a lazy
+     * copy handing its epoch on to the directories inside it.
+     *
+     * @param pinned An epoch returned by <code>pin</code> and still pinned.
+     */
+    synchronized void repin(int pinned) {
+        pins.merge(pinned, 1, Integer::sum);
+        pinCount++;
+    }
+
+    /**
+     * Give up a pin. Once nothing is pinned, every history is dropped and
+     * the retired documents are freed.
+     *
+     * @param pinned The epoch returned by <code>pin</code>.
+     */
+    void unpin(int pinned) {
+        List<Node> free = null;
+        if (epochLock != null) {
+            epochLock.writeLock().lock();
+        }
+        try {
+            synchronized (this) {
+                if (pins.merge(pinned, -1, Integer::sum) == 0) {
+                    pins.remove(pinned);
+                }
+                pinCount--;
+                if (pins.isEmpty()) {
+                    oldestPin = Integer.MAX_VALUE;
+                    histories.clear();
+                    free = new ArrayList<>(retired);
+                    retired.clear();
+                } else {
+                    oldestPin = pins.firstKey();
+                }
+            }
+        } finally {
+            if (epochLock != null) {
+                epochLock.writeLock().unlock();
+            }
+        }
+        if (free != null) {
+            for (Node unit : free) {
+                unit.release();
+            }
+        }
+    }
+
+    /**
+     * Hold off a new epoch while a change to a concurrent disk is made.
+     */
+    void beginChange() {
+        if (epochLock != null) {
+            epochLock.readLock().lock();
+        }
+        if (!changed) {
+            changed = true;
+        }
+    }
+
+    /**
+     * The counterpart of <code>beginChange</code>.
+     */
+    void endChange() {
+        if (epochLock != null) {
+            epochLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Keep a released document's content while something may still see it.
+     *
+     * @param unit The released document.
+     * @return True if the document has been retired rather than freed.
+     */
+    synchronized boolean retire(Node unit) {
+        if (pins.isEmpty()) {
+            return false;
+        }
+        retired.add(unit);
+        return true;
+    }
+
+    /**
+     * Save the name of a file before it changes.
+     *
+     * @param unit The file to be renamed.
+     */
+    void saveName(Node unit) {
+        if (pinCount == 0) {
+            return;
+        }
+        History history = histories.computeIfAbsent(unit, k -> new History());
+        synchronized (history) {
+            int current = epoch;
+            if (history.nameStamp != current) {
+                history.names = new Version(current - 1, unit.getNameCode(), null, prune(history.names));
+                history.nameStamp = current;
+            }
+        }
+    }
+
+    /**
+     * Save the size of a directory before it changes.
+     *
+     * @param dir The directory to be resized.
+     */
+    void saveSize(Directory dir) {
+        if (pinCount == 0) {
+            return;
+        }
+        History history = histories.computeIfAbsent(dir, k -> new History());
+        synchronized (history) {
+            int current = epoch;
+            if (history.sizeStamp != current) {
+                history.sizes = new Version(current - 1, liveSize(dir), null, prune(history.sizes));
+                history.sizeStamp = current;
+            }
+        }
+    }
+
+    /**
+     * Save the files in a directory before one is added, removed or
+     * renamed. The caller holds the directory's lock on a concurrent disk.
+     *
+     * @param dir The directory to be changed.
+     */
+    void saveChildren(Directory dir) {
+        if (pinCount == 0) {
+            return;
+        }
+        History history = histories.computeIfAbsent(dir, k -> new History());
+        synchronized (history) {
+            int current = epoch;
+            if (history.childStamp != current) {
+                history.children = new Version(current - 1, 0, copy(dir.getCatalog()), prune(history.children));
+                history.childStamp = current;
+            }
+        }
+    }
+
+    /**
+     * @param unit A file on the disk.
+     * @param pinned A pinned epoch.
+     * @return The packed name of the file at that epoch.
+     */
+    long nameAt(Node unit, int pinned) {
+        Version saved = find(unit, pinned, KIND_NAME);
+        if (saved != null) {
+            return saved.value;
+        }
+        long live = unit.getNameCode();
+        saved = find(unit, pinned, KIND_NAME);
+        return saved != null ? saved.value : live;
+    }
+
+    /**
+     * @param unit A file on the disk.
+     * @param pinned A pinned epoch.
+     * @return The size of the file at that epoch.
+     */
+    long sizeAt(Node unit, int pinned) {
+        if (!(unit instanceof Directory)) {
+            return unit.getSize();
+        }
+        Version saved = find(unit, pinned, KIND_SIZE);
+        if (saved != null) {
+            return saved.value;
+        }
+        long live = liveSize((Directory) unit);
+        saved = find(unit, pinned, KIND_SIZE);
+        return saved != null ? saved.value : live;
+    }
+
+    /**
+     * @param dir A directory on the disk.
+     * @param pinned A pinned epoch.
+     * @return The files in the directory at that epoch.
+     */
+    Node[] childrenAt(Directory dir, int pinned) {
+        Version saved = find(dir, pinned, KIND_CHILDREN);
+        if (saved != null) {
+            return saved.children;
+        }
+        Node[] live = dir.entries();
+        saved = find(dir, pinned, KIND_CHILDREN);
+        return saved != null ? saved.children : live;
+    }
+
+    /**
+     * @return The number of files with saved past states.
+     */
+    int historySize() {
+        return histories.size();
+    }
+
+    private static final int KIND_NAME = 0;
+    private static final int KIND_SIZE = 1;
+    private static final int KIND_CHILDREN = 2;
+
+    /**
+     * Find the oldest saved value still current at an epoch.
+     */
+    private Version find(Node unit, int pinned, int kind) {
+        History history = histories.get(unit);
+        if (history == null) {
+            return null;
+        }
+        Version found = null;
+        synchronized (history) {
+            Version saved = kind == KIND_NAME ? history.names
+                    : kind == KIND_SIZE ? history.sizes : history.children;
+            for (; saved != null && saved.epoch >= pinned; saved = saved.older) {
+                found = saved;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Drop the saved values no pinned epoch can see. Called with the
+     * history locked.
+     */
+    private Version prune(Version saved) {
+        if (saved == null || saved.epoch < oldestPin) {
+            return null;
+        }
+        Version last = saved;
+        while (last.older != null && last.older.epoch >= oldestPin) {
+            last = last.older;
+        }
+        last.older = null;
+        return saved;
+    }
+
+    private long liveSize(Directory dir) {
+        return dir == disk || disk.isConcurrent() ? dir.getSize() : dir.getLocalSize();
+    }
+
+    private static Node[] copy(Iterable<Node> units) {
+        List<Node> list = new ArrayList<>();
+        for (Node unit : units) {
+            list.add(unit);
+        }
+        return list.toArray(new Node[0]);
+    }
+}
@@ -1,6 +1,11 @@
 package hk.edu.polyu.comp.comp2021.cvfs.model.terminal;
 
-import java.util.Stack;
+import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Disk;
+import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Journal;
+import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Node;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 /**
  * Records user's operations and maintain undo/redo methods.
@@ -8,8 +13,17 @@ import java.util.Stack;
 public final class HistoryLogger {
 
     private static HistoryLogger historyLogger;
-    private final Stack<Tracelog> logger = new Stack<>();
-    private final Stack<Tracelog> rLogger = new Stack<>();
+    /**
+     * The logger of the session served by the current thread, if any.
+     */
+    private static final ThreadLocal<HistoryLogger> sessionLogger = new ThreadLocal<>();
+    /**
+     * The number of steps that can be undone. Older steps are dropped, and
+     * the files only they could bring back are released.
+     */
+    private static final int LIMIT = Integer.getInteger("cvfs.historyLimit", 1000);
+    private final Deque<Tracelog> logger = new ArrayDeque<>();
+    private final Deque<Tracelog> rLogger = new ArrayDeque<>();
 
     /**
      * Empty constructor.
@@ -18,9 +32,13 @@ public final class HistoryLogger {
     }
 
     /**
-     * @return the traceLogger with singleton guaranteed.
+     * @return the traceLogger of the current thread's session, or the
+     * singleton if there is none.
      */
     public static HistoryLogger getInstance() {
+        HistoryLogger session = sessionLogger.get();
+        if (session != null)
+            return session;
         if (historyLogger == null) {
             synchronized (HistoryLogger.class) {
                 if (historyLogger == null) {
@@ -31,6 +49,25 @@ public final class HistoryLogger {
         return historyLogger;
     }
 
+    /**
+     * Give the current thread a history of its own, so that the session it
+     * serves undoes and redoes only its own steps.
+     *
+     * @return the new logger, returned by getInstance() on this thread.
+     */
+    public static HistoryLogger openSession() {
+        HistoryLogger session = new HistoryLogger();
+        sessionLogger.set(session);
+        return session;
+    }
+
+    /**
+     * Drop the history of the current thread's session.
+     */
+    public static void closeSession() {
+        sessionLogger.remove();
+    }
+
     /**
      * Generate a new log and clear the redo logger
      *
@@ -38,8 +75,16 @@ public final class HistoryLogger {
      * @param args The arguments of the log.
      */
     public void newLog(OpType type, Object... args) {
-        rLogger.clear();
-        logger.push(new Tracelog(type, args));
+        Tracelog log = new Tracelog(type, args);
+        synchronized (this) {
+            for (Tracelog dropped : rLogger)
+                dropped.discard();
+            rLogger.clear();
+            logger.push(log);
+            trim();
+        }
+        // the log undoes the step; the step itself is its switched form
+        Journal.record(log.switchLog());
     }
 
     /**
@@ -47,7 +92,7 @@ public final class HistoryLogger {
      *
      * @return The latest piece of log
      */
-    public Tracelog getlog() {
+    public synchronized Tracelog getlog() {
         if (logger.isEmpty())
             throw new IllegalStateException("No more step can be undone.");
         Tracelog tmp = logger.pop();
@@ -58,14 +103,42 @@ public final class HistoryLogger {
     /**
      * @return The latest piece of redo log and push it into the logger.
      */
-    public Tracelog getRlog() {
+    public synchronized Tracelog getRlog() {
         if (rLogger.isEmpty())
             throw new IllegalStateException("No more step can be redone");
         Tracelog tmp = rLogger.pop();
         logger.push(tmp.switchLog());
+        trim();
         return tmp;
     }
 
+    /**
+     * Carry out a log taken by getlog() or getRlog(), so that the change
+     * reaches the journal of its disk before the files it changed can be
+     * changed again.
+     *
+     * @param log The log.
+     * @param step What carries it out.
+     */
+    public void apply(Tracelog log, Runnable step) {
+        Journal.apply(log, step);
+    }
+
+    /**
+     * @return The number of steps that can be undone.
+     */
+    public synchronized int size() {
+        return logger.size();
+    }
+
+    /**
+     * Drop the oldest steps beyond the limit.
+     */
+    private void trim() {
+        while (logger.size() > LIMIT)
+            logger.pollLast().discard();
+    }
+
     /**
      * Types of operations.
      */
@@ -82,6 +155,10 @@ public final class HistoryLogger {
          * Rename an object.
          */
         REN,
+        /**
+         * Move an object back to where it was.
+         */
+        MOV,
         /**
          * Change directory.
          */
@@ -132,6 +209,19 @@ public final class HistoryLogger {
             return type;
         }
 
+        /**
+         * Called when the log is dropped without being redone. A file that
+         * was only waiting to be added back, or a disk that was only
+         * waiting to be switched back to, can no longer be reached, so its
+         * off-heap storage is released.
+         */
+        public void discard() {
+            if (type == OpType.ADD && args[0] instanceof Node)
+                ((Node) args[0]).release();
+            else if (type == OpType.SD && args[0] instanceof Disk)
+                ((Disk) args[0]).release();
+        }
+
         /**
          * @return Switch the log between redo and undo.
          */
@@ -143,6 +233,8 @@ public final class HistoryLogger {
                     return new Tracelog(OpType.ADD, args);
                 case REN:
                     return new Tracelog(OpType.REN, args[0], args[2], args[1]);
+                case MOV:
+                    return new Tracelog(OpType.MOV, args[0], args[3], args[4], args[1], args[2]);
                 case CD:
                     return new Tracelog(OpType.CD, args[1], args[0], args[2]);
                 case SD:
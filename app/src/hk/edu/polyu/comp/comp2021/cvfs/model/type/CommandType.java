@@ -28,6 +28,22 @@ public enum CommandType {
      * [REQ5] rename: rename a file
      */
     rename,
+    /**
+     * move: move a file to another directory
+     */
+    move,
+    /**
+     * copy: copy a file to another directory
+     */
+    copy,
+    /**
+     * import: copy a directory tree of the host into the disk
+     */
+    importTree,
+    /**
+     * export: write a directory out to the host as a tree or a tar archive
+     */
+    export,
     /**
      * [REQ6] changeDir: change the working directory
      */
@@ -88,4 +104,24 @@ public enum CommandType {
      * [BON2] redo: redo the last undone operation
      */
     redo,
+    /**
+     * printStorage: print how document contents are stored
+     */
+    printStorage,
+    /**
+     * printLatency: print how long the commands of this session took
+     */
+    printLatency,
+    /**
+     * snapshot: take a named snapshot of the current disk
+     */
+    snapshot,
+    /**
+     * listSnapshots: list the snapshots of the current disk
+     */
+    listSnapshots,
+    /**
+     * checkout: switch to a new disk holding the files of a snapshot
+     */
+    checkout,
 }
@@ -0,0 +1,57 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.type;
+
+import java.util.Arrays;
+
+/**
+ * Options given to <code>newDisk</code> after the disk size.
+ */
+public enum DiskOption {
+    /**
+     * Keep every directory sorted by name.
+     */
+    SORTED("sorted"),
+    /**
+     * Keep the metadata of the files in a columnar store as well.
+     */
+    COLUMNAR("columnar"),
+    /**
+     * Allow the disk to be changed from several threads at once.
+     */
+    CONCURRENT("concurrent");
+
+    /**
+     * The text of the option.
+     */
+    private final String text;
+
+    /**
+     * Link the enum with the text.
+     */
+    DiskOption(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Parse the string and return a DiskOption. Return null if the string is
+     * invalid
+     *
+     * @param text The string to be parsed
+     * @return The DiskOption of the string.
+     */
+    public static DiskOption parse(String text) {
+        return Arrays.stream(values())
+                .filter(option -> option.text.equals(text))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Return the text form of the enum
+     *
+     * @return The text of the enum.
+     */
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,154 @@
+package hk.edu.polyu.comp.comp2021.cvfs.server;
+
+import hk.edu.polyu.comp.comp2021.cvfs.controller.CVFSController;
+import hk.edu.polyu.comp.comp2021.cvfs.controller.LatencyStats;
+import hk.edu.polyu.comp.comp2021.cvfs.model.CVFS;
+import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Disk;
+import hk.edu.polyu.comp.comp2021.cvfs.model.terminal.HistoryLogger;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DiskOption;
+import hk.edu.polyu.comp.comp2021.cvfs.view.ConsoleView;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.EnumSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serve CVFS sessions over a local TCP socket. Every connection is a session
+ * with its own working directory, criteria and undo history; all sessions
+ * start on one shared concurrent disk. Sessions run on virtual threads when
+ * the JVM has them, and on a cached pool of threads otherwise.
+ */
+public class CVFSServer {
+
+    private final int port;
+    private final Disk shared;
+    private final ExecutorService sessions = newSessionExecutor();
+    private final AtomicInteger lastSession = new AtomicInteger();
+    private final AtomicInteger openSessions = new AtomicInteger();
+    private final LatencyStats stats = new LatencyStats();
+    private ServerSocket socket;
+
+    /**
+     * Create a server.
+     *
+     * @param port The local port to listen on, 0 for any free port.
+     * @param diskSize The capacity of the shared disk.
+     */
+    public CVFSServer(int port, long diskSize) {
+        this.port = port;
+        this.shared = new Disk(diskSize, EnumSet.of(DiskOption.CONCURRENT));
+        shared.serve();
+    }
+
+    /**
+     * Listen on the port. The session output is installed here, so that
+     * nothing printed by a session reaches the server's own output.
+     *
+     * @return The port actually listened on.
+     * @throws IOException if the port cannot be bound
+     */
+    public int start() throws IOException {
+        SessionOutput.install();
+        socket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Accept sessions until the server is closed.
+     */
+    public void serve() {
+        while (!socket.isClosed()) {
+            try {
+                Socket client = socket.accept();
+                int id = lastSession.incrementAndGet();
+                sessions.execute(() -> runSession(id, client));
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    System.out.println("\033[91mError: " + e.getLocalizedMessage() + "\033[0m");
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop accepting sessions. Open sessions run until their clients quit.
+     *
+     * @throws IOException if the socket cannot be closed
+     */
+    public void close() throws IOException {
+        socket.close();
+        sessions.shutdown();
+    }
+
+    /**
+     * @return The disk all sessions start on.
+     */
+    public Disk getSharedDisk() {
+        return shared;
+    }
+
+    /**
+     * @return The latencies of the commands of all finished sessions.
+     */
+    public LatencyStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return The number of sessions currently open.
+     */
+    public int getOpenSessions() {
+        return openSessions.get();
+    }
+
+    /**
+     * Serve one connection on the current thread.
+     */
+    private void runSession(int id, Socket client) {
+        openSessions.incrementAndGet();
+        SessionOutput output = (SessionOutput) System.out;
+        CVFSController control = null;
+        try (Socket conn = client;
+             PrintStream out = new PrintStream(new BufferedOutputStream(conn.getOutputStream()), false, "UTF-8")) {
+            output.bind(out);
+            HistoryLogger.openSession();
+            CVFS cvfs = new CVFS();
+            cvfs.setDisk(shared);
+            ConsoleView view = new ConsoleView();
+            control = new CVFSController(cvfs, view, conn.getInputStream());
+            while (control.isRunning()) {
+                control.terminal();
+            }
+            out.flush();
+        } catch (IOException | NoSuchElementException e) {
+            // the client went away
+        } finally {
+            HistoryLogger.closeSession();
+            output.bind(null);
+            if (control != null) {
+                stats.merge(control.getStats());
+                System.out.println("Session " + id + " closed: " + control.getStats());
+            }
+            openSessions.decrementAndGet();
+        }
+    }
+
+    /**
+     * Use a virtual thread per session if the JVM supports it.
+     */
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package hk.edu.polyu.comp.comp2021.cvfs.server;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * A stand-in for <code>System.out</code> that sends what each thread prints
+ * to the stream of the session the thread serves. Threads serving no
+ * session print to the original standard output.
+ * <p>
+ * The common print methods are forwarded as a whole, so sessions do not
+ * contend on the lock of this stream; the rest reach the session's stream
+ * byte by byte.
+ */
+public final class SessionOutput extends PrintStream {
+
+    private static final ThreadLocal<PrintStream> target = new ThreadLocal<>();
+    private final PrintStream fallback;
+
+    /**
+     * Wrap the original standard output.
+     *
+     * @param fallback the stream for threads serving no session.
+     */
+    private SessionOutput(PrintStream fallback) {
+        super(new OutputStream() {
+            @Override
+            public void write(int b) {
+                route(fallback).write(b);
+            }
+
+            @Override
+            public void write(byte[] buf, int off, int len) {
+                route(fallback).write(buf, off, len);
+            }
+
+            @Override
+            public void flush() {
+                route(fallback).flush();
+            }
+        });
+        this.fallback = fallback;
+    }
+
+    /**
+     * Install a SessionOutput as <code>System.out</code> unless there is one.
+     *
+     * @return the installed SessionOutput.
+     */
+    public static synchronized SessionOutput install() {
+        if (System.out instanceof SessionOutput) {
+            return (SessionOutput) System.out;
+        }
+        SessionOutput output = new SessionOutput(System.out);
+        System.setOut(output);
+        return output;
+    }
+
+    /**
+     * Send what the current thread prints to a session's stream.
+     *
+     * @param stream the stream of the session, or null to stop.
+     */
+    public void bind(PrintStream stream) {
+        if (stream == null) {
+            target.remove();
+        } else {
+            target.set(stream);
+        }
+    }
+
+    private PrintStream target() {
+        return route(fallback);
+    }
+
+    private static PrintStream route(PrintStream fallback) {
+        PrintStream stream = target.get();
+        return stream == null ? fallback : stream;
+    }
+
+    @Override
+    public void write(int b) {
+        target().write(b);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+        target().write(buf, off, len);
+    }
+
+    @Override
+    public void flush() {
+        target().flush();
+    }
+
+    @Override
+    public boolean checkError() {
+        return target().checkError();
+    }
+
+    @Override
+    public void print(char c) {
+        target().print(c);
+    }
+
+    @Override
+    public void print(int i) {
+        target().print(i);
+    }
+
+    @Override
+    public void print(long l) {
+        target().print(l);
+    }
+
+    @Override
+    public void print(String s) {
+        target().print(s);
+    }
+
+    @Override
+    public void print(Object obj) {
+        target().print(obj);
+    }
+
+    @Override
+    public void println() {
+        target().println();
+    }
+
+    @Override
+    public void println(int x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(long x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(String x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(Object x) {
+        target().println(x);
+    }
+
+    @Override
+    public PrintStream printf(String format, Object... args) {
+        return target().printf(format, args);
+    }
+
+    @Override
+    public PrintStream format(String format, Object... args) {
+        return target().format(format, args);
+    }
+}
@@ -9,6 +9,11 @@ public class ConsoleView {
      */
     private String curPath;
 
+    /**
+     * The path the prompt was last built from.
+     */
+    private String dirPath;
+
     public void start() {
         System.out.println("\n"
                 + "██╗  ██╗███████╗██╗     ██╗      ██████╗         ██████╗██╗   ██╗███████╗███████╗\n"
@@ -27,12 +32,15 @@ public class ConsoleView {
      */
     public void updateDir(Directory cur) {
         if (cur == null) {
+            dirPath = null;
             curPath = "$ ";
             return;
         }
-        StringBuilder str = cur.getPath();
-        str.append("$ ");
-        curPath = str.toString();
+        String path = cur.getPath();
+        if (!path.equals(dirPath)) {
+            dirPath = path;
+            curPath = path + "$ ";
+        }
     }
 
     /**
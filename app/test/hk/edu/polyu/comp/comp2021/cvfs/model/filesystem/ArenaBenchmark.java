@@ -0,0 +1,100 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how loads from the content arena hold up as threads are added,
+ * with and without a thread storing and freeing contents at the same time.
+ * Not part of the test suite; run it by hand, e.g.
+ * <code>java ...ArenaBenchmark</code>.
+ * <p>
+ * The readers load random contents of 16 to 1024 chars, a mix of the sizes
+ * documents are edited at, all below the compression threshold. The writer,
+ * when there is one, keeps replacing contents of the same sizes, which is
+ * what saving documents on a shared disk does to the arena.
+ */
+public class ArenaBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8};
+    private static final int CONTENTS = 4096;
+    private static final int MILLIS = 1000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+        ContentArena arena = ContentArena.getInstance();
+        String[] texts = new String[CONTENTS];
+        long[] handles = new long[CONTENTS];
+        Random random = new Random(42);
+        for (int i = 0; i < CONTENTS; i++) {
+            texts[i] = text(random, i);
+            handles[i] = arena.store(texts[i]);
+        }
+        System.out.printf("%8s %16s %16s%n", "threads", "loads/ms", "loads/ms +writer");
+        for (int threads : THREADS) {
+            double alone = 0;
+            double contended = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                alone = run(arena, texts, handles, threads, false);
+                contended = run(arena, texts, handles, threads, true);
+            }
+            System.out.printf("%8d %16.0f %16.0f%n", threads, alone, contended);
+        }
+    }
+
+    private static double run(ContentArena arena, String[] texts, long[] handles, int threads, boolean writer)
+            throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder loads = new LongAdder();
+        Thread[] readers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            readers[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                long done = 0;
+                while (!stop.get()) {
+                    int i = random.nextInt(CONTENTS);
+                    if (arena.load(handles[i], texts[i].length()).length() != texts[i].length()) {
+                        throw new AssertionError("wrong content");
+                    }
+                    done++;
+                }
+                loads.add(done);
+            });
+        }
+        Thread churn = new Thread(() -> {
+            Random random = new Random(-1);
+            int n = 0;
+            while (!stop.get()) {
+                // readers never touch these, so freeing them is safe
+                String text = text(random, CONTENTS + n++);
+                arena.free(arena.store(text), text.length());
+            }
+        });
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        if (writer) {
+            churn.start();
+        }
+        Thread.sleep(MILLIS);
+        stop.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (writer) {
+            churn.join();
+        }
+        return loads.sum() / (double) MILLIS;
+    }
+
+    private static String text(Random random, int i) {
+        char[] chars = new char[16 + random.nextInt(1009)];
+        for (int c = 0; c < chars.length; c++) {
+            chars[c] = (char) ('a' + random.nextInt(26));
+        }
+        // unique, so nothing is shared
+        return i + ":" + new String(chars);
+    }
+}
@@ -0,0 +1,148 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares directory catalogs with the <code>HashMap</code> from names to
+ * files they replaced, in retained memory per file and in lookup time. Not
+ * part of the test suite; run it by hand with a fixed heap, e.g.
+ * <code>java -Xms3g -Xmx3g ...CatalogBenchmark</code>.
+ * <p>
+ * Memory is measured over enough directories of each size to hold about
+ * two million files, so the fixed cost of each directory is included. The
+ * name strings the map is keyed on are shared by all maps and not counted,
+ * as they were held by the files anyway before names were packed.
+ * Lookups are by name string for both, in random order, with fresh strings
+ * so that neither side reuses a cached hash.
+ */
+public class CatalogBenchmark {
+
+    private static final int[] SIZES = {4, 8, 64, 1024, 65536, 262144};
+    private static final int FILES = 1 << 21;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        System.out.printf("%8s %12s %12s %12s %12s%n", "files", "map B/file", "cat B/file", "map ns/get", "cat ns/get");
+        for (int size : SIZES) {
+            Node[] units = units(size);
+            String[] keys = new String[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = units[i].getName();
+            }
+            int dirs = Math.max(1, FILES / size);
+            double mapBytes = perFile(() -> {
+                Object[] all = new Object[dirs];
+                for (int d = 0; d < dirs; d++) {
+                    all[d] = map(units, keys);
+                }
+                return all;
+            }, dirs * size);
+            double catalogBytes = perFile(() -> {
+                Object[] all = new Object[dirs];
+                for (int d = 0; d < dirs; d++) {
+                    all[d] = catalog(units);
+                }
+                return all;
+            }, dirs * size);
+            Map<String, Node> map = map(units, keys);
+            Catalog catalog = catalog(units);
+            String[] names = shuffledNames(units, 1 << 20);
+            double mapNs = 0;
+            double catalogNs = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                String[] fresh = copies(names);
+                long start = System.nanoTime();
+                int found = 0;
+                for (String name : fresh) {
+                    found += map.get(name) != null ? 1 : 0;
+                }
+                mapNs = (System.nanoTime() - start) / (double) names.length;
+                fresh = copies(names);
+                start = System.nanoTime();
+                for (String name : fresh) {
+                    found += catalog.get(name) != null ? 1 : 0;
+                }
+                catalogNs = (System.nanoTime() - start) / (double) names.length;
+                if (found != 2 * names.length) {
+                    throw new AssertionError("missing files");
+                }
+            }
+            System.out.printf("%8d %12.1f %12.1f %12.1f %12.1f%n", size, mapBytes, catalogBytes, mapNs, catalogNs);
+        }
+    }
+
+    private interface Build {
+        Object build();
+    }
+
+    private static double perFile(Build build, int files) {
+        long before = usedHeap();
+        Object kept = build.build();
+        long after = usedHeap();
+        if (kept.hashCode() == 0) {
+            System.out.print("");
+        }
+        return (after - before) / (double) files;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Map<String, Node> map(Node[] units, String[] keys) {
+        Map<String, Node> map = new HashMap<>();
+        for (int i = 0; i < units.length; i++) {
+            map.put(keys[i], units[i]);
+        }
+        return map;
+    }
+
+    private static Catalog catalog(Node[] units) {
+        Catalog catalog = new ArrayCatalog();
+        for (Node unit : units) {
+            catalog.put(unit);
+            catalog = catalog.resized(false);
+        }
+        return catalog;
+    }
+
+    private static String[] shuffledNames(Node[] units, int count) {
+        Random random = new Random(1);
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = units[random.nextInt(units.length)].getName();
+        }
+        return names;
+    }
+
+    private static String[] copies(String[] names) {
+        String[] fresh = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            fresh[i] = new String(names[i].toCharArray());
+        }
+        return fresh;
+    }
+
+    private static Node[] units(int size) {
+        Node[] units = new Node[size];
+        for (int i = 0; i < size; i++) {
+            units[i] = new Node("f" + Integer.toString(i, 36)) {
+                @Override
+                public Node getParent() {
+                    return null;
+                }
+
+                @Override
+                public void setParent(Node newParent) {
+                }
+            };
+        }
+        return units;
+    }
+}
@@ -0,0 +1,133 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CatalogTest {
+
+    private static final String SYMBOLS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    @Test
+    public void testNameCodecRoundTrip() {
+        for (String name : new String[]{"0", "a", "Z", "Disk", "abcdefghij", "zzzzzzzzzz"}) {
+            assertEquals(name, NameCodec.decode(NameCodec.encode(name)));
+        }
+        assertEquals(0, NameCodec.tryEncode("bad_name"));
+        assertEquals(0, NameCodec.tryEncode("tooLongName1"));
+        assertTrue(NameCodec.encode("ab") < NameCodec.encode("abc"));
+        assertTrue(NameCodec.encode("Zz") < NameCodec.encode("a"));
+    }
+
+    @Test
+    public void testArrayCatalog() {
+        check(new ArrayCatalog(), 2);
+    }
+
+    @Test
+    public void testHashCatalog() {
+        check(new HashCatalog(0), 2);
+    }
+
+    @Test
+    public void testShardedCatalog() {
+        check(new ShardedCatalog(), 3);
+    }
+
+    @Test
+    public void testSortedCatalog() {
+        check(new SortedCatalog(), 3);
+    }
+
+    @Test
+    public void testOrderedRangeAndSeek() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        OrderedCatalog catalog = new SortedCatalog();
+        TreeMap<String, Node> expected = new TreeMap<>();
+        for (int i = 0; i < 5000; i++) {
+            Node unit = new Directory("f" + Integer.toString(i, 36), disk);
+            catalog.put(unit);
+            expected.put(unit.getName(), unit);
+        }
+        Iterator<Node> all = catalog.iterator();
+        for (Node unit : expected.values()) {
+            assertSame(unit, all.next());
+        }
+        assertFalse(all.hasNext());
+
+        Iterator<Node> matches = catalog.prefix("f1a");
+        for (Node unit : expected.subMap("f1a", "f1b").values()) {
+            assertSame(unit, matches.next());
+        }
+        assertFalse(matches.hasNext());
+
+        Iterator<Node> cursor = catalog.seek(NameCodec.encode("f3"));
+        assertSame(expected.ceilingEntry("f3").getValue(), cursor.next());
+    }
+
+    @Test
+    public void testDirectorySwitchesCatalog() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        assertTrue(disk.getCatalog() instanceof ArrayCatalog);
+        for (int i = 0; i <= ArrayCatalog.MAX_SIZE; i++) {
+            disk.newDir("d" + i);
+        }
+        assertTrue(disk.getCatalog() instanceof HashCatalog);
+        for (int i = 0; i <= ArrayCatalog.MAX_SIZE; i++) {
+            disk.delete("d" + i);
+        }
+        assertTrue(disk.getCatalog() instanceof ArrayCatalog);
+        assertTrue(disk.getCatalog().isEmpty());
+    }
+
+    /**
+     * Run random puts and removes against a HashMap.
+     */
+    private static void check(Catalog catalog, int nameLength) {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Map<String, Node> expected = new HashMap<>();
+        Random random = new Random(2021);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int j = 0; j < nameLength; j++) {
+                name.append(SYMBOLS.charAt(random.nextInt(SYMBOLS.length())));
+            }
+            String key = name.toString();
+            if (random.nextInt(3) > 0) {
+                Node unit = new Directory(key, disk);
+                catalog.put(unit);
+                expected.put(key, unit);
+            } else {
+                assertSame(expected.remove(key), catalog.remove(NameCodec.encode(key)));
+            }
+            assertEquals(expected.size(), catalog.size());
+        }
+        for (Map.Entry<String, Node> entry : expected.entrySet()) {
+            assertSame(entry.getValue(), catalog.get(entry.getKey()));
+        }
+        int count = 0;
+        for (Node unit : catalog) {
+            assertSame(expected.get(unit.getName()), unit);
+            count++;
+        }
+        assertEquals(expected.size(), count);
+        assertNull(catalog.get("missing"));
+        if (catalog instanceof OrderedCatalog) {
+            long last = 0;
+            for (Node unit : catalog) {
+                assertTrue(unit.getNameCode() > last);
+                last = unit.getNameCode();
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.criteria.BinaryCriterion;
+import hk.edu.polyu.comp.comp2021.cvfs.model.criteria.Criterion;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DiskOption;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColumnStoreTest {
+
+    @Test
+    public void testSearchMatchesTree() {
+        Disk disk = new Disk(Integer.MAX_VALUE, EnumSet.of(DiskOption.COLUMNAR));
+        List<Directory> dirs = new ArrayList<>();
+        dirs.add(disk);
+        Random random = new Random(2021);
+        for (int i = 0; i < 3000; i++) {
+            Directory dir = dirs.get(random.nextInt(dirs.size()));
+            if (disk.getNode(dir.getInode()) != dir) {
+                continue;
+            }
+            String name = "n" + i;
+            switch (random.nextInt(5)) {
+                case 0:
+                    dirs.add(dir.newDir(name));
+                    break;
+                case 1:
+                    if (!dir.getCatalog().isEmpty()) {
+                        dir.delete(dir.getCatalog().iterator().next().getName());
+                    }
+                    break;
+                case 2:
+                    if (!dir.getCatalog().isEmpty()) {
+                        dir.rename(dir.getCatalog().iterator().next().getName(), "r" + i);
+                    }
+                    break;
+                default:
+                    DocumentType type = DocumentType.values()[random.nextInt(4)];
+                    dir.newDoc(name, type, repeat(random.nextInt(50)));
+            }
+        }
+
+        Criterion big = new Criterion("aa", "size", ">", "200");
+        Criterion named = new Criterion("bb", "name", "contains", "\"1\"");
+        Criterion css = new Criterion("cc", "type", "equals", "\"css\"");
+        Criterion[] criteria = {
+                big, named, css, Criterion.getIsDocument(),
+                new BinaryCriterion("dd", big, "&&", named.getNegCri("ee")),
+                new BinaryCriterion("ff", css, "||", named)
+        };
+        for (Criterion criterion : criteria) {
+            for (Directory dir : new Directory[]{disk, dirs.get(dirs.size() / 2)}) {
+                if (disk.getNode(dir.getInode()) != dir) {
+                    continue;
+                }
+                Set<Node> expected = new HashSet<>();
+                collect(dir, criterion, expected);
+                List<Node> found = disk.search(dir, criterion);
+                assertEquals(expected.size(), found.size());
+                assertEquals(expected, new HashSet<>(found));
+            }
+        }
+    }
+
+    private static void collect(Directory dir, Criterion criterion, Set<Node> result) {
+        for (Node unit : dir.getCatalog()) {
+            if (criterion.check(unit)) {
+                result.add(unit);
+            }
+            if (unit instanceof Directory) {
+                collect((Directory) unit, criterion, result);
+            }
+        }
+    }
+
+    private static String repeat(int count) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            content.append('x');
+        }
+        return content.toString();
+    }
+}
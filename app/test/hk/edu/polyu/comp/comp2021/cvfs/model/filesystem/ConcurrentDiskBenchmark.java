@@ -0,0 +1,75 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DiskOption;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+
+import java.util.EnumSet;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures how creating and deleting documents on a concurrent disk scales
+ * with the number of threads. Not part of the test suite; run it by hand,
+ * e.g. <code>java ...ConcurrentDiskBenchmark</code>.
+ * <p>
+ * Each thread runs the mix of <code>ConcurrentDiskTest.testStress</code>:
+ * every other document goes into a directory of its own and the rest into
+ * one shared by all threads, and one in four is deleted again. Every round
+ * uses a fresh disk, and the best of the rounds after a warm-up is
+ * reported.
+ */
+public class ConcurrentDiskBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8};
+    private static final int OPS = 50000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws InterruptedException {
+        // warm up the JIT on every thread count before anything is measured
+        for (int threads : THREADS) {
+            run(threads);
+        }
+        System.out.printf("%8s %12s%n", "threads", "ops/ms");
+        for (int threads : THREADS) {
+            double best = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                best = Math.max(best, run(threads));
+            }
+            System.out.printf("%8d %12.0f%n", threads, best);
+        }
+    }
+
+    private static double run(int threads) throws InterruptedException {
+        Disk disk = new Disk(Long.MAX_VALUE, EnumSet.of(DiskOption.CONCURRENT));
+        Directory shared = disk.newDir("shared");
+        CountDownLatch ready = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Directory own = shared.newDir("t" + id);
+            workers[t] = new Thread(() -> {
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < OPS; i++) {
+                    Directory dir = i % 2 == 0 ? own : shared;
+                    String name = "t" + id + "d" + i;
+                    dir.newDoc(name, DocumentType.TXT, "content");
+                    if (i % 4 == 1) {
+                        dir.delete(name);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        long start = System.nanoTime();
+        ready.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long nanos = System.nanoTime() - start;
+        // a create and a quarter of a delete per step
+        return threads * OPS * 1.25 * 1e6 / nanos;
+    }
+}
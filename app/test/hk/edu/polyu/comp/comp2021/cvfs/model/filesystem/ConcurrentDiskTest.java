@@ -0,0 +1,201 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DiskOption;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentDiskTest {
+
+    private static final int OPS = 20000;
+    private static final int DEPTH = 20000;
+
+    @Test
+    public void testStress() throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= Math.max(4, cores); threads *= 2) {
+            Disk disk = new Disk(Integer.MAX_VALUE, EnumSet.of(DiskOption.CONCURRENT));
+            Directory shared = disk.newDir("shared");
+            run(threads, id -> {
+                Directory own = shared.newDir("t" + id);
+                for (int i = 0; i < OPS; i++) {
+                    Directory dir = i % 2 == 0 ? own : shared;
+                    String name = "t" + id + "d" + i;
+                    dir.newDoc(name, DocumentType.TXT, "content");
+                    if (i % 4 == 1) {
+                        dir.delete(name);
+                    }
+                }
+            });
+
+            disk.flushSizes();
+            assertEquals(sumOf(disk), disk.getSize());
+            assertEquals(sumOf(shared), shared.getSize());
+            int docSize = Node.SIZE_PREFIX + "content".length() * 2;
+            int expected = Node.SIZE_PREFIX + threads * (Node.SIZE_PREFIX + OPS * 3 / 4 * docSize);
+            assertEquals(expected, disk.getSize());
+        }
+    }
+
+    @Test
+    public void testCapacityIsExact() throws InterruptedException {
+        int docSize = Node.SIZE_PREFIX + 2;
+        Disk disk = new Disk(1000 * docSize, EnumSet.of(DiskOption.CONCURRENT));
+        AtomicInteger created = new AtomicInteger();
+        run(8, id -> {
+            for (int i = 0; i < 500; i++) {
+                try {
+                    disk.newDoc("t" + id + "d" + i, DocumentType.TXT, "x");
+                    created.incrementAndGet();
+                } catch (IllegalStateException e) {
+                    // the disk is full
+                }
+            }
+        });
+        assertEquals(1000, created.get());
+        assertEquals(disk.getCapacity(), disk.getSize());
+        assertEquals(1000, disk.getCatalog().size());
+        for (Node unit : disk.getCatalog()) {
+            assertSame(unit, disk.getNode(unit.getInode()));
+            assertSame(unit, disk.lookup(unit.getPath()));
+        }
+    }
+
+    @Test
+    public void testReadersSeeConsistentViews() throws InterruptedException {
+        Disk disk = new Disk(Integer.MAX_VALUE, EnumSet.of(DiskOption.CONCURRENT));
+        Directory[] dirs = new Directory[8];
+        Directory dir = disk;
+        for (int i = 0; i < dirs.length; i++) {
+            dir = dirs[i] = dir.newDir("d" + i);
+        }
+        AtomicInteger views = new AtomicInteger();
+        AtomicInteger writing = new AtomicInteger(1);
+        int readers = Math.max(3, Runtime.getRuntime().availableProcessors() - 1);
+        run(readers + 1, id -> {
+            if (id == 0) {
+                for (int i = 0; i < OPS; i++) {
+                    Directory target = dirs[i % dirs.length];
+                    target.newDoc("f" + i, DocumentType.TXT, "content");
+                    if (i % 3 != 0) {
+                        target.rename("f" + i, "g" + i);
+                        target.delete("g" + i);
+                    }
+                }
+                writing.set(0);
+                return;
+            }
+            do {
+                try (ReadView view = disk.openView()) {
+                    assertEquals(view.size(disk), sumOf(view, disk));
+                }
+                views.incrementAndGet();
+            } while (writing.get() == 1);
+        });
+        assertTrue(views.get() >= readers);
+        assertEquals(0, disk.versions().historySize());
+        try (ReadView view = disk.openView()) {
+            assertEquals(disk.getSize(), sumOf(view, disk));
+        }
+    }
+
+    @Test
+    public void testDeepTreeIsFoldedAndReopened() throws IOException {
+        Path dir = Files.createTempDirectory("cvfs-deep");
+        Path image = dir.resolve("d.cvfs");
+        Path log = dir.resolve("d.journal");
+        Disk disk = new Disk(Integer.MAX_VALUE, EnumSet.of(DiskOption.CONCURRENT));
+        Directory deep = disk;
+        for (int i = 0; i < DEPTH; i++) {
+            deep = deep.newDir("d" + i);
+        }
+        deep.newDoc("f", DocumentType.TXT, "bottom");
+        long expected = DEPTH * (long) Node.SIZE_PREFIX + Node.SIZE_PREFIX + "bottom".length() * 2;
+        disk.flushSizes();
+        assertEquals(expected, disk.getSize());
+        assertEquals(expected, ((Directory) disk.getCatalog().get("d0")).getSize());
+
+        Journal.create(disk, log, image);
+        try (OutputStream out = Files.newOutputStream(image)) {
+            DiskImage.write(disk, out);
+        }
+        deep.newDoc("g", DocumentType.TXT, "later");
+        Journal.detach(disk);
+        Disk loaded = DiskImage.open(image, false);
+        assertEquals(1, Journal.open(loaded, log, image).getReplayed());
+        assertEquals(expected + Node.SIZE_PREFIX + "later".length() * 2, loaded.getSize());
+        Journal.detach(loaded);
+    }
+
+    private interface Job {
+        void run(int id);
+    }
+
+    private static void run(int threads, Job job) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    ready.await();
+                    job.run(id);
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        ready.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (!errors.isEmpty()) {
+            throw new AssertionError(errors.get(0));
+        }
+    }
+
+    /**
+     * Add up the sizes of the files in a directory from scratch.
+     */
+    private static int sumOf(Directory dir) {
+        int size = dir instanceof Disk ? 0 : Node.SIZE_PREFIX;
+        for (Node unit : dir.getCatalog()) {
+            size += unit instanceof Directory ? sumOf((Directory) unit) : unit.getSize();
+        }
+        return size;
+    }
+
+    /**
+     * Add up the sizes of the files in a directory as they are in a view,
+     * checking every directory on the way.
+     */
+    private static int sumOf(ReadView view, Directory dir) {
+        int size = dir instanceof Disk ? 0 : Node.SIZE_PREFIX;
+        for (Node unit : view.children(dir)) {
+            if (unit instanceof Directory) {
+                int sum = sumOf(view, (Directory) unit);
+                assertEquals(view.size(unit), sum);
+            }
+            size += view.size(unit);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,178 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class ContentArenaTest {
+
+    @Test
+    public void testStoreAndFree() {
+        ContentArena arena = ContentArena.getInstance();
+        long used = arena.getUsedBytes();
+        String text = "stored off the heap \u4e2d\u6587 \ud83d\ude00 " + System.nanoTime();
+        long handle = arena.store(text);
+        assertEquals(text, arena.load(handle, text.length()));
+        assertEquals(text.length() * 2, arena.physicalSize(handle, text.length()));
+        assertEquals(used + text.length() * 2, arena.getUsedBytes());
+        arena.free(handle, text.length());
+        assertEquals(used, arena.getUsedBytes());
+
+        assertEquals(ContentArena.EMPTY, arena.store(""));
+        assertEquals("", arena.load(ContentArena.EMPTY, 0));
+        assertEquals(0, arena.physicalSize(ContentArena.EMPTY, 0));
+        arena.free(ContentArena.EMPTY, 0);
+        assertEquals(used, arena.getUsedBytes());
+    }
+
+    @Test
+    public void testEqualContentsShareOneCopy() {
+        ContentArena arena = ContentArena.getInstance();
+        long used = arena.getUsedBytes();
+        long hits = arena.getSharedHits();
+        String text = "shared " + System.nanoTime();
+        long first = arena.store(text);
+        long second = arena.store(new String(text.toCharArray()));
+        assertEquals(first, second);
+        assertEquals(hits + 1, arena.getSharedHits());
+        assertEquals(used + text.length() * 2, arena.getUsedBytes());
+        assertEquals(first, arena.share(first, text.length()));
+
+        // the copy stays until its last reference goes
+        arena.free(first, text.length());
+        arena.free(first, text.length());
+        assertEquals(text, arena.load(first, text.length()));
+        assertEquals(used + text.length() * 2, arena.getUsedBytes());
+        arena.free(first, text.length());
+        assertEquals(used, arena.getUsedBytes());
+
+        // a different content of the same length gets a copy of its own
+        long other = arena.store(text.replace('s', 'S'));
+        long again = arena.store(text);
+        assertNotEquals(other, again);
+        assertEquals(text, arena.load(again, text.length()));
+        arena.free(other, text.length());
+        arena.free(again, text.length());
+        assertEquals(used, arena.getUsedBytes());
+    }
+
+    @Test
+    public void testCopiedDocumentsShareContent() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Directory a = disk.newDir("a");
+        String text = "copied " + System.nanoTime();
+        Document doc = a.newDoc("d", DocumentType.TXT, text);
+        Document copy = (Document) ((Directory) disk.copy("a", disk, "b")).getCatalog().get("d");
+        assertNotSame(doc, copy);
+        assertEquals(doc.getContentHandle(), copy.getContentHandle());
+        disk.detach(a);
+        doc.release();
+        assertEquals(text, copy.getContent());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleasedDocumentHasNoContent() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Document doc = disk.newDoc("d", DocumentType.TXT, "gone " + System.nanoTime());
+        disk.detach(doc);
+        doc.release();
+        assertEquals(0, doc.getStoredSize());
+        doc.getContent();
+    }
+
+    @Test
+    public void testFreedSpaceIsReused() {
+        ContentArena arena = ContentArena.getInstance();
+        Random random = new Random(2021);
+        int segments = arena.getSegments();
+        List<String> kept = new ArrayList<>();
+        List<Long> keptHandles = new ArrayList<>();
+        // each round stores about 2 MB and keeps one small content of it,
+        // which used to pin a whole segment
+        for (int round = 0; round < 50; round++) {
+            List<String> texts = new ArrayList<>();
+            List<Long> handles = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                String text = text(random, round + "." + i + ":", 100 + random.nextInt(1500));
+                texts.add(text);
+                handles.add(arena.store(text));
+            }
+            int keep = random.nextInt(texts.size());
+            for (int i = 0; i < texts.size(); i++) {
+                if (i == keep) {
+                    kept.add(texts.get(i));
+                    keptHandles.add(handles.get(i));
+                } else {
+                    arena.free(handles.get(i), texts.get(i).length());
+                }
+            }
+            assertTrue(arena.getSegments() <= segments + 4);
+        }
+        for (int i = 0; i < kept.size(); i++) {
+            assertEquals(kept.get(i), arena.load(keptHandles.get(i), kept.get(i).length()));
+            arena.free(keptHandles.get(i), kept.get(i).length());
+        }
+        assertTrue(arena.getSegments() <= segments + 1);
+    }
+
+    @Test
+    public void testLargeContentsAreCompressed() {
+        ContentArena arena = ContentArena.getInstance();
+        long used = arena.getUsedBytes();
+        long compressed = arena.getCompressedBytes();
+        StringBuilder repetitive = new StringBuilder(System.nanoTime() + "\n");
+        while (repetitive.length() * 2 < 4 * arena.getCompressionThreshold()) {
+            repetitive.append("class F { int x = 1; } // \u4e2d\u6587 \ud83d\ude00\n");
+        }
+        String text = repetitive.toString();
+        long handle = arena.store(text);
+        int size = arena.physicalSize(handle, text.length());
+        assertTrue(size < text.length() / 4);
+        assertEquals(used + size, arena.getUsedBytes());
+        assertEquals(compressed + text.length() * 2, arena.getCompressedBytes());
+        assertEquals(text, arena.load(handle, text.length()));
+
+        // random text deflates little, and never takes more than its size
+        String noise = text(new Random(9), "", arena.getCompressionThreshold());
+        noise = noise.replace('a', '\u4e2d').replace('b', '\u00e9');
+        long raw = arena.store(noise);
+        assertTrue(arena.physicalSize(raw, noise.length()) <= noise.length() * 2);
+        assertEquals(text, arena.load(handle, text.length()));
+        assertEquals(noise, arena.load(raw, noise.length()));
+        arena.free(handle, text.length());
+        arena.free(raw, noise.length());
+        assertEquals(used, arena.getUsedBytes());
+        assertEquals(compressed, arena.getCompressedBytes());
+    }
+
+    @Test
+    public void testMeasureDeepDisk() {
+        Disk disk = new Disk(Long.MAX_VALUE);
+        Directory dir = disk;
+        for (int i = 0; i < 20000; i++) {
+            dir = dir.newDir("d" + i);
+            if (i % 1000 == 0) {
+                dir.newDoc("f", DocumentType.TXT, "same");
+            }
+        }
+        // twenty documents sharing one copy of eight bytes
+        assertArrayEquals(new long[]{20, 160, 8}, disk.measureContents());
+    }
+
+    private static String text(Random random, String prefix, int length) {
+        StringBuilder text = new StringBuilder(prefix);
+        while (text.length() < length) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+}
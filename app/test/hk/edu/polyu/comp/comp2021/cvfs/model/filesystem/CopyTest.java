@@ -0,0 +1,99 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CopyTest {
+
+    @Test
+    public void testCopyIsLazyAndIndependent() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Directory project = disk.newDir("project");
+        for (int i = 0; i < 200; i++) {
+            Directory dir = project.newDir("s" + i);
+            for (int j = 0; j < 500; j++) {
+                dir.newDoc("f" + j, DocumentType.JAVA, "class F" + j + " {}");
+            }
+        }
+        String before = dump(project);
+        long size = project.getSize();
+        long used = disk.getSize();
+
+        Directory copy = (Directory) disk.copy("project", disk, "clone");
+        assertEquals(size, copy.getSize());
+        assertEquals(used + size, disk.getSize());
+
+        ((Directory) project.getCatalog().get("s0")).delete("f0");
+        ((Directory) project.getCatalog().get("s1")).newDoc("extra", DocumentType.TXT, "x");
+        project.rename("s2", "renamed");
+        assertEquals(before, dump(copy));
+
+        Directory s3 = (Directory) disk.lookup("Disk:clone:s3");
+        s3.delete("f1");
+        assertNull(disk.lookup("Disk:clone:s3:f1"));
+        assertNotNull(disk.lookup("Disk:project:s3:f1"));
+        assertEquals("class F1 {}", ((Document) disk.lookup("Disk:project:s3:f1")).getContent());
+    }
+
+    @Test
+    public void testReleaseAndSave() throws Exception {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Directory a = disk.newDir("a");
+        a.newDir("b").newDoc("c", DocumentType.TXT, "content");
+        Directory copy = (Directory) disk.copy("a", disk, "d");
+        a.delete("b");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(disk);
+        }
+        Disk loaded;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            loaded = (Disk) in.readObject();
+        }
+        assertEquals("content", ((Document) loaded.lookup("Disk:d:b:c")).getContent());
+        assertEquals(disk.getSize(), loaded.getSize());
+
+        Directory other = (Directory) disk.copy("d", disk, "e");
+        disk.delete("e");
+        other.release();
+        disk.delete("d");
+        copy.release();
+        assertEquals(0, disk.versions().historySize());
+    }
+
+    /**
+     * Describe every file in a directory by its path below it.
+     */
+    private static String dump(Directory dir) {
+        List<String> lines = new ArrayList<>();
+        dump(dir, "", lines);
+        Collections.sort(lines);
+        return dir.getSize() + "\n" + String.join("\n", lines);
+    }
+
+    private static void dump(Directory dir, String prefix, List<String> lines) {
+        for (Node unit : dir.getCatalog()) {
+            String path = prefix + ":" + unit.getName();
+            String line = path + " " + unit.getSize();
+            if (unit instanceof Document) {
+                line += " " + ((Document) unit).getContent();
+            } else {
+                dump((Directory) unit, path, lines);
+            }
+            lines.add(line);
+        }
+    }
+}
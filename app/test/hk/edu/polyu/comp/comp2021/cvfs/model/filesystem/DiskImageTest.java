@@ -0,0 +1,153 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.criteria.Criterion;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DiskOption;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DiskImageTest {
+
+    @Test
+    public void testRoundTripAgainstSerialization() throws Exception {
+        Disk disk = new Disk(Long.MAX_VALUE, EnumSet.of(DiskOption.SORTED));
+        for (int i = 0; i < 200; i++) {
+            Directory dir = disk.newDir("s" + i);
+            for (int j = 0; j < 500; j++) {
+                dir.newDoc("f" + j, DocumentType.values()[j % 4], "class F" + j + " { int x = " + i * j + "; }");
+            }
+        }
+        disk.newDir("empty");
+        String before = dump(disk);
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            ByteArrayOutputStream image = new ByteArrayOutputStream();
+            DiskImage.write(disk, image);
+            long written = System.nanoTime();
+            Disk loaded = DiskImage.read(new ByteArrayInputStream(image.toByteArray()));
+            long read = System.nanoTime();
+
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+                out.writeObject(disk);
+            }
+            long saved = System.nanoTime();
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized.toByteArray()))) {
+                in.readObject();
+            }
+            long deserialized = System.nanoTime();
+            System.out.printf("image: %d bytes, write %d ms, read %d ms; serialized: %d bytes, write %d ms, read %d ms%n",
+                    image.size(), (written - start) / 1000000, (read - written) / 1000000,
+                    serialized.size(), (saved - read) / 1000000, (deserialized - saved) / 1000000);
+
+            assertEquals(before, dump(loaded));
+            assertTrue(image.size() < serialized.size());
+        }
+    }
+
+    @Test
+    public void testDeepTreeAndInodes() throws IOException {
+        check(new Disk(Long.MAX_VALUE), 3000);
+        check(new Disk(Long.MAX_VALUE, EnumSet.of(DiskOption.CONCURRENT)), 100);
+        check(new Disk(Long.MAX_VALUE, EnumSet.of(DiskOption.COLUMNAR)), 100);
+    }
+
+    @Test
+    public void testMappedLoad() throws IOException {
+        Disk disk = new Disk(Long.MAX_VALUE, EnumSet.of(DiskOption.COLUMNAR));
+        for (int i = 0; i < 200; i++) {
+            Directory dir = disk.newDir("s" + i).newDir("deep");
+            for (int j = 0; j < 500; j++) {
+                dir.newDoc("f" + j, DocumentType.values()[j % 4], "class F" + j + " { int x = " + i * j + "; }");
+            }
+        }
+        String before = dump(disk);
+        Path file = Files.createTempFile("cvfs-image", ".cvfs");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            DiskImage.write(disk, out);
+        }
+
+        long start = System.nanoTime();
+        Disk eager = DiskImage.open(file, false);
+        long read = System.nanoTime();
+        Disk lazy = DiskImage.open(file, true);
+        long mapped = System.nanoTime();
+        System.out.printf("image: %d bytes, read %d ms, mapped %d ms%n",
+                Files.size(file), (read - start) / 1000000, (mapped - read) / 1000000);
+        assertEquals(before, dump(eager));
+
+        assertEquals(disk.getSize(), lazy.getSize());
+        assertEquals(disk.getFree(), lazy.getFree());
+        Document doc = (Document) lazy.lookup("Disk:s7:deep:f3");
+        assertEquals(0, doc.getStoredSize());
+        assertEquals("class F3 { int x = 21; }", doc.getContent());
+        assertSame(doc, lazy.getNode(doc.getInode()));
+        assertEquals(disk.lookup("Disk:s7").getSize(), lazy.lookup("Disk:s7").getSize());
+        assertEquals(100000, lazy.search(lazy, Criterion.getIsDocument()).size());
+
+        ByteArrayOutputStream again = new ByteArrayOutputStream();
+        DiskImage.write(DiskImage.open(file, true), again);
+        assertEquals(before, dump(DiskImage.read(new ByteArrayInputStream(again.toByteArray()))));
+        Files.delete(file);
+    }
+
+    private static void check(Disk disk, int depth) throws IOException {
+        Directory dir = disk;
+        for (int i = 0; i < depth; i++) {
+            dir = dir.newDir("d" + i);
+        }
+        Document bottom = dir.newDoc("bottom", DocumentType.TXT, "\u4e2d\u6587");
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        DiskImage.write(disk, image);
+        Disk loaded = DiskImage.read(new ByteArrayInputStream(image.toByteArray()));
+
+        Document copy = (Document) loaded.lookup(bottom.getPath());
+        assertEquals("\u4e2d\u6587", copy.getContent());
+        assertEquals(bottom.getInode(), copy.getInode());
+        assertSame(copy, loaded.getNode(copy.getInode()));
+        assertEquals(disk.getSize(), loaded.getSize());
+        assertEquals(disk.getFree(), loaded.getFree());
+        assertTrue(loaded.newDoc("next", DocumentType.TXT, "").getInode() > bottom.getInode());
+        assertEquals(disk.isConcurrent(), loaded.isConcurrent());
+        assertEquals(disk.isColumnar(), loaded.isColumnar());
+    }
+
+    /**
+     * Describe every file on a disk by its path.
+     */
+    static String dump(Disk disk) {
+        List<String> lines = new ArrayList<>();
+        dump(disk, lines);
+        Collections.sort(lines);
+        return disk.getSize() + "\n" + String.join("\n", lines);
+    }
+
+    private static void dump(Directory dir, List<String> lines) {
+        for (Node unit : dir.getCatalog()) {
+            String line = unit.getPath() + " " + unit.getSize() + " " + unit.getInode();
+            if (unit instanceof Document) {
+                line += " " + ((Document) unit).getType() + " " + ((Document) unit).getContent();
+            } else {
+                dump((Directory) unit, lines);
+            }
+            lines.add(line);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExportTest {
+
+    @Test
+    public void testExportRoundTrip() throws IOException {
+        Disk disk = new Disk(Long.MAX_VALUE);
+        Directory project = disk.newDir("project");
+        Directory deep = project;
+        for (int i = 0; i < 30; i++) {
+            deep = deep.newDir("level" + i);
+        }
+        deep.newDoc("bottom", DocumentType.CSS, "a { }");
+        project.newDoc("big", DocumentType.TXT, new String(new char[100000]).replace('\0', '\u00e9'));
+        project.newDoc("empty", DocumentType.HTML, "");
+
+        Path host = Files.createTempDirectory("cvfs-export");
+        Exporter exporter = new Exporter(project, host.resolve("out"));
+        exporter.run();
+        assertEquals(3, exporter.getDocuments());
+        assertEquals(30, exporter.getDirectories());
+        assertEquals(200005, exporter.getBytes());
+        assertEquals(200000, Files.size(host.resolve("out").resolve("big.txt")));
+
+        Disk copy = new Disk(Long.MAX_VALUE);
+        new Importer(host.resolve("out"), copy, "project").run();
+        assertEquals(project.getSize(), copy.lookup("Disk:project").getSize());
+        Document bottom = (Document) copy.lookup(deep.getPath() + ":bottom");
+        assertEquals("a { }", bottom.getContent());
+
+        Path archive = host.resolve("out.tar");
+        new Exporter(project, archive).run();
+        byte[] bytes = Files.readAllBytes(archive);
+        assertEquals(0, bytes.length % 512);
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        assertTrue(text.contains("././@LongLink"));
+        assertTrue(text.contains("level0/level1/"));
+        try {
+            new Exporter(project, archive).run();
+            fail("the archive already exists");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DiskOption;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ImportTest {
+
+    @Test
+    public void testImportTree() throws IOException {
+        Path host = Files.createTempDirectory("cvfs-import");
+        for (int i = 0; i < 50; i++) {
+            Path dir = Files.createDirectories(host.resolve("d" + i));
+            for (int j = 0; j < 100; j++) {
+                write(dir.resolve("f" + j + ".java"), "class F" + j + " {}");
+            }
+        }
+        write(host.resolve("notes.txt"), "h\u00e9llo");
+        write(host.resolve("image.png"), "skipped");
+        write(host.resolve("bad_name.css"), "skipped");
+        Files.createDirectories(host.resolve("bad-dir"));
+        write(host.resolve("bad-dir").resolve("x.txt"), "skipped");
+
+        for (Disk disk : new Disk[]{new Disk(Long.MAX_VALUE),
+                new Disk(Long.MAX_VALUE, EnumSet.of(DiskOption.CONCURRENT))}) {
+            Directory target = disk.newDir("target");
+            long start = System.nanoTime();
+            Importer importer = new Importer(host, target, "src");
+            Directory src = importer.run();
+            System.out.printf("imported %d files in %d us%n", importer.getDocuments(),
+                    (System.nanoTime() - start) / 1000);
+
+            assertEquals(5001, importer.getDocuments());
+            assertEquals(51, importer.getDirectories());
+            assertEquals(3, importer.getSkipped());
+            Document doc = (Document) disk.lookup("Disk:target:src:d49:f99");
+            assertEquals(DocumentType.JAVA, doc.getType());
+            assertEquals("class F99 {}", doc.getContent());
+            assertEquals("h\u00e9llo", ((Document) disk.lookup("Disk:target:src:notes")).getContent());
+            assertEquals(doc, disk.getNode(doc.getInode()));
+            assertEquals(sumOf(src), src.getSize());
+            assertEquals(Node.SIZE_PREFIX + src.getSize(), disk.getSize());
+            assertEquals(disk.getCapacity() - disk.getSize(), disk.getFree());
+        }
+        Disk small = new Disk(10000);
+        try {
+            new Importer(host, small, "src").run();
+            fail("the tree does not fit");
+        } catch (IllegalStateException e) {
+            assertNull(small.lookup("Disk:src"));
+            assertEquals(0, small.getSize());
+            assertEquals(10000, small.getFree());
+        }
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long sumOf(Directory dir) {
+        long size = Node.SIZE_PREFIX;
+        for (Node unit : dir.getCatalog()) {
+            size += unit instanceof Directory ? sumOf((Directory) unit) : unit.getSize();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,131 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InodeTest {
+
+    /**
+     * The ID of the file made last by <code>tree</code>, deleted again.
+     */
+    private long last;
+
+    @Test
+    public void testInodesSurviveChanges() {
+        Disk disk = tree();
+        Map<String, Long> before = inodes(disk);
+        Document doc = (Document) disk.lookup("Disk:a:b:f");
+        long inode = doc.getInode();
+        disk.rename("a", "x");
+        ((Directory) disk.lookup("Disk:x")).move("b", disk, "b");
+        assertEquals(inode, doc.getInode());
+        assertSame(doc, disk.getNode(inode));
+
+        // a deleted file's ID is never handed out again
+        assertTrue(last > max(before));
+        ((Directory) disk.lookup("Disk:b")).delete("f");
+        assertNull(disk.getNode(inode));
+        assertNull(disk.getNode(last));
+        assertTrue(disk.newDoc("g", DocumentType.TXT, "").getInode() > last);
+    }
+
+    @Test
+    public void testInodesSurviveSerialization() throws Exception {
+        Disk disk = tree();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(disk);
+        }
+        Disk loaded;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            loaded = (Disk) in.readObject();
+        }
+        check(disk, loaded);
+    }
+
+    @Test
+    public void testInodesSurviveImages() throws IOException {
+        Disk disk = tree();
+        Path image = Files.createTempFile("cvfs-inodes", ".cvfs");
+        try (OutputStream out = Files.newOutputStream(image)) {
+            DiskImage.write(disk, out);
+        }
+        check(disk, DiskImage.open(image, false));
+        check(disk, DiskImage.open(image, true));
+    }
+
+    private void check(Disk disk, Disk loaded) {
+        Map<String, Long> expected = inodes(disk);
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            Node unit = loaded.lookup(entry.getKey());
+            assertEquals(entry.getKey(), (long) entry.getValue(), unit.getInode());
+            assertSame(unit, loaded.getNode(entry.getValue()));
+        }
+        assertEquals(expected, inodes(loaded));
+        // IDs go on from where the saved disk left off, past deleted files
+        assertNull(loaded.getNode(last));
+        assertTrue(loaded.newDoc("next", DocumentType.TXT, "").getInode() > last);
+    }
+
+    /**
+     * Build a small tree in which some IDs, the last one among them, were
+     * used by files deleted before the disk is saved.
+     */
+    private Disk tree() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Directory a = disk.newDir("a");
+        Directory b = a.newDir("b");
+        b.newDoc("f", DocumentType.TXT, "f");
+        for (int i = 0; i < 20; i++) {
+            b.newDoc("t" + i, DocumentType.TXT, "t");
+        }
+        for (int i = 0; i < 20; i += 2) {
+            b.delete("t" + i);
+        }
+        disk.newDir("c").newDoc("g", DocumentType.CSS, "g");
+        last = disk.newDoc("z", DocumentType.TXT, "z").getInode();
+        disk.delete("z");
+        return disk;
+    }
+
+    private static Map<String, Long> inodes(Disk disk) {
+        Map<String, Long> inodes = new HashMap<>();
+        Deque<Directory> pending = new ArrayDeque<>();
+        pending.push(disk);
+        while (!pending.isEmpty()) {
+            for (Node unit : pending.pop().getCatalog()) {
+                inodes.put(unit.getPath(), unit.getInode());
+                if (unit instanceof Directory) {
+                    pending.push((Directory) unit);
+                }
+            }
+        }
+        return inodes;
+    }
+
+    private static long max(Map<String, Long> inodes) {
+        long max = 0;
+        for (long inode : inodes.values()) {
+            max = Math.max(max, inode);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,191 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DiskOption;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JournalTest {
+
+    @Test
+    public void testReplayAfterImage() throws IOException {
+        Path dir = Files.createTempDirectory("cvfs-journal");
+        Path image = dir.resolve("d.cvfs");
+        Path log = dir.resolve("d.journal");
+
+        Disk disk = new Disk(1000000);
+        Directory src = disk.newDir("src");
+        src.newDoc("a", DocumentType.JAVA, "class A { }");
+        // the image is written at a cut of the journal, so the records
+        // made before it are not replayed
+        Journal.create(disk, log, image);
+        Directory docs = disk.newDir("docs");
+        docs.newDoc("readme", DocumentType.TXT, "hello");
+        save(disk, image);
+
+        src.newDoc("b", DocumentType.JAVA, "class B { }");
+        src.rename("a", "main");
+        src.move("b", docs, "b2");
+        src.copy("main", docs, "main");
+        disk.copy("src", docs, "old");
+        docs.delete("readme");
+        Directory deep = docs.newDir("deep");
+        deep.newDoc("x", DocumentType.CSS, "x { }");
+        disk.move("src", deep, "src");
+        String after = DiskImageTest.dump(disk);
+        long logSize = disk.journal().size();
+        Journal.detach(disk);
+
+        Disk loaded = DiskImage.open(image, true);
+        Journal journal = Journal.open(loaded, log, image);
+        assertEquals(9, journal.getReplayed());
+        assertEquals(after, DiskImageTest.dump(loaded));
+        assertEquals(disk.getFree(), loaded.getFree());
+
+        // a record cut short by a crash is dropped, and appends go on after
+        // the last whole one
+        Journal.detach(loaded);
+        try (OutputStream out = Files.newOutputStream(log, StandardOpenOption.APPEND)) {
+            out.write(new byte[]{40, 1, 2, 3});
+        }
+        loaded = DiskImage.open(image, false);
+        Journal.open(loaded, log, image);
+        assertEquals(logSize, Files.size(log));
+        ((Directory) loaded.lookup("Disk:docs")).newDoc("late", DocumentType.HTML, "<p>");
+        after = DiskImageTest.dump(loaded);
+        Journal.detach(loaded);
+
+        Disk again = DiskImage.open(image, false);
+        assertEquals(10, Journal.open(again, log, image).getReplayed());
+        assertEquals(after, DiskImageTest.dump(again));
+        Journal.detach(again);
+    }
+
+    @Test
+    public void testDivergedImageFailsToLoad() throws IOException {
+        Path dir = Files.createTempDirectory("cvfs-journal");
+        Path image = dir.resolve("d.cvfs");
+        Path log = dir.resolve("d.journal");
+
+        Disk disk = new Disk(1000000);
+        Directory docs = disk.newDir("docs");
+        docs.newDoc("readme", DocumentType.TXT, "hello");
+        Journal.create(disk, log, image);
+        save(disk, image);
+        docs.delete("readme");
+        Journal.detach(disk);
+
+        Disk loaded = DiskImage.open(image, false);
+        ((Directory) loaded.lookup("Disk:docs")).delete("readme");
+        try {
+            Journal.open(loaded, log, image);
+            fail("replayed a record that does not match the image");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("record 0"));
+        }
+    }
+
+    @Test
+    public void testConcurrentStepsReplayInOrder() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("cvfs-journal");
+        Path image = dir.resolve("d.cvfs");
+        Path log = dir.resolve("d.journal");
+
+        Disk disk = new Disk(Integer.MAX_VALUE, EnumSet.of(DiskOption.CONCURRENT));
+        Directory shared = disk.newDir("shared");
+        Journal journal = Journal.create(disk, log, image);
+        save(disk, image);
+        journal.getCheckpointer().setTriggers(Long.MAX_VALUE, 8192);
+
+        // each thread moves its files into the shared directory while the
+        // next one deletes them from there, so a delete often follows the
+        // move it depends on closely
+        int threads = 4;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            workers[t] = new Thread(() -> {
+                Directory own = disk.newDir("t" + id);
+                for (int i = 0; i < 300; i++) {
+                    own.newDoc("n" + i, DocumentType.TXT, "c" + i);
+                    own.move("n" + i, shared, "t" + id + "n" + i);
+                    try {
+                        shared.delete("t" + (id + 1) % threads + "n" + i);
+                    } catch (IllegalArgumentException e) {
+                        // not moved there yet
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        for (int i = 0; i < 1000 && !journal.getCheckpointer().isIdle(); i++) {
+            Thread.sleep(10);
+        }
+        String after = DiskImageTest.dump(disk);
+        Journal.detach(disk);
+
+        Disk loaded = DiskImage.open(image, false);
+        Journal.open(loaded, log, image);
+        assertEquals(after, DiskImageTest.dump(loaded));
+        Journal.detach(loaded);
+    }
+
+    @Test
+    public void testCheckpoint() throws IOException, InterruptedException {
+        checkpoint(new Disk(1000000));
+        checkpoint(new Disk(Integer.MAX_VALUE, EnumSet.of(DiskOption.CONCURRENT)));
+    }
+
+    private static void checkpoint(Disk disk) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("cvfs-checkpoint");
+        Path image = dir.resolve("d.cvfs");
+        Path log = dir.resolve("d.journal");
+        Journal journal = Journal.create(disk, log, image);
+        save(disk, image);
+        Checkpointer checkpointer = journal.getCheckpointer();
+        checkpointer.setTriggers(Long.MAX_VALUE, 2048);
+
+        Directory src = disk.newDir("src");
+        for (int i = 0; i < 200; i++) {
+            src.newDoc("f" + i, DocumentType.TXT, "some text " + i);
+            if (i % 3 == 0)
+                src.rename("f" + i, "g" + i);
+        }
+        // the last checkpoint may still be written a slice at a time
+        for (int i = 0; i < 1000 && !checkpointer.isIdle(); i++) {
+            if (!disk.isConcurrent())
+                disk.newDir("pad" + i);
+            Thread.sleep(10);
+        }
+        assertTrue(checkpointer.isIdle());
+        assertTrue(checkpointer.getTaken() > 0);
+        assertTrue(Files.size(log) < 4096);
+        String after = DiskImageTest.dump(disk);
+        Journal.detach(disk);
+
+        Disk loaded = DiskImage.open(image, true);
+        Journal reopened = Journal.open(loaded, log, image);
+        assertTrue(reopened.getReplayed() < 200);
+        assertEquals(after, DiskImageTest.dump(loaded));
+        Journal.detach(loaded);
+    }
+
+    private static void save(Disk disk, Path image) throws IOException {
+        try (OutputStream out = Files.newOutputStream(image)) {
+            DiskImage.write(disk, out);
+        }
+    }
+}
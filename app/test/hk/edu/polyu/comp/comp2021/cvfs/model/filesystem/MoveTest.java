@@ -0,0 +1,64 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.criteria.Criterion;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DiskOption;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MoveTest {
+
+    @Test
+    public void testMoveLargeDirectory() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Directory from = disk.newDir("a").newDir("b");
+        Directory to = disk.newDir("c").newDir("d");
+        Directory big = from.newDir("big");
+        Document last = null;
+        for (int i = 0; i < 200; i++) {
+            Directory dir = big.newDir("s" + i);
+            for (int j = 0; j < 500; j++) {
+                last = dir.newDoc("f" + j, DocumentType.TXT, "x");
+            }
+        }
+        assertSame(last, disk.lookup("Disk:a:b:big:s199:f499"));
+        long size = big.getSize();
+        long total = disk.getSize();
+
+        from.relocate(big, to, "moved");
+        assertEquals(total, disk.getSize());
+        assertEquals(Node.SIZE_PREFIX * 2, ((Directory) disk.lookup("Disk:a")).getSize());
+        assertEquals(Node.SIZE_PREFIX * 2 + size, ((Directory) disk.lookup("Disk:c")).getSize());
+        assertEquals(size, big.getSize());
+        assertNull(disk.lookup("Disk:a:b:big:s199:f499"));
+        assertSame(last, disk.lookup("Disk:c:d:moved:s199:f499"));
+        assertEquals("Disk:c:d:moved:s199:f499", last.getPath());
+        assertEquals(5, last.getLevel());
+
+        to.relocate(big, from, "big");
+        assertSame(last, disk.lookup("Disk:a:b:big:s199:f499"));
+        assertNull(disk.lookup("Disk:c:d:moved:s199:f499"));
+        assertEquals(Node.SIZE_PREFIX * 2, ((Directory) disk.lookup("Disk:c")).getSize());
+    }
+
+    @Test
+    public void testMoveOnColumnarDisk() {
+        Disk disk = new Disk(Integer.MAX_VALUE, EnumSet.of(DiskOption.COLUMNAR));
+        Directory a = disk.newDir("a");
+        Directory b = disk.newDir("b");
+        Directory c = a.newDir("c");
+        c.newDoc("x", DocumentType.TXT, "hello");
+        a.relocate(c, b, "c2");
+        Criterion all = Criterion.getIsDocument();
+        assertEquals(0, disk.search(a, all).size());
+        assertEquals(1, disk.search(b, all).size());
+        Criterion big = new Criterion("aa", "size", ">", "40");
+        assertEquals(2, disk.search(b, big).size());
+        assertEquals(3, disk.search(disk, big).size());
+    }
+}
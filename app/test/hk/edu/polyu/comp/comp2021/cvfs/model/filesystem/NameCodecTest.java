@@ -0,0 +1,82 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NameCodecTest {
+
+    private static final String SYMBOLS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(4);
+        for (int i = 0; i < 100000; i++) {
+            String name = name(random);
+            long code = NameCodec.encode(name);
+            assertTrue(code > 0);
+            assertEquals(name, NameCodec.decode(code));
+            StringBuilder out = new StringBuilder("x:");
+            NameCodec.appendTo(out, code);
+            assertEquals("x:" + name, out.toString());
+            assertEquals(code, NameCodec.tryEncode("a:" + name + ":b", 2, name.length() + 2));
+        }
+        assertEquals("zzzzzzzzzz", NameCodec.decode(NameCodec.encode("zzzzzzzzzz")));
+    }
+
+    @Test
+    public void testInvalidNames() {
+        for (String name : new String[]{null, "", "a b", "a:b", "bad_name", "tooLongName", "été"}) {
+            assertFalse(NameCodec.isEncodable(name));
+            assertEquals(0, NameCodec.tryEncode(name));
+        }
+        assertEquals(0, NameCodec.tryEncode("abc", 1, 1));
+        try {
+            NameCodec.encode("a.b");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOrderMatchesNames() {
+        Random random = new Random(5);
+        for (int i = 0; i < 100000; i++) {
+            String a = name(random);
+            String b = random.nextInt(4) == 0 ? a.substring(0, 1 + random.nextInt(a.length())) : name(random);
+            assertEquals(Integer.signum(a.compareTo(b)),
+                    Long.signum(Long.compare(NameCodec.encode(a), NameCodec.encode(b))));
+        }
+    }
+
+    @Test
+    public void testPrefixEnd() {
+        Random random = new Random(6);
+        for (int i = 0; i < 100000; i++) {
+            String name = name(random);
+            String prefix = random.nextBoolean() ? name.substring(0, 1 + random.nextInt(name.length())) : name(random);
+            long start = NameCodec.encode(prefix);
+            long end = NameCodec.prefixEnd(start, prefix.length());
+            long code = NameCodec.encode(name);
+            assertEquals(name.startsWith(prefix), code >= start && code < end);
+        }
+        long full = NameCodec.encode("abcdefghij");
+        assertEquals(full + 1, NameCodec.prefixEnd(full, NameCodec.MAX_LENGTH));
+        // the names starting with "a" end right where "b" starts
+        assertEquals(NameCodec.encode("b"), NameCodec.prefixEnd(NameCodec.encode("a"), 1));
+    }
+
+    private static String name(Random random) {
+        char[] chars = new char[1 + random.nextInt(NameCodec.MAX_LENGTH)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = SYMBOLS.charAt(random.nextInt(SYMBOLS.length()));
+        }
+        return new String(chars);
+    }
+}
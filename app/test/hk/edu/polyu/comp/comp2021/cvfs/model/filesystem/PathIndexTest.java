@@ -0,0 +1,132 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.controller.CVFSController;
+import hk.edu.polyu.comp.comp2021.cvfs.model.terminal.HistoryLogger;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PathIndexTest {
+
+    private CVFSController.loggerParser history;
+
+    @Before
+    public void openSession() {
+        HistoryLogger.openSession();
+        history = new CVFSController.loggerParser();
+    }
+
+    @After
+    public void closeSession() {
+        HistoryLogger.closeSession();
+    }
+
+    @Test
+    public void testIndexFollowsChanges() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Directory a = disk.newDir("a");
+        Directory b = a.newDir("b");
+        Document f = b.newDoc("f", DocumentType.TXT, "x");
+        Directory other = disk.newDir("other");
+        assertSame(f, disk.lookup("Disk:a:b:f"));
+        assertSame(f, disk.lookup(a, "$:b:$:f"));
+        assertSame(disk, disk.lookup("Disk"));
+        assertSame(a, disk.lookup(a, "$"));
+        assertNull(disk.lookup(a, "b:f:g"));
+        assertNull(disk.lookup(a, "b:"));
+        assertNull(disk.lookup("Disk:a:b:bad_name"));
+
+        a.rename("b", "c");
+        assertNull(disk.lookup("Disk:a:b:f"));
+        assertSame(f, disk.lookup("Disk:a:c:f"));
+
+        a.move("c", other, "d");
+        assertNull(disk.lookup("Disk:a:c"));
+        assertSame(b, disk.lookup("Disk:other:d"));
+        assertSame(f, disk.lookup(other, "d:f"));
+
+        other.delete("d");
+        assertNull(disk.lookup("Disk:other:d:f"));
+        assertNull(disk.lookup(other, "d"));
+
+        // undo the delete, the move and the rename
+        history.undo();
+        assertSame(f, disk.lookup("Disk:other:d:f"));
+        history.undo();
+        assertNull(disk.lookup("Disk:other:d:f"));
+        assertSame(f, disk.lookup("Disk:a:c:f"));
+        history.undo();
+        assertSame(f, disk.lookup("Disk:a:b:f"));
+        assertNull(disk.lookup("Disk:a:c"));
+
+        // and redo them
+        history.redo();
+        history.redo();
+        assertSame(f, disk.lookup("Disk:other:d:f"));
+        history.redo();
+        assertNull(disk.lookup("Disk:other:d"));
+        assertNull(disk.lookup("Disk:a:b:f"));
+    }
+
+    @Test
+    public void testCachedPathsFollowRenamesAndMoves() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Directory a = disk.newDir("a");
+        Directory b = a.newDir("b");
+        Directory c = b.newDir("c");
+        Document f = c.newDoc("f", DocumentType.TXT, "x");
+        Directory other = disk.newDir("other");
+        assertEquals("Disk:a:b:c:f", f.getPath());
+        assertEquals("Disk:a:b:c", c.getPath());
+        assertEquals(4, f.getLevel());
+
+        // renaming a directory reaches the cached paths below it
+        a.rename("b", "B");
+        assertEquals("Disk:a:B:c:f", f.getPath());
+        assertEquals("Disk:a:B:c", c.getPath());
+        c.rename("f", "g");
+        assertEquals("Disk:a:B:c:g", f.getPath());
+
+        a.move("B", other, "m");
+        assertEquals("Disk:other:m:c:g", f.getPath());
+        assertEquals(4, f.getLevel());
+        c.move("g", disk, "top");
+        assertEquals("Disk:top", f.getPath());
+        assertEquals(1, f.getLevel());
+
+        history.undo();
+        history.undo();
+        history.undo();
+        assertEquals("Disk:a:B:c:f", f.getPath());
+        history.undo();
+        assertEquals("Disk:a:b:c:f", f.getPath());
+        assertEquals("Disk:a:b", b.getPath());
+        assertEquals(4, f.getLevel());
+    }
+
+    @Test
+    public void testUndoCreateAndDeleteOfTree() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Directory a = disk.newDir("a");
+        Directory b = a.newDir("b");
+        Document f = b.newDoc("f", DocumentType.TXT, "x");
+        disk.delete("a");
+        assertNull(disk.lookup("Disk:a:b:f"));
+        history.undo();
+        assertSame(f, disk.lookup("Disk:a:b:f"));
+        // undo the creation of the document, then of its directory
+        history.undo();
+        assertNull(disk.lookup("Disk:a:b:f"));
+        assertSame(b, disk.lookup("Disk:a:b"));
+        history.undo();
+        assertNull(disk.lookup("Disk:a:b"));
+        history.redo();
+        history.redo();
+        assertSame(f, disk.lookup(disk, "a:b:f"));
+    }
+}
@@ -0,0 +1,126 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.terminal.HistoryLogger;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DiskOption;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReclaimTest {
+
+    private static final int DIRS = 200;
+    private static final int DOCS = 500;
+
+    @Test
+    public void testDeleteIsShelvedThenReclaimed() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Directory a = disk.newDir("a");
+        List<Document> docs = fill(a.newDir("big"));
+        Document last = docs.get(docs.size() - 1);
+        Directory big = (Directory) a.getCatalog().get("big");
+
+        a.detach(big);
+        assertNull(disk.lookup("Disk:a:big:s7:f7"));
+        assertNull(disk.getNode(last.getInode()));
+        assertEquals(Node.SIZE_PREFIX, a.getSize());
+
+        a.attach(big);
+        assertSame(last, disk.lookup(last.getPath()));
+        assertSame(last, disk.getNode(last.getInode()));
+
+        a.detach(big);
+        big.release();
+        assertFalse(disk.reclaimer().isIdle());
+        assertEquals(0, freed(docs));
+        for (int i = 0; !disk.reclaimer().isIdle(); i++) {
+            a.newDoc("n" + i, DocumentType.TXT, "x");
+        }
+        assertEquals(DIRS * DOCS, freed(docs));
+    }
+
+    @Test
+    public void testConcurrentDiskReclaimsInBackground() throws InterruptedException {
+        Disk disk = new Disk(Integer.MAX_VALUE, EnumSet.of(DiskOption.CONCURRENT));
+        Directory big = disk.newDir("big");
+        List<Document> docs = fill(big);
+        Document last = docs.get(docs.size() - 1);
+        disk.delete("big");
+        assertNull(disk.lookup(last.getPath()));
+        big.release();
+        for (int i = 0; i < 1000 && !disk.reclaimer().isIdle(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(disk.reclaimer().isIdle());
+        assertEquals(DIRS * DOCS, freed(docs));
+        assertEquals(0, disk.getSize());
+    }
+
+    @Test
+    public void testInodeLookupSkipsShelvedFiles() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Directory a = disk.newDir("a");
+        Document inside = a.newDir("b").newDoc("d", DocumentType.TXT, "x");
+        Document outside = disk.newDir("c").newDoc("d", DocumentType.TXT, "y");
+        assertSame(inside, disk.getNode(inside.getInode()));
+
+        disk.detach(a);
+        assertNull(disk.getNode(inside.getInode()));
+        assertSame(outside, disk.getNode(outside.getInode()));
+
+        // released but not yet torn down
+        a.release();
+        assertFalse(disk.reclaimer().isIdle());
+        assertNull(disk.getNode(inside.getInode()));
+        assertSame(outside, disk.getNode(outside.getInode()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDroppedDiskIsReleased() {
+        HistoryLogger logger = HistoryLogger.openSession();
+        try {
+            Disk first = new Disk(Integer.MAX_VALUE);
+            Disk second = new Disk(Integer.MAX_VALUE);
+            Document doc = second.newDir("a").newDoc("d", DocumentType.TXT, "on the dropped disk");
+            logger.newLog(HistoryLogger.OpType.SD, first, second, null);
+            logger.getlog();
+            assertEquals("on the dropped disk", doc.getContent());
+
+            // a new step drops the redo log, the only way back to the second disk
+            logger.newLog(HistoryLogger.OpType.SD, first, new Disk(Integer.MAX_VALUE), null);
+            doc.getContent();
+        } finally {
+            HistoryLogger.closeSession();
+        }
+    }
+
+    private static List<Document> fill(Directory dir) {
+        List<Document> docs = new ArrayList<>();
+        for (int i = 0; i < DIRS; i++) {
+            Directory sub = dir.newDir("s" + i);
+            for (int j = 0; j < DOCS; j++) {
+                docs.add(sub.newDoc("f" + j, DocumentType.TXT, "x" + j));
+            }
+        }
+        return docs;
+    }
+
+    /**
+     * Count the documents whose content no longer takes space in the arena.
+     */
+    private static int freed(List<Document> docs) {
+        int freed = 0;
+        for (Document doc : docs) {
+            freed += doc.getStoredSize() == 0 ? 1 : 0;
+        }
+        return freed;
+    }
+}
@@ -0,0 +1,60 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DiskOption;
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ReservationTest {
+
+    private static final long CAPACITY = 5L << 30;
+
+    @Test
+    public void testReservationOnPlainDisk() {
+        check(new Disk(CAPACITY));
+    }
+
+    @Test
+    public void testReservationOnConcurrentDisk() {
+        check(new Disk(CAPACITY, EnumSet.of(DiskOption.CONCURRENT)));
+    }
+
+    private static void check(Disk disk) {
+        Directory dir = disk.newDir("dir");
+        long docSize = Node.SIZE_PREFIX + 2;
+        long used = disk.getSize();
+
+        Reservation big = disk.reserve(3L << 30);
+        assertEquals(CAPACITY - used - (3L << 30), disk.getFree());
+        try {
+            disk.reserve(3L << 30);
+            fail("the second reservation does not fit");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        try (Reservation small = disk.reserve(10 * docSize)) {
+            for (int i = 0; i < 10; i++) {
+                dir.attach(new Document("d" + i, dir, DocumentType.TXT, "x"), small);
+            }
+            assertEquals(0, small.getRemaining());
+            try {
+                dir.attach(new Document("extra", dir, DocumentType.TXT, "x"), small);
+                fail("the reservation is used up");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+        assertEquals(used + 10 * docSize, disk.getSize());
+        assertEquals(used + 10 * docSize, dir.getSize());
+        assertEquals(CAPACITY - disk.getSize() - (3L << 30), disk.getFree());
+
+        big.close();
+        big.close();
+        assertEquals(CAPACITY - disk.getSize(), disk.getFree());
+    }
+}
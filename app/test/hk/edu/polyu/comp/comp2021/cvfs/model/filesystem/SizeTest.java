@@ -0,0 +1,103 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+public class SizeTest {
+
+    @Test
+    public void testDeferredSizesFoldExactly() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        List<Directory> dirs = new ArrayList<>();
+        dirs.add(disk);
+        Random random = new Random(2);
+        for (int i = 0; i < 3000; i++) {
+            Directory dir = dirs.get(random.nextInt(dirs.size()));
+            String name = "n" + i;
+            switch (random.nextInt(4)) {
+                case 0:
+                    dirs.add(dir.newDir(name));
+                    break;
+                case 1:
+                    if (!dir.getCatalog().isEmpty()) {
+                        Node unit = dir.getCatalog().iterator().next();
+                        if (!(unit instanceof Directory)) {
+                            dir.delete(unit.getName());
+                        }
+                    }
+                    break;
+                default:
+                    dir.newDoc(name, DocumentType.TXT, "content " + i);
+            }
+        }
+        Directory deepest = dirs.get(dirs.size() - 1);
+        Directory top = deepest;
+        while (top.getParent() != disk) {
+            top = (Directory) top.getParent();
+        }
+        for (Directory dir : dirs) {
+            assertEquals(sumOf(dir), dir.getSize());
+        }
+        long before = top.getLocalSize();
+        long used = disk.getSize();
+        deepest.newDoc("late", DocumentType.TXT, "late");
+        // the disk is charged at once, the directories only once read
+        assertEquals(used + Node.SIZE_PREFIX + 8, disk.getLocalSize());
+        assertEquals(before, top.getLocalSize());
+        assertEquals(before + Node.SIZE_PREFIX + 8, top.getSize());
+        for (Directory dir : dirs) {
+            assertEquals(sumOf(dir), dir.getSize());
+        }
+    }
+
+    @Test
+    public void testCapacityIsExactAtTheBoundary() {
+        int docSize = Node.SIZE_PREFIX + 2;
+        Disk disk = new Disk(3 * Node.SIZE_PREFIX + 10 * docSize);
+        Directory deep = disk.newDir("a").newDir("b").newDir("c");
+        for (int i = 0; i < 10; i++) {
+            deep.newDoc("f" + i, DocumentType.TXT, "x");
+        }
+        assertEquals(0, disk.getFree());
+        assertEquals(disk.getCapacity(), disk.getSize());
+        try {
+            deep.newDoc("over", DocumentType.TXT, "x");
+            fail();
+        } catch (IllegalStateException e) {
+            // one byte over is refused
+        }
+        assertEquals(disk.getCapacity(), disk.getSize());
+        assertEquals(sumOf(disk), disk.getSize());
+
+        deep.delete("f0");
+        assertEquals(docSize, disk.getFree());
+        try {
+            deep.newDoc("big", DocumentType.TXT, "xy");
+            fail();
+        } catch (IllegalStateException e) {
+            // two bytes more than is free
+        }
+        assertNotNull(deep.newDoc("fits", DocumentType.TXT, "y"));
+        assertEquals(0, disk.getFree());
+        assertEquals(sumOf(disk), disk.getSize());
+    }
+
+    /**
+     * Add up the sizes of the files in a directory from scratch.
+     */
+    private static long sumOf(Directory dir) {
+        long size = dir instanceof Disk ? 0 : Node.SIZE_PREFIX;
+        for (Node unit : dir.getCatalog()) {
+            size += unit instanceof Directory ? sumOf((Directory) unit) : unit.getSize();
+        }
+        return size;
+    }
+}
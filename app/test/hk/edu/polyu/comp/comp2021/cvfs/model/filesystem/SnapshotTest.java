@@ -0,0 +1,147 @@
+package hk.edu.polyu.comp.comp2021.cvfs.model.filesystem;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.type.DocumentType;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class SnapshotTest {
+
+    @Test
+    public void testCheckoutSeesSnapshotState() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Random random = new Random(2021);
+        List<String> expected = new ArrayList<>();
+        for (int round = 0; round < 5; round++) {
+            mutate(disk, random, 300);
+            expected.add(dump(disk));
+            disk.snapshot("s" + round);
+        }
+        mutate(disk, random, 300);
+        assertNotEquals(expected.get(4), dump(disk));
+        for (int round = 0; round < 5; round++) {
+            Disk copy = disk.checkout("s" + round);
+            assertEquals(expected.get(round), dump(copy));
+            assertEquals(disk.getSnapshots().get(round).getSize(), copy.getSize());
+        }
+    }
+
+    @Test
+    public void testReleasedContentIsKept() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Directory dir = disk.newDir("a");
+        Document doc = dir.newDoc("b", DocumentType.TXT, "kept");
+        disk.snapshot("s");
+        dir.delete("b");
+        doc.release();
+        Document copy = (Document) disk.checkout("s").lookup("Disk:a:b");
+        assertEquals("kept", copy.getContent());
+        assertEquals(doc.getInode(), copy.getInode());
+    }
+
+    @Test
+    public void testCopyOfUnchangedDisk() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        mutate(disk, new Random(7), 500);
+        assertEquals(dump(disk), dump(disk.copy()));
+    }
+
+    @Test
+    public void testCheckoutSharesContentOfDeepTree() {
+        Disk disk = new Disk(Integer.MAX_VALUE);
+        Directory dir = disk;
+        for (int i = 0; i < 3000; i++) {
+            dir = dir.newDir("d" + i);
+            dir.newDoc("f", DocumentType.TXT, "level " + i);
+        }
+        disk.snapshot("s");
+        Disk copy = disk.checkout("s");
+        assertEquals(dump(disk), dump(copy));
+        Directory original = disk;
+        Directory checkedOut = copy;
+        for (int i = 0; i < 3000; i++) {
+            original = (Directory) original.getCatalog().get("d" + i);
+            checkedOut = (Directory) checkedOut.getCatalog().get("d" + i);
+            Document doc = (Document) checkedOut.getCatalog().get("f");
+            assertNotSame(original.getCatalog().get("f"), doc);
+            assertEquals(((Document) original.getCatalog().get("f")).getContentHandle(), doc.getContentHandle());
+        }
+    }
+
+    private static void mutate(Disk disk, Random random, int steps) {
+        List<Directory> dirs = new ArrayList<>();
+        collectDirs(disk, dirs);
+        for (int i = 0; i < steps; i++) {
+            Directory dir = dirs.get(random.nextInt(dirs.size()));
+            if (disk.getNode(dir.getInode()) != dir) {
+                continue;
+            }
+            String name = "n" + random.nextInt(1000000);
+            if (dir.getCatalog().get(name) != null) {
+                continue;
+            }
+            switch (random.nextInt(5)) {
+                case 0:
+                    dirs.add(dir.newDir(name));
+                    break;
+                case 1:
+                    if (!dir.getCatalog().isEmpty()) {
+                        dir.delete(dir.getCatalog().iterator().next().getName());
+                    }
+                    break;
+                case 2:
+                    if (!dir.getCatalog().isEmpty()) {
+                        dir.rename(dir.getCatalog().iterator().next().getName(), name);
+                    }
+                    break;
+                default:
+                    dir.newDoc(name, DocumentType.CSS, "c" + random.nextInt(100));
+            }
+        }
+    }
+
+    private static void collectDirs(Directory dir, List<Directory> dirs) {
+        dirs.add(dir);
+        for (Node unit : dir.getCatalog()) {
+            if (unit instanceof Directory) {
+                collectDirs((Directory) unit, dirs);
+            }
+        }
+    }
+
+    /**
+     * Describe every file on a disk, one sorted line each.
+     */
+    private static String dump(Disk disk) {
+        List<String> lines = new ArrayList<>();
+        dump(disk, lines);
+        Collections.sort(lines);
+        return disk.getSize() + "\n" + String.join("\n", lines);
+    }
+
+    private static void dump(Directory dir, List<String> lines) {
+        // a worklist rather than recursion, so that deep trees fit the stack
+        Deque<Directory> pending = new ArrayDeque<>();
+        pending.push(dir);
+        while (!pending.isEmpty()) {
+            for (Node unit : pending.pop().getCatalog()) {
+                String line = unit.getPath() + " " + unit.getSize() + " " + unit.getInode();
+                if (unit instanceof Document) {
+                    line += " " + ((Document) unit).getContent();
+                } else {
+                    pending.push((Directory) unit);
+                }
+                lines.add(line);
+            }
+        }
+    }
+}
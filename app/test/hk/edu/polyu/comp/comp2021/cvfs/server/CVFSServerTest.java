@@ -0,0 +1,79 @@
+package hk.edu.polyu.comp.comp2021.cvfs.server;
+
+import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Directory;
+import hk.edu.polyu.comp.comp2021.cvfs.model.filesystem.Disk;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class CVFSServerTest {
+
+    private static final int SESSIONS = 200;
+
+    @Test
+    public void testSessionsAreIsolated() throws Exception {
+        CVFSServer server = new CVFSServer(0, 1 << 20);
+        int port = server.start();
+        Thread acceptor = new Thread(server::serve);
+        acceptor.start();
+
+        ExecutorService clients = Executors.newFixedThreadPool(32);
+        List<Future<String>> replies = new ArrayList<>();
+        for (int i = 0; i < SESSIONS; i++) {
+            String script = "newDir s" + i + "\nchangeDir s" + i + "\n"
+                    + "newDoc a txt hi\nnewDoc b txt hi\nundo\n"
+                    + "newSimpleCri aa name contains \"a\"\nrSearch aa\nquit\n";
+            replies.add(clients.submit(() -> talk(port, script)));
+        }
+        for (int i = 0; i < SESSIONS; i++) {
+            String reply = replies.get(i).get();
+            assertTrue(reply, reply.contains("Disk:s" + i + "$ "));
+            assertTrue(reply, reply.contains("a.txt"));
+        }
+        clients.shutdown();
+        server.close();
+        acceptor.join();
+
+        Disk disk = server.getSharedDisk();
+        assertEquals(SESSIONS, disk.getCatalog().size());
+        for (int i = 0; i < SESSIONS; i++) {
+            Directory dir = (Directory) disk.lookup("Disk:s" + i);
+            assertNotNull(dir);
+            assertEquals(1, dir.getCatalog().size());
+            assertNotNull(dir.getCatalog().get("a"));
+        }
+        while (server.getOpenSessions() > 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(SESSIONS * 8L, server.getStats().getCount());
+    }
+
+    private static String talk(int port, String script) throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(script.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = in.read(buf)) > 0; ) {
+                reply.write(buf, 0, n);
+            }
+            return new String(reply.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}